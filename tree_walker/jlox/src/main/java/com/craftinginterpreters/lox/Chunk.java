@@ -0,0 +1,135 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.craftinginterpreters.lox.OpCode.*;
+
+public final class Chunk {
+    private byte[] code = new byte[16];
+    private int[] lines = new int[16];
+    private int count = 0;
+    // LoxValue literals, String names and the VmFunction prototypes of nested functions.
+    private final List<Object> constants = new ArrayList<>();
+    private final Map<Object, Integer> constantIndex = new HashMap<>();
+
+    public void write(byte b, int line) {
+        if (count == code.length) {
+            code = Arrays.copyOf(code, count * 2);
+            lines = Arrays.copyOf(lines, count * 2);
+        }
+        code[count] = b;
+        lines[count] = line;
+        count++;
+    }
+
+    public void patch(int offset, byte b) {
+        code[offset] = b;
+    }
+
+    public int addConstant(Object value) {
+        // Names and numbers repeat a lot, reuse the slot instead of growing the pool.
+        if (value instanceof VmFunction) {
+            constants.add(value);
+            return constants.size() - 1;
+        }
+        Integer existing = constantIndex.get(value);
+        if (existing != null)
+            return existing;
+        constants.add(value);
+        constantIndex.put(value, constants.size() - 1);
+        return constants.size() - 1;
+    }
+
+    public int count() {
+        return count;
+    }
+
+    public int lineAt(int offset) {
+        return lines[offset];
+    }
+
+    public byte[] code() {
+        return Arrays.copyOf(code, count);
+    }
+
+    public Object[] constants() {
+        return constants.toArray();
+    }
+
+    ///////////////////
+    // Disassembler  //
+    ///////////////////
+    public String disassemble(String name) {
+        StringBuilder sb = new StringBuilder(String.format("== %s ==\n", name));
+        int offset = 0;
+        while (offset < count) {
+            offset = disassembleInstruction(sb, offset);
+        }
+        return sb.toString();
+    }
+
+    private int disassembleInstruction(StringBuilder sb, int offset) {
+        sb.append(String.format("%04d ", offset));
+        if (offset > 0 && lines[offset] == lines[offset - 1]) {
+            sb.append("   | ");
+        } else {
+            sb.append(String.format("%4d ", lines[offset]));
+        }
+
+        byte op = code[offset];
+        sb.append(String.format("%-16s", OpCode.name(op)));
+        switch (op) {
+            case CONSTANT, GET_GLOBAL, DEFINE_GLOBAL, SET_GLOBAL,
+                GET_PROPERTY, SET_PROPERTY, GET_SUPER, CLASS, METHOD -> {
+                int index = readShort(offset + 1);
+                sb.append(String.format(" %4d '%s'\n", index, constants.get(index)));
+                return offset + 3;
+            }
+            case GET_LOCAL, SET_LOCAL, GET_UPVALUE, SET_UPVALUE, CALL -> {
+                sb.append(String.format(" %4d\n", code[offset + 1] & 0xff));
+                return offset + 2;
+            }
+            case JUMP, JUMP_IF_FALSE -> {
+                int jump = readShort(offset + 1);
+                sb.append(String.format(" %4d -> %d\n", offset, offset + 3 + jump));
+                return offset + 3;
+            }
+            case LOOP -> {
+                int jump = readShort(offset + 1);
+                sb.append(String.format(" %4d -> %d\n", offset, offset + 3 - jump));
+                return offset + 3;
+            }
+            case INVOKE, SUPER_INVOKE -> {
+                int index = readShort(offset + 1);
+                int argc = code[offset + 3] & 0xff;
+                sb.append(String.format(" (%d args) %4d '%s'\n", argc, index, constants.get(index)));
+                return offset + 4;
+            }
+            case CLOSURE -> {
+                int index = readShort(offset + 1);
+                VmFunction function = (VmFunction) constants.get(index);
+                sb.append(String.format(" %4d %s\n", index, function));
+                int next = offset + 3;
+                for (int i = 0; i < function.upvalueCount(); i++) {
+                    boolean isLocal = code[next] == 1;
+                    int index2 = code[next + 1] & 0xff;
+                    sb.append(String.format("%04d    |                     %s %d\n", next, isLocal ? "local" : "upvalue", index2));
+                    next += 2;
+                }
+                return next;
+            }
+            default -> {
+                sb.append("\n");
+                return offset + 1;
+            }
+        }
+    }
+
+    private int readShort(int offset) {
+        return ((code[offset] & 0xff) << 8) | (code[offset + 1] & 0xff);
+    }
+}
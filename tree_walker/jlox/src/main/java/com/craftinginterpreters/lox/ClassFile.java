@@ -0,0 +1,462 @@
+package com.craftinginterpreters.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Just enough of the JVM class file format to emit the classes of the JIT.
+// Major version 49 keeps the verifier inferring types on its own, so no StackMapTable is needed.
+// JitTest.shouldPassTheVerifierWithoutStackMaps fails once a JDK stops taking that fallback.
+public final class ClassFile {
+    public static final int ACC_PUBLIC = 0x0001;
+    public static final int ACC_PRIVATE = 0x0002;
+    public static final int ACC_STATIC = 0x0008;
+    public static final int ACC_FINAL = 0x0010;
+    public static final int ACC_SUPER = 0x0020;
+
+    private static final int VERSION = 49;
+
+    private static final byte CONSTANT_UTF8 = 1;
+    private static final byte CONSTANT_INTEGER = 3;
+    private static final byte CONSTANT_DOUBLE = 6;
+    private static final byte CONSTANT_CLASS = 7;
+    private static final byte CONSTANT_STRING = 8;
+    private static final byte CONSTANT_FIELDREF = 9;
+    private static final byte CONSTANT_METHODREF = 10;
+    private static final byte CONSTANT_INTERFACE_METHODREF = 11;
+    private static final byte CONSTANT_NAME_AND_TYPE = 12;
+
+    public static class ClassFileException extends RuntimeException {
+        public ClassFileException(String msg) {
+            super(msg);
+        }
+    }
+
+    private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+    private final DataOutputStream pool = new DataOutputStream(poolBytes);
+    private final Map<String, Integer> poolIndex = new HashMap<>();
+    private int poolCount = 1;
+
+    private final int thisClass;
+    private final int superClass;
+    private final List<Integer> interfaces = new ArrayList<>();
+    private final List<byte[]> fields = new ArrayList<>();
+    private final List<byte[]> methods = new ArrayList<>();
+
+    public ClassFile(String name, String superName, String... interfaceNames) {
+        this.thisClass = classRef(name);
+        this.superClass = classRef(superName);
+        for (String iface : interfaceNames) {
+            interfaces.add(classRef(iface));
+        }
+    }
+
+    /////////////////////////////
+    // Constant Pool           //
+    /////////////////////////////
+    private int constant(String key, int slots, byte tag, PoolWriter writer) {
+        Integer existing = poolIndex.get(key);
+        if (existing != null)
+            return existing;
+        if (poolCount + slots > 0xffff)
+            throw new ClassFileException("Constant pool overflow.");
+        try {
+            pool.writeByte(tag);
+            writer.write(pool);
+        } catch (IOException io) {
+            throw new ClassFileException(io.getMessage());
+        }
+        int index = poolCount;
+        poolCount += slots;
+        poolIndex.put(key, index);
+        return index;
+    }
+
+    private interface PoolWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    public int utf8(String value) {
+        return constant("U" + value, 1, CONSTANT_UTF8, out -> out.writeUTF(value));
+    }
+
+    public int integer(int value) {
+        return constant("I" + value, 1, CONSTANT_INTEGER, out -> out.writeInt(value));
+    }
+
+    public int doubleConstant(double value) {
+        // Doubles take two entries of the pool.
+        return constant("D" + Double.doubleToRawLongBits(value), 2, CONSTANT_DOUBLE, out -> out.writeDouble(value));
+    }
+
+    public int classRef(String internalName) {
+        int name = utf8(internalName);
+        return constant("C" + internalName, 1, CONSTANT_CLASS, out -> out.writeShort(name));
+    }
+
+    public int string(String value) {
+        int utf = utf8(value);
+        return constant("S" + value, 1, CONSTANT_STRING, out -> out.writeShort(utf));
+    }
+
+    private int nameAndType(String name, String descriptor) {
+        int n = utf8(name);
+        int d = utf8(descriptor);
+        return constant("N" + name + ":" + descriptor, 1, CONSTANT_NAME_AND_TYPE, out -> {
+            out.writeShort(n);
+            out.writeShort(d);
+        });
+    }
+
+    private int memberRef(byte tag, String owner, String name, String descriptor) {
+        int o = classRef(owner);
+        int nt = nameAndType(name, descriptor);
+        return constant(String.format("%d%s.%s:%s", tag, owner, name, descriptor), 1, tag, out -> {
+            out.writeShort(o);
+            out.writeShort(nt);
+        });
+    }
+
+    /////////////////////////////
+    // Members                 //
+    /////////////////////////////
+    public void field(int access, String name, String descriptor) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeShort(access);
+            out.writeShort(utf8(name));
+            out.writeShort(utf8(descriptor));
+            out.writeShort(0);
+        } catch (IOException io) {
+            throw new ClassFileException(io.getMessage());
+        }
+        fields.add(bytes.toByteArray());
+    }
+
+    public Code method(int access, String name, String descriptor) {
+        return new Code(access, name, descriptor);
+    }
+
+    public byte[] toBytes() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(VERSION);
+            out.writeShort(poolCount);
+            out.write(poolBytes.toByteArray());
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(interfaces.size());
+            for (int iface : interfaces) {
+                out.writeShort(iface);
+            }
+            out.writeShort(fields.size());
+            for (byte[] field : fields) {
+                out.write(field);
+            }
+            out.writeShort(methods.size());
+            for (byte[] method : methods) {
+                out.write(method);
+            }
+            out.writeShort(0);
+        } catch (IOException io) {
+            throw new ClassFileException(io.getMessage());
+        }
+        return bytes.toByteArray();
+    }
+
+    // Argument slots taken by a method descriptor, doubles and longs count twice.
+    private static int argumentSlots(String descriptor) {
+        int slots = 0;
+        int i = 1;
+        while (descriptor.charAt(i) != ')') {
+            char c = descriptor.charAt(i);
+            slots += (c == 'D' || c == 'J') ? 2 : 1;
+            // Arrays of any kind take a single slot.
+            while (descriptor.charAt(i) == '[') i++;
+            if (descriptor.charAt(i) == 'L') i = descriptor.indexOf(';', i);
+            i++;
+        }
+        return slots;
+    }
+
+    private static int returnSlots(String descriptor) {
+        char c = descriptor.charAt(descriptor.indexOf(')') + 1);
+        return c == 'V' ? 0 : (c == 'D' || c == 'J') ? 2 : 1;
+    }
+
+    /////////////////////////////
+    // Bytecode                //
+    /////////////////////////////
+    public static final int ACONST_NULL = 0x01;
+    public static final int ICONST_0 = 0x03;
+    public static final int ICONST_1 = 0x04;
+    public static final int DCONST_0 = 0x0e;
+    public static final int BIPUSH = 0x10;
+    public static final int SIPUSH = 0x11;
+    public static final int LDC_W = 0x13;
+    public static final int LDC2_W = 0x14;
+    public static final int ILOAD = 0x15;
+    public static final int DLOAD = 0x18;
+    public static final int ALOAD = 0x19;
+    public static final int AALOAD = 0x32;
+    public static final int ISTORE = 0x36;
+    public static final int DSTORE = 0x39;
+    public static final int ASTORE = 0x3a;
+    public static final int AASTORE = 0x53;
+    public static final int POP = 0x57;
+    public static final int POP2 = 0x58;
+    public static final int DUP = 0x59;
+    public static final int DUP_X1 = 0x5a;
+    public static final int SWAP = 0x5f;
+    public static final int DADD = 0x63;
+    public static final int DSUB = 0x67;
+    public static final int DMUL = 0x6b;
+    public static final int DDIV = 0x6f;
+    public static final int DNEG = 0x77;
+    public static final int DCMPL = 0x97;
+    public static final int DCMPG = 0x98;
+    public static final int IFEQ = 0x99;
+    public static final int IFNE = 0x9a;
+    public static final int IFLT = 0x9b;
+    public static final int IFGE = 0x9c;
+    public static final int IFGT = 0x9d;
+    public static final int IFLE = 0x9e;
+    public static final int IF_ACMPEQ = 0xa5;
+    public static final int IF_ACMPNE = 0xa6;
+    public static final int GOTO = 0xa7;
+    public static final int IRETURN = 0xac;
+    public static final int DRETURN = 0xaf;
+    public static final int ARETURN = 0xb0;
+    public static final int RETURN = 0xb1;
+    public static final int GETSTATIC = 0xb2;
+    public static final int PUTSTATIC = 0xb3;
+    public static final int GETFIELD = 0xb4;
+    public static final int PUTFIELD = 0xb5;
+    public static final int INVOKEVIRTUAL = 0xb6;
+    public static final int INVOKESPECIAL = 0xb7;
+    public static final int INVOKESTATIC = 0xb8;
+    public static final int INVOKEINTERFACE = 0xb9;
+    public static final int NEW = 0xbb;
+    public static final int ANEWARRAY = 0xbd;
+    public static final int ATHROW = 0xbf;
+    public static final int CHECKCAST = 0xc0;
+    public static final int INSTANCEOF = 0xc1;
+
+    public static final class Label {
+        private int position = -1;
+        private int stack = -1;
+        private final List<Integer> fixups = new ArrayList<>();
+    }
+
+    // Tracks the operand stack depth of every instruction so max_stack comes out on its own.
+    public final class Code {
+        private final int access;
+        private final String name;
+        private final String descriptor;
+        private final ByteArrayOutputStream code = new ByteArrayOutputStream();
+        private final List<Label> labels = new ArrayList<>();
+        private int stack = 0;
+        private int maxStack = 0;
+        private int maxLocals;
+
+        private Code(int access, String name, String descriptor) {
+            this.access = access;
+            this.name = name;
+            this.descriptor = descriptor;
+            this.maxLocals = argumentSlots(descriptor) + ((access & ACC_STATIC) != 0 ? 0 : 1);
+        }
+
+        public int position() {
+            return code.size();
+        }
+
+        // A fresh local variable slot, two for doubles.
+        public int newLocal(int size) {
+            int local = maxLocals;
+            maxLocals += size;
+            return local;
+        }
+
+        private void adjust(int effect) {
+            stack += effect;
+            if (stack < 0)
+                throw new ClassFileException(String.format("Operand stack underflow in %s.", name));
+            maxStack = Math.max(maxStack, stack);
+        }
+
+        private void u1(int b) {
+            code.write(b);
+        }
+
+        private void u2(int s) {
+            code.write((s >> 8) & 0xff);
+            code.write(s & 0xff);
+        }
+
+        public Code op(int opcode, int effect) {
+            u1(opcode);
+            adjust(effect);
+            return this;
+        }
+
+        public Code local(int opcode, int index, int effect) {
+            if (index > 0xff)
+                throw new ClassFileException("Too many locals.");
+            u1(opcode);
+            u1(index);
+            adjust(effect);
+            return this;
+        }
+
+        public Code aload(int index) {
+            return local(ALOAD, index, 1);
+        }
+
+        public Code astore(int index) {
+            return local(ASTORE, index, -1);
+        }
+
+        public Code iconst(int value) {
+            if (value >= -1 && value <= 5)
+                return op(ICONST_0 + value, 1);
+            if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                u1(BIPUSH);
+                u1(value);
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                u1(SIPUSH);
+                u2(value);
+            } else {
+                u1(LDC_W);
+                u2(integer(value));
+            }
+            adjust(1);
+            return this;
+        }
+
+        public Code dconst(double value) {
+            u1(LDC2_W);
+            u2(doubleConstant(value));
+            adjust(2);
+            return this;
+        }
+
+        public Code ldc(String value) {
+            u1(LDC_W);
+            u2(string(value));
+            adjust(1);
+            return this;
+        }
+
+        public Code type(int opcode, String internalName) {
+            u1(opcode);
+            u2(classRef(internalName));
+            adjust(opcode == NEW ? 1 : 0);
+            return this;
+        }
+
+        public Code field(int opcode, String owner, String fieldName, String fieldDescriptor) {
+            u1(opcode);
+            u2(memberRef(CONSTANT_FIELDREF, owner, fieldName, fieldDescriptor));
+            int size = (fieldDescriptor.equals("D") || fieldDescriptor.equals("J")) ? 2 : 1;
+            adjust(switch (opcode) {
+                case GETSTATIC -> size;
+                case PUTSTATIC -> -size;
+                case GETFIELD -> size - 1;
+                default -> -size - 1;
+            });
+            return this;
+        }
+
+        public Code invoke(int opcode, String owner, String methodName, String methodDescriptor) {
+            int receiver = opcode == INVOKESTATIC ? 0 : 1;
+            int effect = returnSlots(methodDescriptor) - argumentSlots(methodDescriptor) - receiver;
+            u1(opcode);
+            if (opcode == INVOKEINTERFACE) {
+                u2(memberRef(CONSTANT_INTERFACE_METHODREF, owner, methodName, methodDescriptor));
+                u1(argumentSlots(methodDescriptor) + 1);
+                u1(0);
+            } else {
+                u2(memberRef(CONSTANT_METHODREF, owner, methodName, methodDescriptor));
+            }
+            adjust(effect);
+            return this;
+        }
+
+        // Conditional jumps pop their operands, GOTO leaves the stack as it is.
+        public Code jump(int opcode, Label target) {
+            int effect = switch (opcode) {
+                case GOTO -> 0;
+                case IF_ACMPEQ, IF_ACMPNE -> -2;
+                default -> -1;
+            };
+            adjust(effect);
+            if (target.stack >= 0 && target.stack != stack)
+                throw new ClassFileException(String.format("Inconsistent stack at jump in %s.", name));
+            target.stack = stack;
+            target.fixups.add(code.size());
+            u1(opcode);
+            u2(0);
+            if (!labels.contains(target))
+                labels.add(target);
+            return this;
+        }
+
+        public Code mark(Label label) {
+            label.position = code.size();
+            // After a GOTO or a return the tracked depth means nothing, the jumps into the label know better.
+            if (label.stack >= 0)
+                stack = label.stack;
+            else
+                label.stack = stack;
+            if (!labels.contains(label))
+                labels.add(label);
+            return this;
+        }
+
+        public void end() {
+            byte[] bytes = code.toByteArray();
+            if (bytes.length > 0xffff)
+                throw new ClassFileException(String.format("Method %s is too large.", name));
+            for (Label label : labels) {
+                for (int site : label.fixups) {
+                    if (label.position < 0)
+                        throw new ClassFileException(String.format("Unbound label in %s.", name));
+                    int offset = label.position - site;
+                    if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE)
+                        throw new ClassFileException(String.format("Jump too far in %s.", name));
+                    bytes[site + 1] = (byte) (offset >> 8);
+                    bytes[site + 2] = (byte) offset;
+                }
+            }
+
+            ByteArrayOutputStream method = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(method);
+            try {
+                out.writeShort(access);
+                out.writeShort(utf8(name));
+                out.writeShort(utf8(descriptor));
+                out.writeShort(1);
+                out.writeShort(utf8("Code"));
+                out.writeInt(12 + bytes.length);
+                out.writeShort(maxStack);
+                out.writeShort(maxLocals);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+                out.writeShort(0);
+                out.writeShort(0);
+            } catch (IOException io) {
+                throw new ClassFileException(io.getMessage());
+            }
+            methods.add(method.toByteArray());
+        }
+    }
+}
@@ -0,0 +1,617 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.craftinginterpreters.lox.Expr.Get;
+import com.craftinginterpreters.lox.Expr.Set;
+import com.craftinginterpreters.lox.Expr.Super;
+import com.craftinginterpreters.lox.Expr.This;
+
+import static com.craftinginterpreters.lox.TokenType.*;
+import static com.craftinginterpreters.lox.Expr.*;
+import static com.craftinginterpreters.lox.Stmt.*;
+
+// Compiles an already resolved program to bytecode for the VM.
+// Static errors were reported by the Resolver, the only errors left here are the VM limits.
+public class Compiler implements Stmt.Visitor<Void>, Expr.Visitor<Void> {
+    private static final int MAX_LOCALS = 256;
+    private static final int MAX_UPVALUES = 256;
+    private static final int MAX_CONSTANTS = 1 << 16;
+    private static final int MAX_JUMP = 0xffff;
+
+    private enum FunctionType {
+        SCRIPT, FUNCTION, METHOD, INITIALIZER;
+    }
+
+    private static final class Local {
+        private final String name;
+        private int depth;
+        private boolean isCaptured = false;
+
+        private Local(String name, int depth) {
+            this.name = name;
+            this.depth = depth;
+        }
+    }
+
+    private record Upvalue(int index, boolean isLocal) {}
+
+    private static final class FunctionState {
+        private final FunctionState enclosing;
+        private final VmFunction function;
+        private final FunctionType type;
+        private final List<Local> locals = new ArrayList<>();
+        private final List<Upvalue> upvalues = new ArrayList<>();
+        private int scopeDepth = 0;
+        // Stack slots in use and the peak, so the VM knows how much to reserve per frame.
+        private int stackDepth = 1;
+        private int maxStack = 1;
+
+        private FunctionState(FunctionState enclosing, VmFunction function, FunctionType type) {
+            this.enclosing = enclosing;
+            this.function = function;
+            this.type = type;
+            // Slot zero holds the callee, or the receiver for methods.
+            boolean hasReceiver = type == FunctionType.METHOD || type == FunctionType.INITIALIZER;
+            locals.add(new Local(hasReceiver ? "this" : "", 0));
+        }
+    }
+
+    private static final class ClassState {
+        private final ClassState enclosing;
+        private boolean hasSuperclass = false;
+
+        private ClassState(ClassState enclosing) {
+            this.enclosing = enclosing;
+        }
+    }
+
+    private final Lox lox;
+    private FunctionState current;
+    private ClassState currentClass;
+    private int line = 1;
+
+    public Compiler(Lox lox) {
+        this.lox = lox;
+    }
+
+    public VmFunction compile(Iterable<Stmt> program) {
+        current = new FunctionState(null, new VmFunction("", 0), FunctionType.SCRIPT);
+        for (Stmt stmt : program) {
+            compile(stmt);
+        }
+        return endFunction().function;
+    }
+
+    private void compile(Stmt stmt) {
+        try {
+            Stmt.accept(stmt, this);
+        } catch (VisitException e) {
+            // Compiling never throws, errors are reported through Lox
+        }
+    }
+
+    private void compile(Expr expr) {
+        try {
+            Expr.accept(expr, this);
+        } catch (VisitException e) {
+            // Compiling never throws, errors are reported through Lox
+        }
+    }
+
+    private FunctionState endFunction() {
+        emitReturn();
+        FunctionState state = current;
+        state.function.setUpvalueCount(state.upvalues.size());
+        state.function.finish(state.maxStack);
+        current = state.enclosing;
+        return state;
+    }
+
+    ///////////////////////////
+    // Bytecode Emission     //
+    ///////////////////////////
+    private Chunk chunk() {
+        return current.function.chunk();
+    }
+
+    private void emitByte(int b) {
+        chunk().write((byte) b, line);
+    }
+
+    private void emitShort(int value) {
+        emitByte((value >> 8) & 0xff);
+        emitByte(value & 0xff);
+    }
+
+    // Every opcode is emitted with its effect on the stack depth.
+    private void emitOp(byte op, int stackEffect) {
+        emitByte(op);
+        adjustStack(stackEffect);
+    }
+
+    private void emitOp(byte op, int operand, int stackEffect) {
+        emitOp(op, stackEffect);
+        emitShort(operand);
+    }
+
+    private void adjustStack(int delta) {
+        current.stackDepth += delta;
+        if (current.stackDepth > current.maxStack)
+            current.maxStack = current.stackDepth;
+    }
+
+    private void emitReturn() {
+        if (current.type == FunctionType.INITIALIZER) {
+            emitOp(OpCode.GET_LOCAL, 1);
+            emitByte(0);
+        } else {
+            emitOp(OpCode.NIL, 1);
+        }
+        emitOp(OpCode.RETURN, -1);
+    }
+
+    private int makeConstant(Object value) {
+        int index = chunk().addConstant(value);
+        if (index >= MAX_CONSTANTS) {
+            lox.error(line, "Too many constants in one chunk.");
+            return 0;
+        }
+        return index;
+    }
+
+    private int emitJump(byte op) {
+        emitOp(op, 0);
+        emitShort(MAX_JUMP);
+        return chunk().count() - 2;
+    }
+
+    private void patchJump(int offset) {
+        int jump = chunk().count() - offset - 2;
+        if (jump > MAX_JUMP)
+            lox.error(line, "Too much code to jump over.");
+        chunk().patch(offset, (byte) ((jump >> 8) & 0xff));
+        chunk().patch(offset + 1, (byte) (jump & 0xff));
+    }
+
+    private void emitLoop(int loopStart) {
+        emitOp(OpCode.LOOP, 0);
+        int offset = chunk().count() - loopStart + 2;
+        if (offset > MAX_JUMP)
+            lox.error(line, "Loop body too large.");
+        emitShort(offset);
+    }
+
+    ///////////////////////////
+    // Scopes and Variables  //
+    ///////////////////////////
+    private void beginScope() {
+        current.scopeDepth++;
+    }
+
+    private void endScope() {
+        current.scopeDepth--;
+        List<Local> locals = current.locals;
+        while (!locals.isEmpty() && locals.get(locals.size() - 1).depth > current.scopeDepth) {
+            if (locals.get(locals.size() - 1).isCaptured) {
+                emitOp(OpCode.CLOSE_UPVALUE, -1);
+            } else {
+                emitOp(OpCode.POP, -1);
+            }
+            locals.remove(locals.size() - 1);
+        }
+    }
+
+    private void addLocal(String name) {
+        if (current.locals.size() == MAX_LOCALS) {
+            lox.error(line, "Too many local variables in function.");
+            return;
+        }
+        current.locals.add(new Local(name, -1));
+    }
+
+    private void markInitialized() {
+        if (current.scopeDepth == 0)
+            return;
+        current.locals.get(current.locals.size() - 1).depth = current.scopeDepth;
+    }
+
+    private boolean isLocalScope() {
+        return current.scopeDepth > 0;
+    }
+
+    private static int resolveLocal(FunctionState state, String name) {
+        for (int i = state.locals.size() - 1; i >= 0; i--) {
+            Local local = state.locals.get(i);
+            if (local.name.equals(name) && local.depth != -1)
+                return i;
+        }
+        return -1;
+    }
+
+    private int resolveUpvalue(FunctionState state, String name) {
+        if (state.enclosing == null)
+            return -1;
+
+        int local = resolveLocal(state.enclosing, name);
+        if (local != -1) {
+            state.enclosing.locals.get(local).isCaptured = true;
+            return addUpvalue(state, local, true);
+        }
+
+        int upvalue = resolveUpvalue(state.enclosing, name);
+        if (upvalue != -1)
+            return addUpvalue(state, upvalue, false);
+
+        return -1;
+    }
+
+    private int addUpvalue(FunctionState state, int index, boolean isLocal) {
+        Upvalue upvalue = new Upvalue(index, isLocal);
+        int existing = state.upvalues.indexOf(upvalue);
+        if (existing != -1)
+            return existing;
+
+        if (state.upvalues.size() == MAX_UPVALUES) {
+            lox.error(line, "Too many closure variables in function.");
+            return 0;
+        }
+        state.upvalues.add(upvalue);
+        return state.upvalues.size() - 1;
+    }
+
+    private void loadVariable(String name) {
+        int arg = resolveLocal(current, name);
+        if (arg != -1) {
+            emitOp(OpCode.GET_LOCAL, 1);
+            emitByte(arg);
+        } else if ((arg = resolveUpvalue(current, name)) != -1) {
+            emitOp(OpCode.GET_UPVALUE, 1);
+            emitByte(arg);
+        } else {
+            emitOp(OpCode.GET_GLOBAL, makeConstant(name), 1);
+        }
+    }
+
+    private void storeVariable(String name) {
+        int arg = resolveLocal(current, name);
+        if (arg != -1) {
+            emitOp(OpCode.SET_LOCAL, 0);
+            emitByte(arg);
+        } else if ((arg = resolveUpvalue(current, name)) != -1) {
+            emitOp(OpCode.SET_UPVALUE, 0);
+            emitByte(arg);
+        } else {
+            emitOp(OpCode.SET_GLOBAL, makeConstant(name), 0);
+        }
+    }
+
+    // Either the value on top of the stack becomes a local, or it's moved into the globals.
+    private void defineVariable(String name) {
+        if (isLocalScope()) {
+            markInitialized();
+            return;
+        }
+        emitOp(OpCode.DEFINE_GLOBAL, makeConstant(name), -1);
+    }
+
+    private void function(Function stmt, FunctionType type) {
+        VmFunction function = new VmFunction(stmt.name().lexeme(), stmt.params().size(), stmt.name().line(), type == FunctionType.INITIALIZER);
+        current = new FunctionState(current, function, type);
+        beginScope();
+        for (Token param : stmt.params()) {
+            line = param.line();
+            addLocal(param.lexeme());
+            markInitialized();
+            adjustStack(1);
+        }
+        for (Stmt s : stmt.body()) {
+            compile(s);
+        }
+        FunctionState state = endFunction();
+
+        emitOp(OpCode.CLOSURE, makeConstant(state.function), 1);
+        for (Upvalue upvalue : state.upvalues) {
+            emitByte(upvalue.isLocal() ? 1 : 0);
+            emitByte(upvalue.index());
+        }
+    }
+
+    ////////////////////
+    // Expressions    //
+    ////////////////////
+    @Override
+    public Void visitBinaryExpr(Binary expr) throws VisitException {
+        compile(expr.left());
+        compile(expr.right());
+        line = expr.operator().line();
+        byte op = switch (expr.operator().type()) {
+            case PLUS -> OpCode.ADD;
+            case MINUS -> OpCode.SUBTRACT;
+            case STAR -> OpCode.MULTIPLY;
+            case SLASH -> OpCode.DIVIDE;
+            case LESS -> OpCode.LESS;
+            case LESS_EQUAL -> OpCode.LESS_EQUAL;
+            case GREATER -> OpCode.GREATER;
+            case GREATER_EQUAL -> OpCode.GREATER_EQUAL;
+            case EQUAL_EQUAL -> OpCode.EQUAL;
+            case BANG_EQUAL -> OpCode.NOT_EQUAL;
+            default -> throw new VisitException(String.format("Unsupporte Operation: %s", expr.operator().toString()));
+        };
+        emitOp(op, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Grouping expr) throws VisitException {
+        compile(expr.expression());
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Literal expr) throws VisitException {
+        switch (expr.value()) {
+            case LoxValue.Intern intern -> emitOp(switch (intern) {
+                    case NIL -> OpCode.NIL;
+                    case TRUE -> OpCode.TRUE;
+                    case FALSE -> OpCode.FALSE;
+                }, 1);
+            default -> emitOp(OpCode.CONSTANT, makeConstant(expr.value()), 1);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Unary expr) throws VisitException {
+        compile(expr.right());
+        line = expr.operator().line();
+        emitOp(expr.operator().type() == MINUS ? OpCode.NEGATE : OpCode.NOT, 0);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Variable expr) throws VisitException {
+        line = expr.name().line();
+        loadVariable(expr.name().lexeme());
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Assign expr) throws VisitException {
+        compile(expr.value());
+        line = expr.name().line();
+        storeVariable(expr.name().lexeme());
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Logical expr) throws VisitException {
+        compile(expr.left());
+        line = expr.operator().line();
+        if (expr.operator().type() == OR) {
+            int elseJump = emitJump(OpCode.JUMP_IF_FALSE);
+            int endJump = emitJump(OpCode.JUMP);
+            patchJump(elseJump);
+            emitOp(OpCode.POP, -1);
+            compile(expr.right());
+            patchJump(endJump);
+        } else {
+            int endJump = emitJump(OpCode.JUMP_IF_FALSE);
+            emitOp(OpCode.POP, -1);
+            compile(expr.right());
+            patchJump(endJump);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Call expr) throws VisitException {
+        int argc = expr.arguments().size();
+        switch (expr.callee()) {
+            // obj.method(args) never materializes the bound method.
+            case Get get -> {
+                compile(get.obj());
+                compileArguments(expr);
+                emitOp(OpCode.INVOKE, makeConstant(get.name().lexeme()), -argc);
+                emitByte(argc);
+            }
+            case Super sup -> {
+                line = sup.keyword().line();
+                loadVariable("this");
+                compileArguments(expr);
+                line = sup.keyword().line();
+                loadVariable("super");
+                emitOp(OpCode.SUPER_INVOKE, makeConstant(sup.method().lexeme()), -(argc + 1));
+                emitByte(argc);
+            }
+            default -> {
+                compile(expr.callee());
+                compileArguments(expr);
+                emitOp(OpCode.CALL, -argc);
+                emitByte(argc);
+            }
+        }
+        return null;
+    }
+
+    private void compileArguments(Call expr) {
+        for (Expr argument : expr.arguments()) {
+            compile(argument);
+        }
+        line = expr.paren().line();
+    }
+
+    @Override
+    public Void visitGetExpr(Get expr) throws VisitException {
+        compile(expr.obj());
+        line = expr.name().line();
+        emitOp(OpCode.GET_PROPERTY, makeConstant(expr.name().lexeme()), 0);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Set expr) throws VisitException {
+        compile(expr.obj());
+        compile(expr.value());
+        line = expr.name().line();
+        emitOp(OpCode.SET_PROPERTY, makeConstant(expr.name().lexeme()), -1);
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(This expr) throws VisitException {
+        line = expr.keyword().line();
+        loadVariable("this");
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Super expr) throws VisitException {
+        line = expr.keyword().line();
+        loadVariable("this");
+        loadVariable("super");
+        emitOp(OpCode.GET_SUPER, makeConstant(expr.method().lexeme()), -1);
+        return null;
+    }
+
+    ////////////////////
+    // Statements     //
+    ////////////////////
+    @Override
+    public Void visitExpressionStmt(Expression stmt) throws VisitException {
+        compile(stmt.expression());
+        emitOp(OpCode.POP, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Print stmt) throws VisitException {
+        compile(stmt.expression());
+        emitOp(OpCode.PRINT, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Var stmt) throws VisitException {
+        line = stmt.name().line();
+        if (isLocalScope())
+            addLocal(stmt.name().lexeme());
+
+        if (!stmt.initializer().isEmpty()) {
+            compile(stmt.initializer().get());
+        } else {
+            emitOp(OpCode.NIL, 1);
+        }
+        defineVariable(stmt.name().lexeme());
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Block stmt) throws VisitException {
+        beginScope();
+        for (Stmt s : stmt.statements()) {
+            compile(s);
+        }
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(If stmt) throws VisitException {
+        compile(stmt.condition());
+        int thenJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emitOp(OpCode.POP, -1);
+        compile(stmt.thenBranch());
+        int elseJump = emitJump(OpCode.JUMP);
+
+        patchJump(thenJump);
+        // The condition is still on the stack when we land here from thenJump.
+        adjustStack(1);
+        emitOp(OpCode.POP, -1);
+        if (!stmt.elseBranch().isEmpty())
+            compile(stmt.elseBranch().get());
+        patchJump(elseJump);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(While stmt) throws VisitException {
+        int loopStart = chunk().count();
+        compile(stmt.condition());
+        int exitJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emitOp(OpCode.POP, -1);
+        compile(stmt.body());
+        emitLoop(loopStart);
+
+        patchJump(exitJump);
+        adjustStack(1);
+        emitOp(OpCode.POP, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Function stmt) throws VisitException {
+        line = stmt.name().line();
+        if (isLocalScope()) {
+            addLocal(stmt.name().lexeme());
+            // A local function can refer to itself in its own body.
+            markInitialized();
+        }
+        function(stmt, FunctionType.FUNCTION);
+        defineVariable(stmt.name().lexeme());
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Return stmt) throws VisitException {
+        line = stmt.keyword().line();
+        if (stmt.value().isEmpty()) {
+            emitReturn();
+            return null;
+        }
+        compile(stmt.value().get());
+        emitOp(OpCode.RETURN, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) throws VisitException {
+        line = stmt.name().line();
+        String name = stmt.name().lexeme();
+        if (isLocalScope())
+            addLocal(name);
+        emitOp(OpCode.CLASS, makeConstant(name), 1);
+        defineVariable(name);
+
+        ClassState classState = new ClassState(currentClass);
+        currentClass = classState;
+
+        if (!stmt.superclass().isEmpty()) {
+            compile(stmt.superclass().get());
+            // The superclass stays on the stack as the hidden local 'super' the methods close over.
+            beginScope();
+            addLocal("super");
+            markInitialized();
+
+            loadVariable(name);
+            emitOp(OpCode.INHERIT, -1);
+            classState.hasSuperclass = true;
+        }
+
+        loadVariable(name);
+        for (Function method : stmt.methods()) {
+            line = method.name().line();
+            FunctionType type = method.name().lexeme().equals("init") ? FunctionType.INITIALIZER : FunctionType.METHOD;
+            function(method, type);
+            emitOp(OpCode.METHOD, makeConstant(method.name().lexeme()), -1);
+        }
+        emitOp(OpCode.POP, -1);
+
+        if (classState.hasSuperclass)
+            endScope();
+
+        currentClass = classState.enclosing;
+        return null;
+    }
+}
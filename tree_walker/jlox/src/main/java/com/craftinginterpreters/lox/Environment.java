@@ -1,5 +1,6 @@
 package com.craftinginterpreters.lox;
 
+import java.util.Arrays;
 import java.util.Map;
 import java.util.Optional;
 import java.util.HashMap;
@@ -7,30 +8,133 @@ import java.util.List;
 
 
 public class Environment {
-    private final Map<String, LoxValue> values = new HashMap<>();
-    private final Optional<Environment> enclosing;
+    private static final int DEFAULT_FRAME_SIZE = 4;
 
-    private static final Map<String, LoxCallable> builtins = Map.ofEntries(
-            Map.<String,LoxCallable>entry("clock", LoxClockBuiltin.fn));
+    // Named bindings only live in the global scope, every local is resolved to a slot.
+    private Map<Symbol, Global> values;
+    private LoxValue[] slots;
+    private int size = 0;
+    // Slots a closure captured, their value moved into the Upvalue and stays there until the frame is reused.
+    private Upvalue[] captured;
+    // The upvalues of the function the frame belongs to, blocks share them with their enclosing frame.
+    private Upvalue[] upvalues = Upvalue.NONE;
+    private Optional<Environment> enclosing;
+    // This environment as the enclosing one of its children, shared by all of them.
+    private Optional<Environment> self;
+
+    private static final Map<Symbol, LoxCallable> builtins = Map.ofEntries(
+            Map.<Symbol,LoxCallable>entry(Symbol.of("clock"), LoxClockBuiltin.fn));
+
+    // The cell of a global, one per name for the lifetime of the Environment: redefining the name
+    // writes the same cell, so whoever holds on to it always sees the current value.
+    // Null until the name is defined, a cell can exist for a name that's only been referenced.
+    public static final class Global {
+        private LoxValue value;
+
+        public LoxValue get() throws EnvironmentException {
+            if (value == null)
+                throw new EnvironmentException();
+            return value;
+        }
+
+        public void set(LoxValue value) throws EnvironmentException {
+            if (this.value == null)
+                throw new EnvironmentException();
+            this.value = value;
+        }
+
+        public void define(LoxValue value) {
+            this.value = value;
+        }
+    }
 
     public Environment() {
         this.enclosing = Optional.empty();
-        values.putAll(builtins);
+        this.values = new HashMap<>();
+        this.slots = new LoxValue[0];
+        builtins.forEach(this::define);
     }
 
     public Environment(Environment enclosing) {
         if (enclosing == null)
             throw new IllegalArgumentException("The Enclosing env cannot be null.");
-        this.enclosing = Optional.of(enclosing);
+        this.enclosing = enclosing.asEnclosing();
+        this.upvalues = enclosing.upvalues;
+        this.slots = new LoxValue[DEFAULT_FRAME_SIZE];
+    }
+
+    private Optional<Environment> asEnclosing() {
+        if (self == null)
+            self = Optional.of(this);
+        return self;
+    }
+
+    // Turns a frame nobody holds on to anymore into a fresh one under enclosing, see Interpreter.pushFrame.
+    public void reset(Environment enclosing) {
+        this.enclosing = enclosing.asEnclosing();
+        this.upvalues = enclosing.upvalues;
+        size = 0;
+        captured = null;
+    }
+
+    // Makes this the frame of a call, the closure's upvalues replace the ones of the enclosing frame.
+    public void bindUpvalues(Upvalue[] upvalues) {
+        this.upvalues = upvalues;
+    }
+
+    public Upvalue upvalue(int index) {
+        return upvalues[index];
     }
 
-    public void define(String name, LoxValue value) {
-        values.put(name, value);
+    // The upvalues a closure declared in this frame starts with, in the order the Resolver listed them.
+    public Upvalue[] capture(List<Stmt.Capture> captures) {
+        if (captures.isEmpty())
+            return Upvalue.NONE;
+        Upvalue[] result = new Upvalue[captures.size()];
+        for (int i = 0; i < result.length; i++) {
+            Stmt.Capture capture = captures.get(i);
+            result[i] = capture.local() ? ancestor(capture.depth()).capture(capture.index()) : upvalues[capture.index()];
+        }
+        return result;
+    }
+
+    // A local function captures its own slot before it's defined, define fills the Upvalue in then.
+    private Upvalue capture(int slot) {
+        if (captured == null)
+            captured = new Upvalue[Math.max(slots.length, slot + 1)];
+        else if (captured.length <= slot)
+            captured = Arrays.copyOf(captured, Math.max(slots.length, slot + 1));
+        if (captured[slot] == null)
+            captured[slot] = new Upvalue(slot < size ? slots[slot] : LoxValue.Intern.NIL);
+        return captured[slot];
+    }
+
+    public void define(Symbol name, LoxValue value) {
+        global(name).define(value);
+    }
+
+    // Looked up once per site that reads or writes name, the site keeps the cell from then on.
+    public Global global(Symbol name) {
+        if (values == null)
+            values = new HashMap<>();
+        return values.computeIfAbsent(name, n -> new Global());
+    }
+
+    // Locals are declared in the same order the Resolver numbered them,
+    // so defining one is just an append to the frame.
+    public int define(LoxValue value) {
+        if (size == slots.length)
+            slots = Arrays.copyOf(slots, Math.max(DEFAULT_FRAME_SIZE, size * 2));
+        slots[size] = value;
+        if (captured != null && size < captured.length && captured[size] != null)
+            captured[size].value = value;
+        return size++;
     }
 
     public void assign(Token name, LoxValue value) throws EnvironmentException  {
-        if (values.containsKey(name.lexeme())) {
-            values.put(name.lexeme(), value);
+        Global global = values == null ? null : values.get(name.symbol());
+        if (global != null && global.value != null) {
+            global.value = value;
             return;
         }
         if (!enclosing.isEmpty()) {
@@ -41,13 +145,14 @@ public class Environment {
         throw new EnvironmentException();
     }
 
-    public void assignAt(int distance, Token name, LoxValue value) throws EnvironmentException  {
-        ancestor(distance).values.put(name.lexeme(), value);
+    public void assignAt(int distance, int slot, LoxValue value) throws EnvironmentException  {
+        ancestor(distance).set(slot, value);
     }
 
     public LoxValue get(Token name) throws EnvironmentException {
-        if (values.containsKey(name.lexeme())) {
-            return values.get(name.lexeme());
+        Global global = values == null ? null : values.get(name.symbol());
+        if (global != null && global.value != null) {
+            return global.value;
         }
 
         if (!enclosing.isEmpty()) {
@@ -59,8 +164,38 @@ public class Environment {
         throw new EnvironmentException();
     }
 
-    public LoxValue getAt(int distance, String name) throws EnvironmentException {
-        return ancestor(distance).values.get(name);
+    public LoxValue getAt(int distance, int slot) throws EnvironmentException {
+        Environment env = ancestor(distance);
+        if (slot >= env.size)
+            throw new EnvironmentException();
+        if (env.captured != null && slot < env.captured.length && env.captured[slot] != null)
+            return env.captured[slot].value;
+        return env.slots[slot];
+    }
+
+    public void set(int slot, LoxValue value) throws EnvironmentException {
+        if (slot >= size)
+            throw new EnvironmentException();
+        if (captured != null && slot < captured.length && captured[slot] != null) {
+            captured[slot].value = value;
+            return;
+        }
+        slots[slot] = value;
+    }
+
+    // Drops every local so the frame can be used again, closures keep the Upvalues they took.
+    // The slots are nulled as well, what they held shouldn't stay reachable until the frame is reused.
+    public void clear() {
+        Arrays.fill(slots, 0, size, null);
+        size = 0;
+        captured = null;
+    }
+
+    // Clears a frame going back to Interpreter's stack, and lets go of the frames and upvalues it was under.
+    public void release() {
+        clear();
+        enclosing = Optional.empty();
+        upvalues = Upvalue.NONE;
     }
 
     private Environment ancestor(int distance) {
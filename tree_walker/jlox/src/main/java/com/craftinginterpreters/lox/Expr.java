@@ -1,6 +1,7 @@
 package com.craftinginterpreters.lox;
 
 import java.util.List;
+import java.util.Objects;
 
 public sealed interface Expr permits
 	Expr.Binary,
@@ -21,14 +22,159 @@ public sealed interface Expr permits
 	public static record Grouping(Expr expression) implements Expr { }
 	public static record Literal(LoxValue value) implements Expr { }
 	public static record Unary(Token operator, Expr right) implements Expr { }
-	public static record Variable(Token name) implements Expr { }
-	public static record Assign(Token name, Expr value) implements Expr { }
+	// The Binding and InlineCache a node carries are annotations, not part of its syntax: records
+	// holding one compare on everything else, so two parses of the same source are equal.
+	public static record Variable(Token name, Binding binding) implements Expr {
+		public Variable(Token name) { this(name, new Binding()); }
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Variable e && name.equals(e.name);
+		}
+
+		@Override
+		public int hashCode() {
+			return name.hashCode();
+		}
+	}
+	public static record Assign(Token name, Expr value, Binding binding) implements Expr {
+		public Assign(Token name, Expr value) { this(name, value, new Binding()); }
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Assign e && name.equals(e.name) && value.equals(e.value);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(name, value);
+		}
+	}
 	public static record Logical(Expr left, Token operator, Expr right) implements Expr { }
-	public static record Call(Expr callee, Token paren, List<Expr> arguments) implements Expr { }
-	public static record Get(Expr obj, Token name) implements Expr { }
-	public static record Set(Expr obj, Token name, Expr value) implements Expr { }
-	public static record This(Token keyword) implements Expr { }
-	public static record Super(Token keyword, Token method) implements Expr { }
+	public static record Call(Expr callee, Token paren, List<Expr> arguments, InlineCache cache) implements Expr {
+		public Call(Expr callee, Token paren, List<Expr> arguments) { this(callee, paren, arguments, new InlineCache()); }
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Call e && callee.equals(e.callee) && paren.equals(e.paren) && arguments.equals(e.arguments);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(callee, paren, arguments);
+		}
+	}
+	public static record Get(Expr obj, Token name, InlineCache cache) implements Expr {
+		public Get(Expr obj, Token name) { this(obj, name, new InlineCache()); }
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Get e && obj.equals(e.obj) && name.equals(e.name);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(obj, name);
+		}
+	}
+	public static record Set(Expr obj, Token name, Expr value, InlineCache cache) implements Expr {
+		public Set(Expr obj, Token name, Expr value) { this(obj, name, value, new InlineCache()); }
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Set e && obj.equals(e.obj) && name.equals(e.name) && value.equals(e.value);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(obj, name, value);
+		}
+	}
+	public static record This(Token keyword, Binding binding) implements Expr {
+		public This(Token keyword) { this(keyword, new Binding()); }
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof This e && keyword.equals(e.keyword);
+		}
+
+		@Override
+		public int hashCode() {
+			return keyword.hashCode();
+		}
+	}
+	// The receiver is where 'this' is found from the same place, inside a method it's the scope right below 'super'.
+	public static record Super(Token keyword, Token method, Binding binding, Binding receiver) implements Expr {
+		public Super(Token keyword, Token method) { this(keyword, method, new Binding(), new Binding()); }
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Super e && keyword.equals(e.keyword) && method.equals(e.method);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(keyword, method);
+		}
+	}
+
+	// Where the Resolver found the variable, filled in once and read on every access.
+	// Depth and slot count every scope out to the declaration, a variable of an enclosing
+	// function is also given the index of the upvalue it's reached through. A global gets
+	// the cell of its name the first time it's accessed.
+	// Mutable, so it's equal to itself only, the records holding it leave it out of theirs.
+	public static final class Binding {
+		private static final int GLOBAL = -1;
+		private static final int NONE = -1;
+
+		private int depth = GLOBAL;
+		private int slot = 0;
+		private int upvalue = NONE;
+		private Environment.Global global;
+
+		public void resolve(int depth, int slot) {
+			this.depth = depth;
+			this.slot = slot;
+			this.upvalue = NONE;
+		}
+
+		public void capture(int upvalue) {
+			this.upvalue = upvalue;
+		}
+
+		public boolean isGlobal() {
+			return depth == GLOBAL;
+		}
+
+		public boolean isUpvalue() {
+			return upvalue != NONE;
+		}
+
+		public int upvalue() {
+			return upvalue;
+		}
+
+		public Environment.Global global(Environment globals, Token name) {
+			if (global == null)
+				global = globals.global(name.symbol());
+			return global;
+		}
+
+		public int depth() {
+			return depth;
+		}
+
+		public int slot() {
+			return slot;
+		}
+
+		@Override
+		public String toString() {
+			if (isUpvalue())
+				return String.format("upvalue(%d)", upvalue);
+			return isGlobal() ? "global" : String.format("local(%d, %d)", depth, slot);
+		}
+	}
 
 	public interface Visitor<T> {
 		public T visitBinaryExpr(Binary expr) throws VisitException;
@@ -0,0 +1,281 @@
+package com.craftinginterpreters.lox;
+
+import static com.craftinginterpreters.lox.Expr.*;
+import static com.craftinginterpreters.lox.Stmt.*;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+// A parsed program as columns instead of records, the way TokenBuffer keeps tokens. Every node is
+// a kind and up to three operands: child nodes, tokens, a constant or a list, by index, -1 when absent.
+// Tokens are their type, line and Symbol, the lexeme of anything else than a name being fixed.
+// Nothing the Resolver, Optimizer or engines annotate is kept, the records are made again by view.
+public final class FlatAst {
+    private static final int NONE = -1;
+    private static final int CAPACITY_INITIAL = 64;
+
+    private enum Kind {
+        EXPRESSION, PRINT, VAR, BLOCK, IF, WHILE, FUNCTION, RETURN, CLASS,
+        BINARY, GROUPING, LITERAL, UNARY, VARIABLE, ASSIGN, LOGICAL, CALL, GET, SET, THIS, SUPER;
+    }
+
+    private static final Kind[] KINDS = Kind.values();
+    private static final TokenType[] TYPES = TokenType.values();
+
+    private byte[] kinds = new byte[CAPACITY_INITIAL];
+    private int[] as = new int[CAPACITY_INITIAL];
+    private int[] bs = new int[CAPACITY_INITIAL];
+    private int[] cs = new int[CAPACITY_INITIAL];
+    private int nodes = 0;
+
+    private byte[] tokenTypes = new byte[CAPACITY_INITIAL];
+    private int[] tokenLines = new int[CAPACITY_INITIAL];
+    private Symbol[] tokenSymbols = new Symbol[CAPACITY_INITIAL];
+    private int tokens = 0;
+
+    // A list is its length followed by its elements, nodes or tokens.
+    private int[] lists = new int[CAPACITY_INITIAL];
+    private int listsSize = 0;
+
+    private LoxValue[] constants = new LoxValue[CAPACITY_INITIAL];
+    private int constantsSize = 0;
+
+    private int[] statements = new int[CAPACITY_INITIAL];
+    private int size = 0;
+
+    // Appends a top level statement, its records can be dropped from then on.
+    void add(Stmt stmt) {
+        if (size == statements.length)
+            statements = Arrays.copyOf(statements, Math.max(size * 2, CAPACITY_INITIAL));
+        statements[size++] = encode(stmt);
+    }
+
+    // Once the parse is done, so the program doesn't keep up to twice the room it needs.
+    void trim() {
+        kinds = Arrays.copyOf(kinds, nodes);
+        as = Arrays.copyOf(as, nodes);
+        bs = Arrays.copyOf(bs, nodes);
+        cs = Arrays.copyOf(cs, nodes);
+        tokenTypes = Arrays.copyOf(tokenTypes, tokens);
+        tokenLines = Arrays.copyOf(tokenLines, tokens);
+        tokenSymbols = Arrays.copyOf(tokenSymbols, tokens);
+        lists = Arrays.copyOf(lists, listsSize);
+        constants = Arrays.copyOf(constants, constantsSize);
+        statements = Arrays.copyOf(statements, size);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int nodeCount() {
+        return nodes;
+    }
+
+    // A fresh record tree of the index'th top level statement, as the Parser made it.
+    public Stmt statement(int index) {
+        return stmt(statements[index]);
+    }
+
+    // The program as records, each statement made when it's asked for and not kept.
+    public List<Stmt> view() {
+        return new AbstractList<Stmt>() {
+            @Override
+            public Stmt get(int index) {
+                return statement(index);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    ////////////////////
+    // Records to ids //
+    ////////////////////
+
+    private int encode(Stmt stmt) {
+        return switch (stmt) {
+            case Expression s -> node(Kind.EXPRESSION, encode(s.expression()), NONE, NONE);
+            case Print s -> node(Kind.PRINT, encode(s.expression()), NONE, NONE);
+            case Var s -> node(Kind.VAR, token(s.name()), s.initializer().isEmpty() ? NONE : encode(s.initializer().get()), NONE);
+            case Block s -> node(Kind.BLOCK, stmts(s.statements()), NONE, NONE);
+            case If s -> node(Kind.IF, encode(s.condition()), encode(s.thenBranch()), s.elseBranch().isEmpty() ? NONE : encode(s.elseBranch().get()));
+            case While s -> node(Kind.WHILE, encode(s.condition()), encode(s.body()), NONE);
+            case Function s -> node(Kind.FUNCTION, token(s.name()), tokens(s.params()), stmts(s.body()));
+            case Return s -> node(Kind.RETURN, token(s.keyword()), s.value().isEmpty() ? NONE : encode(s.value().get()), NONE);
+            case Stmt.Class s -> {
+                int[] methods = new int[s.methods().size()];
+                for (int i = 0; i < methods.length; i++) {
+                    methods[i] = encode(s.methods().get(i));
+                }
+                yield node(Kind.CLASS, token(s.name()), s.superclass().isEmpty() ? NONE : encode(s.superclass().get()), list(methods));
+            }
+        };
+    }
+
+    private int encode(Expr expr) {
+        return switch (expr) {
+            case Binary e -> node(Kind.BINARY, encode(e.left()), token(e.operator()), encode(e.right()));
+            case Grouping e -> node(Kind.GROUPING, encode(e.expression()), NONE, NONE);
+            case Literal e -> node(Kind.LITERAL, constant(e.value()), NONE, NONE);
+            case Unary e -> node(Kind.UNARY, token(e.operator()), encode(e.right()), NONE);
+            case Variable e -> node(Kind.VARIABLE, token(e.name()), NONE, NONE);
+            case Assign e -> node(Kind.ASSIGN, token(e.name()), encode(e.value()), NONE);
+            case Logical e -> node(Kind.LOGICAL, encode(e.left()), token(e.operator()), encode(e.right()));
+            case Call e -> {
+                int[] arguments = new int[e.arguments().size()];
+                for (int i = 0; i < arguments.length; i++) {
+                    arguments[i] = encode(e.arguments().get(i));
+                }
+                yield node(Kind.CALL, encode(e.callee()), token(e.paren()), list(arguments));
+            }
+            case Get e -> node(Kind.GET, encode(e.obj()), token(e.name()), NONE);
+            case Set e -> node(Kind.SET, encode(e.obj()), token(e.name()), encode(e.value()));
+            case This e -> node(Kind.THIS, token(e.keyword()), NONE, NONE);
+            case Super e -> node(Kind.SUPER, token(e.keyword()), token(e.method()), NONE);
+        };
+    }
+
+    private int stmts(List<Stmt> stmts) {
+        int[] ids = new int[stmts.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = encode(stmts.get(i));
+        }
+        return list(ids);
+    }
+
+    private int tokens(List<Token> list) {
+        int[] ids = new int[list.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = token(list.get(i));
+        }
+        return list(ids);
+    }
+
+    // Children are encoded before their parent, so a node's operands always point back.
+    private int node(Kind kind, int a, int b, int c) {
+        if (nodes == kinds.length) {
+            int capacity = Math.max(nodes * 2, CAPACITY_INITIAL);
+            kinds = Arrays.copyOf(kinds, capacity);
+            as = Arrays.copyOf(as, capacity);
+            bs = Arrays.copyOf(bs, capacity);
+            cs = Arrays.copyOf(cs, capacity);
+        }
+        kinds[nodes] = (byte) kind.ordinal();
+        as[nodes] = a;
+        bs[nodes] = b;
+        cs[nodes] = c;
+        return nodes++;
+    }
+
+    private int token(Token token) {
+        if (tokens == tokenTypes.length) {
+            int capacity = Math.max(tokens * 2, CAPACITY_INITIAL);
+            tokenTypes = Arrays.copyOf(tokenTypes, capacity);
+            tokenLines = Arrays.copyOf(tokenLines, capacity);
+            tokenSymbols = Arrays.copyOf(tokenSymbols, capacity);
+        }
+        tokenTypes[tokens] = (byte) token.type().ordinal();
+        tokenLines[tokens] = token.line();
+        tokenSymbols[tokens] = token.symbol();
+        return tokens++;
+    }
+
+    private int list(int[] ids) {
+        if (listsSize + ids.length + 1 > lists.length)
+            lists = Arrays.copyOf(lists, Math.max(lists.length * 2, listsSize + ids.length + 1));
+        int list = listsSize;
+        lists[listsSize++] = ids.length;
+        System.arraycopy(ids, 0, lists, listsSize, ids.length);
+        listsSize += ids.length;
+        return list;
+    }
+
+    private int constant(LoxValue value) {
+        if (constantsSize == constants.length)
+            constants = Arrays.copyOf(constants, Math.max(constantsSize * 2, CAPACITY_INITIAL));
+        constants[constantsSize] = value;
+        return constantsSize++;
+    }
+
+    ////////////////////
+    // Ids to records //
+    ////////////////////
+
+    private Stmt stmt(int node) {
+        int a = as[node], b = bs[node], c = cs[node];
+        return switch (KINDS[kinds[node]]) {
+            case EXPRESSION -> new Expression(expr(a));
+            case PRINT -> new Print(expr(a));
+            case VAR -> new Var(token(a), b == NONE ? Optional.empty() : Optional.of(expr(b)));
+            case BLOCK -> new Block(stmts(a));
+            case IF -> new If(expr(a), stmt(b), c == NONE ? Optional.empty() : Optional.of(stmt(c)));
+            case WHILE -> new While(expr(a), stmt(b));
+            case FUNCTION -> new Function(token(a), tokenList(b), stmts(c));
+            case RETURN -> new Return(token(a), b == NONE ? Optional.empty() : Optional.of(expr(b)));
+            case CLASS -> {
+                List<Function> methods = new ArrayList<>(lists[c]);
+                for (int i = 1; i <= lists[c]; i++) {
+                    methods.add((Function) stmt(lists[c + i]));
+                }
+                yield new Stmt.Class(token(a), b == NONE ? Optional.empty() : Optional.of((Variable) expr(b)), List.copyOf(methods));
+            }
+            default -> throw new IllegalStateException(String.format("Node %d is an expression, not a statement.", node));
+        };
+    }
+
+    private Expr expr(int node) {
+        int a = as[node], b = bs[node], c = cs[node];
+        return switch (KINDS[kinds[node]]) {
+            case BINARY -> new Binary(expr(a), token(b), expr(c));
+            case GROUPING -> new Grouping(expr(a));
+            case LITERAL -> new Literal(constants[a]);
+            case UNARY -> new Unary(token(a), expr(b));
+            case VARIABLE -> new Variable(token(a));
+            case ASSIGN -> new Assign(token(a), expr(b));
+            case LOGICAL -> new Logical(expr(a), token(b), expr(c));
+            case CALL -> {
+                List<Expr> arguments = new ArrayList<>(lists[c]);
+                for (int i = 1; i <= lists[c]; i++) {
+                    arguments.add(expr(lists[c + i]));
+                }
+                yield new Call(expr(a), token(b), List.copyOf(arguments));
+            }
+            case GET -> new Get(expr(a), token(b));
+            case SET -> new Set(expr(a), token(b), expr(c));
+            case THIS -> new This(token(a));
+            case SUPER -> new Super(token(a), token(b));
+            default -> throw new IllegalStateException(String.format("Node %d is a statement, not an expression.", node));
+        };
+    }
+
+    private List<Stmt> stmts(int list) {
+        List<Stmt> stmts = new ArrayList<>(lists[list]);
+        for (int i = 1; i <= lists[list]; i++) {
+            stmts.add(stmt(lists[list + i]));
+        }
+        return List.copyOf(stmts);
+    }
+
+    private List<Token> tokenList(int list) {
+        List<Token> result = new ArrayList<>(lists[list]);
+        for (int i = 1; i <= lists[list]; i++) {
+            result.add(token(lists[list + i]));
+        }
+        return List.copyOf(result);
+    }
+
+    private Token token(int token) {
+        TokenType type = TYPES[tokenTypes[token]];
+        Symbol symbol = tokenSymbols[token];
+        // Only names have a lexeme of their own, every other token the tree keeps is punctuation or a keyword.
+        String lexeme = symbol != null ? symbol.name() : type.lexeme();
+        return new Token(type, lexeme, Optional.empty(), tokenLines[token], symbol);
+    }
+}
@@ -0,0 +1,98 @@
+package com.craftinginterpreters.lox;
+
+// Per-site cache of what a lookup resolved to, keyed on the receiver shape (or the callee for calls).
+// The first keys seen are kept, monomorphic then polymorphic up to POLYMORPHIC_LIMIT entries,
+// past that the site is megamorphic and always takes the slow path.
+// Like Expr.Binding it annotates the node and is equal to itself only.
+public final class InlineCache {
+    public static final int POLYMORPHIC_LIMIT = 4;
+
+    public enum State { UNINITIALIZED, MONOMORPHIC, POLYMORPHIC, MEGAMORPHIC }
+
+    private final Object[] keys = new Object[POLYMORPHIC_LIMIT];
+    private final Object[] targets = new Object[POLYMORPHIC_LIMIT];
+    private final int[] slots = new int[POLYMORPHIC_LIMIT];
+    private int size = 0;
+    private boolean megamorphic = false;
+    private boolean observed = false;
+    private long hits = 0;
+    private long misses = 0;
+
+    // Entry for the key, -1 on a miss.
+    public int find(Object key) {
+        for (int i = 0; i < size; i++) {
+            if (keys[i] == key) {
+                hits++;
+                return i;
+            }
+        }
+        misses++;
+        return -1;
+    }
+
+    // Entry for the key like find, but a probe of something the site already counted leaves the statistics alone.
+    public int peek(Object key) {
+        for (int i = 0; i < size; i++) {
+            if (keys[i] == key)
+                return i;
+        }
+        return -1;
+    }
+
+    public void add(Object key, int slot, Object target) {
+        if (megamorphic)
+            return;
+        if (size == POLYMORPHIC_LIMIT) {
+            megamorphic = true;
+            for (int i = 0; i < size; i++) {
+                keys[i] = null;
+                targets[i] = null;
+            }
+            size = 0;
+            return;
+        }
+        keys[size] = key;
+        slots[size] = slot;
+        targets[size] = target;
+        size++;
+    }
+
+    public int slot(int entry) {
+        return slots[entry];
+    }
+
+    public Object target(int entry) {
+        return targets[entry];
+    }
+
+    public State state() {
+        if (megamorphic)
+            return State.MEGAMORPHIC;
+        return switch (size) {
+            case 0 -> State.UNINITIALIZED;
+            case 1 -> State.MONOMORPHIC;
+            default -> State.POLYMORPHIC;
+        };
+    }
+
+    public long hits() {
+        return hits;
+    }
+
+    public long misses() {
+        return misses;
+    }
+
+    // True the first time only, so whoever collects statistics registers each site once.
+    public boolean observe() {
+        if (observed)
+            return false;
+        observed = true;
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s(hits: %d, misses: %d)", state(), hits, misses);
+    }
+}
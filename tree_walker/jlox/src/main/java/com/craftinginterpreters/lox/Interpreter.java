@@ -1,6 +1,8 @@
 package com.craftinginterpreters.lox;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -18,35 +20,90 @@ import static com.craftinginterpreters.lox.Stmt.*;
 public class Interpreter implements Expr.Visitor<LoxValue>, Stmt.Visitor<Void> {
 
     private final Lox lox;
+    private final Optional<Jit> jit;
 
     private final Environment globals = new Environment();
     private Environment environment = globals;
+    private Environment[] frames = new Environment[64];
+    private int framesTop = 0;
+    // Set by a 'return', every loop and block stops as soon as it sees it, the function call clears it.
+    private boolean returning = false;
+    private LoxValue returnValue;
+    // Set by a 'return f(...)' for the call it's about to evaluate, cleared by the call itself.
+    private boolean tailPosition = false;
+    // The call a 'return f(...)' left pending, LoxFunction.invoke takes it from here once the
+    // function returning is done. Up to four arguments are in a, b, c and d like in
+    // visitCallExpr, longer ones in the array.
+    LoxFunction tailFunction;
+    LoxInstance tailReceiver;
+    LoxValue tailA, tailB, tailC, tailD;
+    LoxValue[] tailArguments;
+    // Every Get, Set and Call site that ran at least once, for the inline cache report.
+    private final List<InlineCache> sites = new ArrayList<>();
 
-    private final Map<Expr, Integer> locals = new HashMap<>();
 
     public Interpreter(Lox lox) {
+        this(lox, Optional.empty());
+    }
+
+    public Interpreter(Lox lox, Optional<Jit> jit) {
         this.lox = lox;
+        this.jit = jit;
     }
 
     public Lox getLox() {
         return lox;
     }
 
+    public Optional<Jit> getJit() {
+        return jit;
+    }
+
+    public Environment getGlobals() {
+        return globals;
+    }
+
+    private InlineCache observe(InlineCache cache) {
+        if (cache.observe())
+            sites.add(cache);
+        return cache;
+    }
+
+    public String inlineCacheReport() {
+        Map<InlineCache.State, Integer> states = new EnumMap<>(InlineCache.State.class);
+        long hits = 0;
+        long misses = 0;
+        for (InlineCache cache : sites) {
+            states.merge(cache.state(), 1, Integer::sum);
+            hits += cache.hits();
+            misses += cache.misses();
+        }
+        double rate = hits + misses == 0 ? 0 : 100. * hits / (hits + misses);
+        return String.format("inline caches: %d sites %s, %d hits, %d misses (%.2f%% hit rate)", sites.size(), states, hits, misses, rate);
+    }
+
     public LoxValue evaluate(Expr expr) throws VisitException {
         return Expr.accept(expr, this);
     }
 
-    public void resolve(Expr expr, int depth) {
-        locals.put(expr, depth);
+    private LoxValue lookUpVariable(Token name, Binding binding) throws  EnvironmentException {
+       if (binding.isGlobal()) {
+           return binding.global(globals, name).get();
+       }
+       if (binding.isUpvalue()) {
+           return environment.upvalue(binding.upvalue()).get();
+       }
+       return environment.getAt(binding.depth(), binding.slot());
     }
 
-    private LoxValue lookUpVariable(Token name, Expr expr) throws  EnvironmentException {
-       Optional<Integer> distance = Optional.ofNullable(locals.get(expr));
-       if (!distance.isEmpty()) {
-           return environment.getAt(distance.get(), name.lexeme());
-       } else {
-           return globals.get(name);
-       }
+    // At top level names go in the globals map, anywhere else the Resolver
+    // already gave the variable the next slot of the current frame.
+    private int declare(Token name, LoxValue value) {
+        if (environment == globals) {
+            globals.define(name.symbol(), value);
+            return -1;
+        }
+        return environment.define(value);
     }
 
 	@Override
@@ -193,14 +250,14 @@ public class Interpreter implements Expr.Visitor<LoxValue>, Stmt.Visitor<Void> {
         if (!stmt.initializer().isEmpty()) {
            value = evaluate(stmt.initializer().get());
         }
-        environment.define(stmt.name().lexeme(), value);
+        declare(stmt.name(), value);
         return null;
     }
 
     @Override
     public LoxValue visitVariableExpr(Variable expr) throws VisitException {
         try {
-            return lookUpVariable(expr.name(), expr);
+            return lookUpVariable(expr.name(), expr.binding());
         } catch (EnvironmentException ee) {
             throw new VisitException(String.format("Undefined variable: %s.", expr.name()));
         }
@@ -210,11 +267,13 @@ public class Interpreter implements Expr.Visitor<LoxValue>, Stmt.Visitor<Void> {
     public LoxValue visitAssignExpr(Assign expr) throws VisitException {
         LoxValue value = evaluate(expr.value());
         try {
-            Optional<Integer> distance = Optional.ofNullable(locals.get(expr));
-            if (distance.isEmpty()) {
-                environment.assign(expr.name(), value);
+            Binding binding = expr.binding();
+            if (binding.isGlobal()) {
+                binding.global(globals, expr.name()).set(value);
+            } else if (binding.isUpvalue()) {
+                environment.upvalue(binding.upvalue()).set(value);
             } else {
-                environment.assignAt(distance.get(), expr.name(), value);
+                environment.assignAt(binding.depth(), binding.slot(), value);
             }
         } catch (EnvironmentException ee) {
             throw new VisitException(String.format("Undefined variable name: %s.", expr.name()));
@@ -224,16 +283,48 @@ public class Interpreter implements Expr.Visitor<LoxValue>, Stmt.Visitor<Void> {
 
    @Override
    public Void visitBlockStmt(Block stmt) throws VisitException {
-       executeBlock(stmt.statements(), new Environment(environment));
+       if (!stmt.scoped()) {
+           executeBlock(stmt.statements(), environment);
+       } else {
+           try {
+               executeBlock(stmt.statements(), pushFrame(environment));
+           } finally {
+               popFrame();
+           }
+       }
        return null;
    }
 
+    // Closures take the Upvalues of what they capture rather than the frame, so frames of
+    // blocks and calls are dead once they're left and come from this stack instead of allocated.
+    // Every pushFrame is paired with a popFrame in a finally.
+    public Environment pushFrame(Environment enclosing) {
+        if (framesTop == frames.length)
+            frames = Arrays.copyOf(frames, frames.length * 2);
+        Environment frame = frames[framesTop];
+        if (frame == null) {
+            frame = new Environment(enclosing);
+            frames[framesTop] = frame;
+        } else {
+            frame.reset(enclosing);
+        }
+        framesTop++;
+        return frame;
+    }
+
+    public void popFrame() {
+        frames[--framesTop].release();
+    }
+
     public void executeBlock(List<Stmt> statements, Environment env) throws VisitException {
         Environment prev = this.environment;
         try {
             this.environment = env;
             for (Stmt stmt : statements) {
-               execute(stmt);
+               // Straight to accept rather than through execute, it's one Java frame less on every Lox call.
+               Stmt.accept(stmt, this);
+               if (returning)
+                   break;
             }
         } finally {
             this.environment = prev;
@@ -266,61 +357,224 @@ public class Interpreter implements Expr.Visitor<LoxValue>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitWhileStmt(While stmt) throws VisitException {
+        if (!stmt.counted().isEmpty() && executeCounted(stmt.counted().get()))
+            return null;
         while (isTruthyValue(evaluate(stmt.condition()))) {
             execute(stmt.body());
+            if (returning)
+                break;
         }
         return null;
     }
 
+    // The counter lives in a double and only goes back to its slot when the body reads it or the loop is done.
+    // False when the counter or the limit isn't a number, the generic loop then carries on from where this one stopped.
+    private boolean executeCounted(Counted loop) throws VisitException {
+        Binding binding = loop.counter().binding();
+        try {
+            if (!(environment.getAt(binding.depth(), binding.slot()) instanceof LoxNum start))
+                return false;
+            double i = start.num();
+            Environment frame = loop.scoped() ? pushFrame(environment) : environment;
+            try {
+                while (true) {
+                    if (!(evaluate(loop.limit()) instanceof LoxNum limit)) {
+                        environment.assignAt(binding.depth(), binding.slot(), new LoxNum(i));
+                        return false;
+                    }
+                    boolean enter = switch (loop.comparison()) {
+                        case LESS -> i < limit.num();
+                        case LESS_EQUAL -> i <= limit.num();
+                        case GREATER -> i > limit.num();
+                        default -> i >= limit.num();
+                    };
+                    if (!enter)
+                        break;
+                    if (loop.readsCounter())
+                        environment.assignAt(binding.depth(), binding.slot(), new LoxNum(i));
+                    if (loop.scoped())
+                        frame.clear();
+                    executeBlock(loop.body(), frame);
+                    if (returning)
+                        return true;
+                    i += loop.step();
+                }
+                environment.assignAt(binding.depth(), binding.slot(), new LoxNum(i));
+            } finally {
+                if (loop.scoped())
+                    popFrame();
+            }
+        } catch (EnvironmentException ee) {
+            throw new VisitException(String.format("Undefined variable: %s.", loop.counter().name()));
+        }
+        return true;
+    }
+
+    // A Lox function call costs the Java stack this frame and LoxFunction.invoke's. Anything else a call
+    // site needs returns before the call or is kept out of here, so this stays small enough to inline.
+    // obj.method(...) goes straight into the method, a bound method is only made when it escapes as a value.
+    // Up to four arguments are held in locals and handed to the fixed arity entry points, longer calls
+    // build the array. Arity is only checked here. A tail call of a Lox function only evaluates
+    // the callee and the arguments, the call is left to the trampoline.
     @Override
     public LoxValue visitCallExpr(Call expr) throws VisitException {
-        LoxValue callee = evaluate(expr.callee());
+        boolean tail = tailPosition;
+        tailPosition = false;
+        LoxValue callee;
+        LoxInstance receiver = null;
+        if (expr.callee() instanceof Get get) {
+            LoxValue obj = evaluate(get.obj());
+            callee = method(get, obj);
+            if (callee != null) {
+                receiver = (LoxInstance) obj;
+            } else {
+                callee = field(get, obj);
+            }
+        } else {
+            callee = evaluate(expr.callee());
+        }
+        List<Expr> args = expr.arguments();
+        int count = args.size();
+        LoxValue a = null, b = null, c = null, d = null;
+        LoxValue[] arguments = null;
+        if (count > 4) {
+            arguments = evaluateArguments(expr);
+        } else if (count > 0) {
+            a = evaluate(args.get(0));
+            if (count > 1)
+                b = evaluate(args.get(1));
+            if (count > 2)
+                c = evaluate(args.get(2));
+            if (count > 3)
+                d = evaluate(args.get(3));
+        }
+        LoxCallable function = callable(expr, callee, count);
+        if (function instanceof LoxFunction) {
+            if (tail)
+                return defer((LoxFunction) function, receiver, a, b, c, d, arguments);
+            return ((LoxFunction) function).invoke(this, receiver, a, b, c, d, arguments);
+        }
+        return call(function, count, a, b, c, d, arguments);
+    }
+
+    // The method obj.name(...) goes straight into, null when obj isn't an instance or has no method by that name.
+    private LoxFunction method(Get get, LoxValue obj) {
+        return obj instanceof LoxInstance instance ? instance.method(get.name(), observe(get.cache())) : null;
+    }
+
+    // The callee of obj.name(...) when method found none, without counting the site's cache a second time.
+    private LoxValue field(Get get, LoxValue obj) throws VisitException {
+        if (!(obj instanceof LoxInstance instance))
+            return getProperty(get, obj);
+        try {
+            return instance.field(get.name(), get.cache());
+        } catch (LoxInstance.InstanceException ie) {
+            throw new VisitException(ie.getMessage());
+        }
+    }
+
+    // Calls of anything but a Lox function, kept out of visitCallExpr so that stays small enough to inline.
+    // A class goes straight to its initializer, it costs the Java stack what a function call does.
+    private LoxValue call(LoxCallable function, int count, LoxValue a, LoxValue b, LoxValue c, LoxValue d, LoxValue[] arguments) {
+        if (function instanceof LoxClass clazz)
+            return clazz.construct(this, a, b, c, d, arguments);
+        if (arguments != null)
+            return function.call(this, arguments);
+        return switch (count) {
+            case 0 -> function.call0(this);
+            case 1 -> function.call1(this, a);
+            case 2 -> function.call2(this, a, b);
+            case 3 -> function.call3(this, a, b, c);
+            default -> function.call4(this, a, b, c, d);
+        };
+    }
+
+    // Leaves the call for the trampoline, the Jit's tail helpers come here too. Functions built
+    // by the NodeCompiler never reach the Interpreter, so every LoxFunction here has its body to run.
+    LoxValue defer(LoxFunction function, LoxInstance receiver, LoxValue a, LoxValue b, LoxValue c, LoxValue d, LoxValue[] arguments) {
+        tailFunction = function;
+        tailReceiver = receiver;
+        tailA = a;
+        tailB = b;
+        tailC = c;
+        tailD = d;
+        tailArguments = arguments;
+        return LoxValue.Intern.NIL;
+    }
+
+    private LoxCallable callable(Call expr, LoxValue callee, int count) throws VisitException {
+        if (!(callee instanceof LoxCallable function))
+            throw new VisitException(String.format("ERR: %s is not callable.", callee.toString()));
+        checkArity(expr, callee, function, count);
+        return function;
+    }
+
+    private LoxValue[] evaluateArguments(Call expr) throws VisitException {
         // I fucking hate the fact that I can't use the stream.map because my lambda throws.
         // I understand the why, but still, fuck you java.
         // List<LoxValue> arguments = expr.arguments()
         //     .stream()
         //     .map(e -> evaluate(e))
         //     .toList();
-        List<LoxValue> arguments = new ArrayList<>();
-        for(Expr e : expr.arguments()) {
-            arguments.add(evaluate(e));
+        LoxValue[] arguments = new LoxValue[expr.arguments().size()];
+        for (int i = 0; i < arguments.length; i++) {
+            arguments[i] = evaluate(expr.arguments().get(i));
         }
+        return arguments;
+    }
 
-        Optional<LoxCallable> maybeFunction = Optional.empty();
-        if (callee instanceof LoxCallable lc) {
-            maybeFunction = Optional.of(lc);
-        }
-        if (maybeFunction.isEmpty()) {
-            throw new VisitException(String.format("ERR: %s is not callable.", callee.toString()));
+    private void checkArity(Call expr, LoxValue callee, LoxCallable function, int count) throws VisitException {
+        // Keyed on the declaration, bound methods are new LoxFunctions on every access.
+        InlineCache cache = observe(expr.cache());
+        Object key = function instanceof LoxFunction fn ? fn.declaration() : function;
+        int entry = cache.find(key);
+        int arity;
+        if (entry >= 0) {
+            arity = cache.slot(entry);
+        } else {
+            arity = function.arity();
+            cache.add(key, arity, function);
         }
-        LoxCallable function = maybeFunction.get();
-        if (function.arity() != arguments.size()) {
-            throw new VisitException(String.format("ERR: %s require %d arguments, received %d.", callee.toString(), function.arity(), arguments.size()));
+        if (arity != count) {
+            throw new VisitException(String.format("ERR: %s require %d arguments, received %d.", callee.toString(), arity, count));
         }
-
-        return function.call(this, List.<LoxValue>copyOf(arguments));
     }
 
     @Override
     public Void visitFunctionStmt(Function stmt) throws VisitException {
-        LoxFunction function = new LoxFunction(stmt, environment, false);
-        environment.define(stmt.name().lexeme(), function);
+        LoxFunction function = new LoxFunction(stmt, globals, environment.capture(stmt.scope().upvalues()), false);
+        declare(stmt.name(), function);
         return null;
     }
 
     @Override
     public Void visitReturnStmt(Return stmt) throws VisitException {
         LoxValue retValue = LoxValue.Intern.NIL;
-        if (!stmt.value().isEmpty())
+        if (stmt.tail().isMarked() && stmt.value().get() instanceof Call call) {
+            tailPosition = true;
+            retValue = visitCallExpr(call);
+        } else if (!stmt.value().isEmpty()) {
             retValue = evaluate(stmt.value().get());
+        }
 
-        throw new Return.ReturnException(retValue);
+        returnValue = retValue;
+        returning = true;
+        return null;
+    }
+
+    // The value of the 'return' the last executeBlock stopped at, NIL when the body just ran off its end.
+    public LoxValue completeReturn() {
+        if (!returning)
+            return LoxValue.Intern.NIL;
+        LoxValue value = returnValue;
+        returning = false;
+        returnValue = null;
+        return value;
     }
 
     @Override
     public Void visitClassStmt(Stmt.Class stmt) throws VisitException {
         Optional<LoxClass> superclass = Optional.empty();
-        Optional<Environment> toRestore = Optional.empty();
         if(!stmt.superclass().isEmpty()) {
             LoxValue value = evaluate(stmt.superclass().get());
             if (value instanceof LoxClass clazz) {
@@ -330,26 +584,28 @@ public class Interpreter implements Expr.Visitor<LoxValue>, Stmt.Visitor<Void> {
             }
         }
 
-        environment.define(stmt.name().lexeme(), LoxValue.Intern.NIL);
+        int slot = declare(stmt.name(), LoxValue.Intern.NIL);
 
+        // Methods only keep the frame of 'super', anything else they use is an upvalue.
+        Environment closure = globals;
         if (!stmt.superclass().isEmpty()) {
-            toRestore = Optional.of(environment);
-            environment = new Environment(environment);
-            environment.define("super", superclass.get());
+            closure = new Environment(globals);
+            closure.define(superclass.get());
         }
 
-
-        Map<String, LoxFunction> methods = new HashMap<>();
+        Map<Symbol, LoxFunction> methods = new HashMap<>();
         for(Function method : stmt.methods()) {
-            LoxFunction fn = new LoxFunction(method, environment, method.name().lexeme().equals("init"));
-            methods.put(method.name().lexeme(), fn);
+            Upvalue[] upvalues = environment.capture(method.scope().upvalues());
+            LoxFunction fn = new LoxFunction(method, closure, upvalues, method.name().symbol() == Symbol.INIT);
+            methods.put(method.name().symbol(), fn);
         }
         LoxClass clazz = new LoxClass(stmt.name().lexeme(), superclass, methods);
-        if (!superclass.isEmpty()) {
-           environment = toRestore.get();
-        }
         try {
-            environment.assign(stmt.name(), clazz);
+            if (environment == globals) {
+                globals.assign(stmt.name(), clazz);
+            } else {
+                environment.set(slot, clazz);
+            }
         } catch (EnvironmentException ee) {
             throw new VisitException(String.format("Error defining %s, maybe it's already declared.", stmt.name().lexeme()));
         }
@@ -358,10 +614,13 @@ public class Interpreter implements Expr.Visitor<LoxValue>, Stmt.Visitor<Void> {
 
     @Override
     public LoxValue visitGetExpr(Get expr) throws VisitException {
-        LoxValue obj = evaluate(expr.obj());
+        return getProperty(expr, evaluate(expr.obj()));
+    }
+
+    private LoxValue getProperty(Get expr, LoxValue obj) throws VisitException {
         if (obj instanceof LoxInstance instance) {
             try {
-                return instance.get(expr.name());
+                return instance.get(expr.name(), observe(expr.cache()));
             } catch (LoxInstance.InstanceException ie) {
                 throw new VisitException(ie.getMessage());
             }
@@ -375,7 +634,7 @@ public class Interpreter implements Expr.Visitor<LoxValue>, Stmt.Visitor<Void> {
 
         if(obj instanceof LoxInstance instance) {
             LoxValue value = evaluate(expr.value());
-            instance.set(expr.name(), value);
+            instance.set(expr.name(), value, observe(expr.cache()));
             return value;
         }
 
@@ -385,7 +644,7 @@ public class Interpreter implements Expr.Visitor<LoxValue>, Stmt.Visitor<Void> {
     @Override
     public LoxValue visitThisExpr(This expr) throws VisitException {
         try {
-            return lookUpVariable(expr.keyword(), expr);
+            return lookUpVariable(expr.keyword(), expr.binding());
         } catch(EnvironmentException ee) {
             throw new VisitException("Keyword 'this' refer to a NIL object.");
         }
@@ -393,20 +652,19 @@ public class Interpreter implements Expr.Visitor<LoxValue>, Stmt.Visitor<Void> {
 
     @Override
     public LoxValue visitSuperExpr(Super expr) throws VisitException {
-        int distance =locals.get(expr);
         try {
-            LoxClass superclass = switch(environment.getAt(distance, "super")) {
+            LoxClass superclass = switch(lookUpVariable(expr.keyword(), expr.binding())) {
                 case LoxClass clazz -> clazz;
                 default -> throw new VisitException("'LoxValue' at 'super' is not a 'LoxClass'.");
             };
 
-            LoxInstance object = switch(environment.getAt(distance - 1, "this")) {
+            LoxInstance object = switch(lookUpVariable(expr.keyword(), expr.receiver())) {
                 case LoxInstance instance -> instance;
                 default -> throw new VisitException("'LoxValue' ref at 'super' is not a 'LoxInstance'.");
             };
 
             LoxFunction method = superclass
-                .findMethod(expr.method().lexeme())
+                .findMethod(expr.method().symbol())
                 .orElseThrow(() -> new VisitException(String.format("Undefinted property '%s' of superclass.", expr.method().lexeme())));
 
             return method.bind(object);
@@ -0,0 +1,370 @@
+package com.craftinginterpreters.lox;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static com.craftinginterpreters.lox.Stmt.*;
+
+// Tier of the tree walker: once a function has been called often enough its body
+// is translated by the JitCompiler into a hidden class, from then on HotSpot compiles Lox code directly.
+// The same helpers run the classes jloxc writes ahead of time.
+public final class Jit {
+    public static final int DEFAULT_THRESHOLD = 1000;
+
+    // What every generated class implements.
+    public interface Code {
+        LoxValue run(Interpreter interpreter, Environment closure, Upvalue[] upvalues, LoxValue[] arguments) throws VisitException;
+    }
+
+    // Per declaration state, hangs off the Stmt.Function so the hidden class is only
+    // reachable from the AST and can be unloaded together with it.
+    public static final class Profile {
+        private int calls = 0;
+        private boolean rejected = false;
+        private Optional<Code> code = Optional.empty();
+
+        public Profile() {}
+
+        // Functions compiled ahead of time by jloxc start out with their code.
+        public Profile(Code code) {
+            this.code = Optional.of(code);
+        }
+
+        public Optional<Code> code() {
+            return code;
+        }
+
+        public boolean isRejected() {
+            return rejected;
+        }
+    }
+
+    private final int threshold;
+    private final MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+    public Jit() {
+        this(DEFAULT_THRESHOLD);
+    }
+
+    public Jit(int threshold) {
+        this.threshold = threshold;
+    }
+
+    public Optional<Code> codeFor(Function declaration) {
+        Profile profile = declaration.profile();
+        if (!profile.code.isEmpty() || profile.rejected)
+            return profile.code;
+        if (++profile.calls < threshold)
+            return Optional.empty();
+
+        try {
+            JitCompiler.Result result = new JitCompiler().compile(declaration);
+            // Not STRONG: the class goes away as soon as nobody references the Code instance, which only the
+            // Profile does. A Profile is compiled once at most, code or rejected it never counts calls again,
+            // so the threshold can't define a second class for a declaration whose first is still loaded.
+            // A function declared anew (the REPL, a view of a FlatAst) has a fresh Profile and counts from
+            // zero, its old class unloads with the old declaration. Not NESTMATE either, the code only calls
+            // the public helpers below.
+            MethodHandles.Lookup hidden = lookup.defineHiddenClass(result.bytes(), true);
+            Code code = (Code) hidden
+                .findConstructor(hidden.lookupClass(), MethodType.methodType(void.class, Object[].class))
+                .invoke(result.constants());
+            profile.code = Optional.of(code);
+        } catch (JitCompiler.Bailout | ClassFile.ClassFileException e) {
+            profile.rejected = true;
+        } catch (Throwable t) {
+            // A class the verifier refuses is a JitCompiler bug, the interpreter still knows how to run it.
+            profile.rejected = true;
+        }
+        return profile.code;
+    }
+
+    ////////////////////////////////////
+    // Runtime support for Jit.Code   //
+    ////////////////////////////////////
+    // Every helper matches the message of the Interpreter visit it replaces.
+    public static boolean isTruthy(LoxValue value) {
+        return value != LoxValue.Intern.NIL && value != LoxValue.Intern.FALSE;
+    }
+
+    public static LoxValue getGlobal(Interpreter interpreter, Expr.Binding binding, Token name) throws VisitException {
+        try {
+            return binding.global(interpreter.getGlobals(), name).get();
+        } catch (EnvironmentException ee) {
+            throw new VisitException(String.format("Undefined variable: %s.", name));
+        }
+    }
+
+    public static LoxValue setGlobal(LoxValue value, Interpreter interpreter, Expr.Binding binding, Token name) throws VisitException {
+        try {
+            binding.global(interpreter.getGlobals(), name).set(value);
+        } catch (EnvironmentException ee) {
+            throw new VisitException(String.format("Undefined variable name: %s.", name));
+        }
+        return value;
+    }
+
+    public static LoxValue getAt(Environment closure, int depth, int slot, Token name) throws VisitException {
+        try {
+            return closure.getAt(depth, slot);
+        } catch (EnvironmentException ee) {
+            throw new VisitException(String.format("Undefined variable: %s.", name));
+        }
+    }
+
+    public static LoxValue setAt(LoxValue value, Environment closure, int depth, int slot, Token name) throws VisitException {
+        try {
+            closure.assignAt(depth, slot, value);
+        } catch (EnvironmentException ee) {
+            throw new VisitException(String.format("Undefined variable name: %s.", name));
+        }
+        return value;
+    }
+
+    public static LoxValue getUpvalue(Upvalue[] upvalues, int index) {
+        return upvalues[index].get();
+    }
+
+    public static LoxValue setUpvalue(LoxValue value, Upvalue[] upvalues, int index) {
+        upvalues[index].set(value);
+        return value;
+    }
+
+    public static LoxValue add(LoxValue left, LoxValue right) throws VisitException {
+        if (left instanceof LoxNum l && right instanceof LoxNum r) {
+            return new LoxNum(l.num() + r.num());
+        } else if (left instanceof LoxStr l && right instanceof LoxStr r) {
+            return new LoxStr(String.format("%s%s", l.str(), r.str()));
+        } else if (left instanceof LoxStr l && right instanceof LoxNum r) {
+            return new LoxStr(String.format("%s%f", l.str(), r.num()));
+        }
+        throw new VisitException("Mismateched type, in PLUS both operand must be both str or both num");
+    }
+
+    public static LoxValue subtract(LoxValue left, LoxValue right) throws VisitException {
+        if (left instanceof LoxNum l && right instanceof LoxNum r)
+            return new LoxNum(l.num() - r.num());
+        throw new VisitException("Mismateched type, in MINUS both operand must be both num");
+    }
+
+    public static LoxValue multiply(LoxValue left, LoxValue right) throws VisitException {
+        if (left instanceof LoxNum l && right instanceof LoxNum r)
+            return new LoxNum(l.num() * r.num());
+        throw new VisitException("Mismateched type, in STAR both operand must be both num");
+    }
+
+    public static LoxValue divide(LoxValue left, LoxValue right) throws VisitException {
+        if (left instanceof LoxNum l && right instanceof LoxNum r)
+            return new LoxNum(l.num() / r.num());
+        throw new VisitException("Mismateched type, in SLASH both operand must be both num");
+    }
+
+    public static LoxValue less(LoxValue left, LoxValue right) throws VisitException {
+        if (left instanceof LoxNum l && right instanceof LoxNum r)
+            return LoxValue.Intern.fromBool(l.num() < r.num());
+        throw new VisitException("Mismateched type, in LESS both operand must be both num");
+    }
+
+    public static LoxValue lessEqual(LoxValue left, LoxValue right) throws VisitException {
+        if (left instanceof LoxNum l && right instanceof LoxNum r)
+            return LoxValue.Intern.fromBool(l.num() <= r.num());
+        throw new VisitException("Mismateched type, in LESS_EQUAL both operand must be both num");
+    }
+
+    public static LoxValue greater(LoxValue left, LoxValue right) throws VisitException {
+        if (left instanceof LoxNum l && right instanceof LoxNum r)
+            return LoxValue.Intern.fromBool(l.num() > r.num());
+        throw new VisitException("Mismateched type, in GREATER both operand must be both num");
+    }
+
+    public static LoxValue greaterEqual(LoxValue left, LoxValue right) throws VisitException {
+        if (left instanceof LoxNum l && right instanceof LoxNum r)
+            return LoxValue.Intern.fromBool(l.num() >= r.num());
+        throw new VisitException("Mismateched type, in GREATER_EQUAL both operand must be both num");
+    }
+
+    public static LoxValue equal(LoxValue left, LoxValue right) {
+        return LoxValue.Intern.fromBool(left.equals(right));
+    }
+
+    public static LoxValue notEqual(LoxValue left, LoxValue right) {
+        return LoxValue.Intern.fromBool(!left.equals(right));
+    }
+
+    public static LoxValue negate(LoxValue right) {
+        if (right instanceof LoxNum n)
+            return new LoxNum(-n.num());
+        throw new IllegalStateException("Invalid arguments for MINUS '-'");
+    }
+
+    public static LoxValue not(LoxValue right) {
+        return LoxValue.Intern.fromBool(!isTruthy(right));
+    }
+
+    public static void print(LoxValue value) {
+        System.out.println(value.toString());
+    }
+
+    public static LoxValue call(LoxValue callee, LoxValue[] arguments, Interpreter interpreter) throws VisitException {
+        return callable(callee, arguments.length).call(interpreter, arguments);
+    }
+
+    public static LoxValue call0(LoxValue callee, Interpreter interpreter) throws VisitException {
+        return callable(callee, 0).call0(interpreter);
+    }
+
+    public static LoxValue call1(LoxValue callee, LoxValue a, Interpreter interpreter) throws VisitException {
+        return callable(callee, 1).call1(interpreter, a);
+    }
+
+    public static LoxValue call2(LoxValue callee, LoxValue a, LoxValue b, Interpreter interpreter) throws VisitException {
+        return callable(callee, 2).call2(interpreter, a, b);
+    }
+
+    public static LoxValue call3(LoxValue callee, LoxValue a, LoxValue b, LoxValue c, Interpreter interpreter) throws VisitException {
+        return callable(callee, 3).call3(interpreter, a, b, c);
+    }
+
+    public static LoxValue call4(LoxValue callee, LoxValue a, LoxValue b, LoxValue c, LoxValue d, Interpreter interpreter) throws VisitException {
+        return callable(callee, 4).call4(interpreter, a, b, c, d);
+    }
+
+    // The calls of a 'return f(...)': a Lox function is left to the trampoline of the function returning.
+    public static LoxValue tail(LoxValue callee, LoxValue[] arguments, Interpreter interpreter) throws VisitException {
+        LoxCallable function = callable(callee, arguments.length);
+        if (function instanceof LoxFunction fn)
+            return interpreter.defer(fn, null, null, null, null, null, arguments);
+        return function.call(interpreter, arguments);
+    }
+
+    public static LoxValue tail0(LoxValue callee, Interpreter interpreter) throws VisitException {
+        return tail(callee, 0, null, null, null, null, interpreter);
+    }
+
+    public static LoxValue tail1(LoxValue callee, LoxValue a, Interpreter interpreter) throws VisitException {
+        return tail(callee, 1, a, null, null, null, interpreter);
+    }
+
+    public static LoxValue tail2(LoxValue callee, LoxValue a, LoxValue b, Interpreter interpreter) throws VisitException {
+        return tail(callee, 2, a, b, null, null, interpreter);
+    }
+
+    public static LoxValue tail3(LoxValue callee, LoxValue a, LoxValue b, LoxValue c, Interpreter interpreter) throws VisitException {
+        return tail(callee, 3, a, b, c, null, interpreter);
+    }
+
+    public static LoxValue tail4(LoxValue callee, LoxValue a, LoxValue b, LoxValue c, LoxValue d, Interpreter interpreter) throws VisitException {
+        return tail(callee, 4, a, b, c, d, interpreter);
+    }
+
+    private static LoxValue tail(LoxValue callee, int count, LoxValue a, LoxValue b, LoxValue c, LoxValue d, Interpreter interpreter) throws VisitException {
+        LoxCallable function = callable(callee, count);
+        if (function instanceof LoxFunction fn)
+            return interpreter.defer(fn, null, a, b, c, d, null);
+        return switch (count) {
+            case 0 -> function.call0(interpreter);
+            case 1 -> function.call1(interpreter, a);
+            case 2 -> function.call2(interpreter, a, b);
+            case 3 -> function.call3(interpreter, a, b, c);
+            default -> function.call4(interpreter, a, b, c, d);
+        };
+    }
+
+    private static LoxCallable callable(LoxValue callee, int count) throws VisitException {
+        if (!(callee instanceof LoxCallable function))
+            throw new VisitException(String.format("ERR: %s is not callable.", callee.toString()));
+        if (function.arity() != count)
+            throw new VisitException(String.format("ERR: %s require %d arguments, received %d.", callee.toString(), function.arity(), count));
+        return function;
+    }
+
+    public static LoxValue getProperty(LoxValue object, Token name) throws VisitException {
+        if (object instanceof LoxInstance instance) {
+            try {
+                return instance.get(name);
+            } catch (LoxInstance.InstanceException ie) {
+                throw new VisitException(ie.getMessage());
+            }
+        }
+        throw new VisitException(String.format("The %s is not applicable to given object.", name));
+    }
+
+    public static LoxInstance instance(LoxValue object) throws VisitException {
+        if (object instanceof LoxInstance instance)
+            return instance;
+        throw new VisitException("Setting property on non object instance value.");
+    }
+
+    public static LoxValue setProperty(LoxInstance instance, LoxValue value, Token name) {
+        instance.set(name, value);
+        return value;
+    }
+
+    public static void defineGlobal(LoxValue value, Interpreter interpreter, Token name) {
+        interpreter.getGlobals().define(name.symbol(), value);
+    }
+
+    public static void defineFunction(Function declaration, Environment environment, Interpreter interpreter, boolean global) {
+        Upvalue[] upvalues = environment.capture(declaration.scope().upvalues());
+        LoxFunction function = new LoxFunction(declaration, interpreter.getGlobals(), upvalues, false);
+        if (global) {
+            interpreter.getGlobals().define(declaration.name().symbol(), function);
+        } else {
+            environment.define(function);
+        }
+    }
+
+    // Null superclass when the class doesn't declare one.
+    public static void defineClass(LoxValue superclass, Token name, Function[] methods, Environment environment, Interpreter interpreter, boolean global) throws VisitException {
+        Optional<LoxClass> parent = Optional.empty();
+        if (superclass != null) {
+            if (!(superclass instanceof LoxClass clazz))
+                throw new VisitException(String.format("Superclass must be class."));
+            parent = Optional.of(clazz);
+        }
+
+        int slot = -1;
+        if (global) {
+            interpreter.getGlobals().define(name.symbol(), LoxValue.Intern.NIL);
+        } else {
+            slot = environment.define(LoxValue.Intern.NIL);
+        }
+
+        Environment closure = interpreter.getGlobals();
+        if (!parent.isEmpty()) {
+            closure = new Environment(closure);
+            closure.define(parent.get());
+        }
+
+        Map<Symbol, LoxFunction> table = new HashMap<>();
+        for (Function method : methods) {
+            Upvalue[] upvalues = environment.capture(method.scope().upvalues());
+            table.put(method.name().symbol(), new LoxFunction(method, closure, upvalues, method.name().symbol() == Symbol.INIT));
+        }
+        LoxClass clazz = new LoxClass(name.lexeme(), parent, table);
+        try {
+            if (global) {
+                interpreter.getGlobals().assign(name, clazz);
+            } else {
+                environment.set(slot, clazz);
+            }
+        } catch (EnvironmentException ee) {
+            throw new VisitException(String.format("Error defining %s, maybe it's already declared.", name.lexeme()));
+        }
+    }
+
+    public static LoxValue superMethod(LoxValue superclass, LoxValue object, Token method) throws VisitException {
+        if (!(superclass instanceof LoxClass clazz))
+            throw new VisitException("'LoxValue' at 'super' is not a 'LoxClass'.");
+        if (!(object instanceof LoxInstance instance))
+            throw new VisitException("'LoxValue' ref at 'super' is not a 'LoxInstance'.");
+        return clazz
+            .findMethod(method.symbol())
+            .orElseThrow(() -> new VisitException(String.format("Undefinted property '%s' of superclass.", method.lexeme())))
+            .bind(instance);
+    }
+}
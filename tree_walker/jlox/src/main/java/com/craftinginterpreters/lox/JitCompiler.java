@@ -0,0 +1,644 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static com.craftinginterpreters.lox.ClassFile.*;
+import static com.craftinginterpreters.lox.Expr.*;
+import static com.craftinginterpreters.lox.Stmt.*;
+
+// Translates one Stmt.Function, or a whole script, into a class implementing Jit.Code,
+// every operation calls the Jit helper that mirrors the Interpreter.
+// A function that declares no function or class can't have its locals captured, they become JVM
+// locals and only 'this' and 'super' are read through the closure. Any other function keeps an
+// Environment per scope exactly like the Interpreter does. Variables of enclosing functions are
+// always read from the upvalues.
+//
+// For the Jit the tokens, literals and nested declarations are handed to the constructor of the
+// hidden class. For jloxc the classes are standalone: the constructor builds its own constants and
+// every nested function gets a class of its own in the shared map.
+public class JitCompiler implements Stmt.Visitor<Void>, Expr.Visitor<Void> {
+    private static final String PACKAGE = "com/craftinginterpreters/lox/";
+    private static final String JIT = PACKAGE + "Jit";
+    private static final String CODE = JIT + "$Code";
+    private static final String PROFILE = JIT + "$Profile";
+    private static final String VALUE = PACKAGE + "LoxValue";
+    private static final String VALUE_DESC = "L" + VALUE + ";";
+    private static final String INTERN = VALUE + "$Intern";
+    private static final String INTERN_DESC = "L" + INTERN + ";";
+    private static final String TOKEN = PACKAGE + "Token";
+    private static final String TOKEN_DESC = "L" + TOKEN + ";";
+    private static final String FUNCTION = PACKAGE + "Stmt$Function";
+    private static final String FUNCTION_DESC = "L" + FUNCTION + ";";
+    private static final String BINDING = PACKAGE + "Expr$Binding";
+    private static final String BINDING_DESC = "L" + BINDING + ";";
+    private static final String SCOPE = PACKAGE + "Stmt$Scope";
+    private static final String CAPTURE = PACKAGE + "Stmt$Capture";
+    private static final String INTERPRETER_DESC = "L" + PACKAGE + "Interpreter;";
+    private static final String ENVIRONMENT = PACKAGE + "Environment";
+    private static final String ENVIRONMENT_DESC = "L" + ENVIRONMENT + ";";
+    private static final String UPVALUES_DESC = "[L" + PACKAGE + "Upvalue;";
+    private static final String RUN_DESC = "(" + INTERPRETER_DESC + ENVIRONMENT_DESC + UPVALUES_DESC + "[" + VALUE_DESC + ")" + VALUE_DESC;
+    private static final String BINARY_DESC = "(" + VALUE_DESC + VALUE_DESC + ")" + VALUE_DESC;
+    private static final String UNARY_DESC = "(" + VALUE_DESC + ")" + VALUE_DESC;
+
+    private static final int THIS = 0;
+    private static final int INTERPRETER = 1;
+    private static final int CLOSURE = 2;
+    private static final int UPVALUES = 3;
+    private static final int ARGUMENTS = 4;
+
+    public static class Bailout extends VisitException {
+        public Bailout(String msg) {
+            super(msg);
+        }
+    }
+
+    public record Result(byte[] bytes, Object[] constants) {}
+
+    // Present only when compiling ahead of time, class name to class file.
+    private final Optional<Map<String, byte[]>> classes;
+
+    private ClassFile classFile;
+    private ClassFile.Code code;
+    private String className;
+    // Tokens, literals and declarations the code needs, kept in the 'k' field.
+    private final List<Object> constants = new ArrayList<>();
+    // JVM local of every slot, one list per scope of the function, when the locals aren't framed.
+    private final Deque<List<Integer>> scopes = new ArrayDeque<>();
+    private boolean framed = false;
+    // JVM local holding the Environment of the current scope, when framed.
+    private int environment = CLOSURE;
+    // Only the top level scope of a script declares into the globals.
+    private boolean global = false;
+
+    public JitCompiler() {
+        this.classes = Optional.empty();
+    }
+
+    public JitCompiler(Map<String, byte[]> classes) {
+        this.classes = Optional.of(classes);
+    }
+
+    public Result compile(Function function) throws VisitException {
+        begin(PACKAGE + "LoxFn$" + function.name().lexeme());
+        framed = declaresAny(function.body());
+        if (framed) {
+            environment = code.newLocal(1);
+            code.type(NEW, ENVIRONMENT).op(DUP, 1).aload(CLOSURE);
+            code.invoke(INVOKESPECIAL, ENVIRONMENT, "<init>", "(" + ENVIRONMENT_DESC + ")V");
+            code.astore(environment);
+            code.aload(environment).aload(UPVALUES);
+            code.invoke(INVOKEVIRTUAL, ENVIRONMENT, "bindUpvalues", "(" + UPVALUES_DESC + ")V");
+            for (int i = 0; i < function.params().size(); i++) {
+                code.aload(environment).aload(ARGUMENTS).iconst(i).op(AALOAD, -1);
+                code.invoke(INVOKEVIRTUAL, ENVIRONMENT, "define", "(" + VALUE_DESC + ")I").op(POP, -1);
+            }
+        } else {
+            List<Integer> parameters = new ArrayList<>();
+            for (int i = 0; i < function.params().size(); i++) {
+                int local = code.newLocal(1);
+                code.aload(ARGUMENTS).iconst(i).op(AALOAD, -1).astore(local);
+                parameters.add(local);
+            }
+            scopes.push(parameters);
+        }
+        for (Stmt stmt : function.body()) {
+            compile(stmt);
+        }
+        return end();
+    }
+
+    // Standalone class for a nested function, returns its name.
+    private String compileNested(Function function) throws VisitException {
+        JitCompiler nested = new JitCompiler(classes.get());
+        nested.compile(function);
+        return nested.className;
+    }
+
+    // The script runs with the globals as its closure and gets a main that hands it to Lox.runCompiled.
+    public String compileScript(List<Stmt> statements) throws VisitException {
+        begin(PACKAGE + "LoxScript");
+        framed = true;
+        global = true;
+        for (Stmt stmt : statements) {
+            compile(stmt);
+        }
+
+        ClassFile.Code main = classFile.method(ACC_PUBLIC | ACC_STATIC, "main", "([Ljava/lang/String;)V");
+        main.type(NEW, className).op(DUP, 1).invoke(INVOKESPECIAL, className, "<init>", "()V");
+        main.invoke(INVOKESTATIC, PACKAGE + "Lox", "runCompiled", "(L" + CODE + ";)V");
+        main.op(RETURN, 0).end();
+        end();
+        return className;
+    }
+
+    private void begin(String name) {
+        className = name;
+        if (!classes.isEmpty()) {
+            // Several functions share a name, methods called init to begin with.
+            className = String.format("%s$%d", name, classes.get().size());
+            classes.get().put(className, null);
+        }
+        classFile = new ClassFile(className, "java/lang/Object", CODE);
+        classFile.field(ACC_PRIVATE | ACC_FINAL, "k", "[Ljava/lang/Object;");
+        code = classFile.method(ACC_PUBLIC, "run", RUN_DESC);
+    }
+
+    private Result end() throws VisitException {
+        code.field(GETSTATIC, INTERN, "NIL", INTERN_DESC);
+        code.op(ARETURN, -1).end();
+
+        if (classes.isEmpty()) {
+            ClassFile.Code init = classFile.method(ACC_PUBLIC, "<init>", "([Ljava/lang/Object;)V");
+            init.aload(0).invoke(INVOKESPECIAL, "java/lang/Object", "<init>", "()V");
+            init.aload(0).aload(1).field(PUTFIELD, className, "k", "[Ljava/lang/Object;");
+            init.op(RETURN, 0).end();
+            return new Result(classFile.toBytes(), constants.toArray());
+        }
+
+        ClassFile.Code init = classFile.method(ACC_PUBLIC, "<init>", "()V");
+        init.aload(0).invoke(INVOKESPECIAL, "java/lang/Object", "<init>", "()V");
+        init.aload(0).iconst(constants.size()).type(ANEWARRAY, "java/lang/Object");
+        for (int i = 0; i < constants.size(); i++) {
+            init.op(DUP, 1).iconst(i);
+            materialize(init, constants.get(i));
+            init.op(AASTORE, -3);
+        }
+        init.field(PUTFIELD, className, "k", "[Ljava/lang/Object;");
+        init.op(RETURN, 0).end();
+        byte[] bytes = classFile.toBytes();
+        classes.get().put(className, bytes);
+        return new Result(bytes, new Object[0]);
+    }
+
+    // Rebuilds a constant from bytecode, declarations become stubs whose Profile already holds their class.
+    private void materialize(ClassFile.Code init, Object value) throws VisitException {
+        switch (value) {
+            case Token token -> {
+                init.type(NEW, TOKEN).op(DUP, 1);
+                init.field(GETSTATIC, PACKAGE + "TokenType", token.type().name(), "L" + PACKAGE + "TokenType;");
+                init.ldc(token.lexeme());
+                if (token.literal().isEmpty()) {
+                    init.invoke(INVOKESTATIC, "java/util/Optional", "empty", "()Ljava/util/Optional;");
+                } else {
+                    materialize(init, token.literal().get());
+                    init.invoke(INVOKESTATIC, "java/util/Optional", "of", "(Ljava/lang/Object;)Ljava/util/Optional;");
+                }
+                init.iconst(token.line());
+                init.invoke(INVOKESPECIAL, TOKEN, "<init>", "(L" + PACKAGE + "TokenType;Ljava/lang/String;Ljava/util/Optional;I)V");
+            }
+            case LoxNum num -> {
+                init.type(NEW, PACKAGE + "LoxNum").op(DUP, 1).dconst(num.num());
+                init.invoke(INVOKESPECIAL, PACKAGE + "LoxNum", "<init>", "(D)V");
+            }
+            // Every site caches its own global cell.
+            case Binding binding -> {
+                init.type(NEW, BINDING).op(DUP, 1).invoke(INVOKESPECIAL, BINDING, "<init>", "()V");
+            }
+            case LoxStr str -> {
+                init.type(NEW, PACKAGE + "LoxStr").op(DUP, 1).ldc(str.str());
+                init.invoke(INVOKESPECIAL, PACKAGE + "LoxStr", "<init>", "(Ljava/lang/String;)V");
+            }
+            case Function function -> {
+                String nested = compileNested(function);
+                init.type(NEW, FUNCTION).op(DUP, 1);
+                materialize(init, function.name());
+                init.iconst(function.params().size()).type(ANEWARRAY, TOKEN);
+                for (int i = 0; i < function.params().size(); i++) {
+                    init.op(DUP, 1).iconst(i);
+                    materialize(init, function.params().get(i));
+                    init.op(AASTORE, -3);
+                }
+                init.invoke(INVOKESTATIC, "java/util/Arrays", "asList", "([Ljava/lang/Object;)Ljava/util/List;");
+                init.invoke(INVOKESTATIC, "java/util/Collections", "emptyList", "()Ljava/util/List;");
+                init.type(NEW, PROFILE).op(DUP, 1);
+                init.type(NEW, nested).op(DUP, 1).invoke(INVOKESPECIAL, nested, "<init>", "()V");
+                init.invoke(INVOKESPECIAL, PROFILE, "<init>", "(L" + CODE + ";)V");
+                List<Capture> upvalues = function.scope().upvalues();
+                init.type(NEW, SCOPE).op(DUP, 1);
+                init.iconst(upvalues.size()).type(ANEWARRAY, CAPTURE);
+                for (int i = 0; i < upvalues.size(); i++) {
+                    Capture capture = upvalues.get(i);
+                    init.op(DUP, 1).iconst(i);
+                    init.type(NEW, CAPTURE).op(DUP, 1);
+                    init.iconst(capture.local() ? 1 : 0).iconst(capture.depth()).iconst(capture.index());
+                    init.invoke(INVOKESPECIAL, CAPTURE, "<init>", "(ZII)V");
+                    init.op(AASTORE, -3);
+                }
+                init.invoke(INVOKESTATIC, "java/util/Arrays", "asList", "([Ljava/lang/Object;)Ljava/util/List;");
+                init.invoke(INVOKESPECIAL, SCOPE, "<init>", "(Ljava/util/List;)V");
+                init.invoke(INVOKESPECIAL, FUNCTION, "<init>", "(" + TOKEN_DESC + "Ljava/util/List;Ljava/util/List;L" + PROFILE + ";L" + SCOPE + ";)V");
+            }
+            default -> throw new Bailout(String.format("Can't materialize %s.", value));
+        }
+    }
+
+    private static boolean declaresAny(List<Stmt> statements) {
+        for (Stmt stmt : statements) {
+            if (declaresAny(stmt))
+                return true;
+        }
+        return false;
+    }
+
+    private static boolean declaresAny(Stmt stmt) {
+        return switch (stmt) {
+            case Function f -> true;
+            case Stmt.Class c -> true;
+            case Block b -> declaresAny(b.statements());
+            case If i -> declaresAny(i.thenBranch()) || (!i.elseBranch().isEmpty() && declaresAny(i.elseBranch().get()));
+            case While w -> declaresAny(w.body());
+            default -> false;
+        };
+    }
+
+    private void compile(Stmt stmt) throws VisitException {
+        Stmt.accept(stmt, this);
+    }
+
+    private void compile(Expr expr) throws VisitException {
+        Expr.accept(expr, this);
+    }
+
+    private void constant(Object value, String internalName) {
+        int index = -1;
+        for (int i = 0; i < constants.size() && index < 0; i++) {
+            // Declarations by identity, two alike ones still have a Profile each.
+            Object existing = constants.get(i);
+            if (existing == value || (!(value instanceof Function) && existing.equals(value)))
+                index = i;
+        }
+        if (index < 0) {
+            constants.add(value);
+            index = constants.size() - 1;
+        }
+        code.aload(THIS).field(GETFIELD, className, "k", "[Ljava/lang/Object;");
+        code.iconst(index).op(AALOAD, -1).type(CHECKCAST, internalName);
+    }
+
+    private void helper(String name, String descriptor) {
+        code.invoke(INVOKESTATIC, JIT, name, descriptor);
+    }
+
+    private void truthy() {
+        helper("isTruthy", "(" + VALUE_DESC + ")Z");
+    }
+
+    private void nil() {
+        code.field(GETSTATIC, INTERN, "NIL", INTERN_DESC);
+    }
+
+    // JVM local of an unframed variable, -1 when it lives in the closure.
+    private int localFor(Binding binding) {
+        if (framed)
+            return -1;
+        int i = 0;
+        for (List<Integer> scope : scopes) {
+            if (i == binding.depth())
+                return scope.get(binding.slot());
+            i++;
+        }
+        return -1;
+    }
+
+    // Pushes the Environment a resolved variable is looked up from and the remaining depth.
+    private void environmentFor(Binding binding) {
+        if (framed) {
+            code.aload(environment).iconst(binding.depth());
+        } else {
+            code.aload(CLOSURE).iconst(binding.depth() - scopes.size());
+        }
+    }
+
+    // Pushes the value of a variable that isn't global.
+    private void load(Binding binding, Token name) {
+        if (binding.isUpvalue()) {
+            code.aload(UPVALUES).iconst(binding.upvalue());
+            helper("getUpvalue", "(" + UPVALUES_DESC + "I)" + VALUE_DESC);
+            return;
+        }
+        int local = localFor(binding);
+        if (local >= 0) {
+            code.aload(local);
+            return;
+        }
+        environmentFor(binding);
+        code.iconst(binding.slot());
+        constant(name, TOKEN);
+        helper("getAt", "(" + ENVIRONMENT_DESC + "II" + TOKEN_DESC + ")" + VALUE_DESC);
+    }
+
+    /////////////////////////////
+    // Expressions             //
+    /////////////////////////////
+    @Override
+    public Void visitBinaryExpr(Binary expr) throws VisitException {
+        compile(expr.left());
+        compile(expr.right());
+        String name = switch (expr.operator().type()) {
+            case PLUS -> "add";
+            case MINUS -> "subtract";
+            case STAR -> "multiply";
+            case SLASH -> "divide";
+            case LESS -> "less";
+            case LESS_EQUAL -> "lessEqual";
+            case GREATER -> "greater";
+            case GREATER_EQUAL -> "greaterEqual";
+            case EQUAL_EQUAL -> "equal";
+            case BANG_EQUAL -> "notEqual";
+            default -> throw new Bailout(String.format("Unsupported operator %s.", expr.operator().lexeme()));
+        };
+        helper(name, BINARY_DESC);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Grouping expr) throws VisitException {
+        compile(expr.expression());
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Literal expr) throws VisitException {
+        if (expr.value() instanceof LoxValue.Intern intern) {
+            code.field(GETSTATIC, INTERN, intern.name(), INTERN_DESC);
+        } else {
+            constant(expr.value(), VALUE);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Unary expr) throws VisitException {
+        compile(expr.right());
+        switch (expr.operator().type()) {
+            case MINUS -> helper("negate", UNARY_DESC);
+            case BANG -> helper("not", UNARY_DESC);
+            default -> throw new Bailout(String.format("Unsupported operator %s.", expr.operator().lexeme()));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Variable expr) throws VisitException {
+        Binding binding = expr.binding();
+        if (binding.isGlobal()) {
+            code.aload(INTERPRETER);
+            constant(binding, BINDING);
+            constant(expr.name(), TOKEN);
+            helper("getGlobal", "(" + INTERPRETER_DESC + BINDING_DESC + TOKEN_DESC + ")" + VALUE_DESC);
+            return null;
+        }
+        load(binding, expr.name());
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Assign expr) throws VisitException {
+        compile(expr.value());
+        Binding binding = expr.binding();
+        if (binding.isGlobal()) {
+            code.aload(INTERPRETER);
+            constant(binding, BINDING);
+            constant(expr.name(), TOKEN);
+            helper("setGlobal", "(" + VALUE_DESC + INTERPRETER_DESC + BINDING_DESC + TOKEN_DESC + ")" + VALUE_DESC);
+            return null;
+        }
+        if (binding.isUpvalue()) {
+            code.aload(UPVALUES).iconst(binding.upvalue());
+            helper("setUpvalue", "(" + VALUE_DESC + UPVALUES_DESC + "I)" + VALUE_DESC);
+            return null;
+        }
+        int local = localFor(binding);
+        if (local >= 0) {
+            code.op(DUP, 1).astore(local);
+            return null;
+        }
+        environmentFor(binding);
+        code.iconst(binding.slot());
+        constant(expr.name(), TOKEN);
+        helper("setAt", "(" + VALUE_DESC + ENVIRONMENT_DESC + "II" + TOKEN_DESC + ")" + VALUE_DESC);
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Logical expr) throws VisitException {
+        ClassFile.Label end = new ClassFile.Label();
+        compile(expr.left());
+        code.op(DUP, 1);
+        truthy();
+        code.jump(expr.operator().type() == TokenType.OR ? IFNE : IFEQ, end);
+        code.op(POP, -1);
+        compile(expr.right());
+        code.mark(end);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Call expr) throws VisitException {
+        return call(expr, "call");
+    }
+
+    // Helper is the family the call goes through, call or, for a call in tail position, tail.
+    private Void call(Call expr, String helper) throws VisitException {
+        compile(expr.callee());
+        int count = expr.arguments().size();
+        if (count <= 4) {
+            for (Expr argument : expr.arguments()) {
+                compile(argument);
+            }
+            code.aload(INTERPRETER);
+            helper(helper + count, "(" + VALUE_DESC.repeat(count + 1) + INTERPRETER_DESC + ")" + VALUE_DESC);
+            return null;
+        }
+        code.iconst(count).type(ANEWARRAY, VALUE);
+        for (int i = 0; i < expr.arguments().size(); i++) {
+            code.op(DUP, 1).iconst(i);
+            compile(expr.arguments().get(i));
+            code.op(AASTORE, -3);
+        }
+        code.aload(INTERPRETER);
+        helper(helper, "(" + VALUE_DESC + "[" + VALUE_DESC + INTERPRETER_DESC + ")" + VALUE_DESC);
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Get expr) throws VisitException {
+        compile(expr.obj());
+        constant(expr.name(), TOKEN);
+        helper("getProperty", "(" + VALUE_DESC + TOKEN_DESC + ")" + VALUE_DESC);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Set expr) throws VisitException {
+        String instance = "L" + PACKAGE + "LoxInstance;";
+        compile(expr.obj());
+        helper("instance", "(" + VALUE_DESC + ")" + instance);
+        compile(expr.value());
+        constant(expr.name(), TOKEN);
+        helper("setProperty", "(" + instance + VALUE_DESC + TOKEN_DESC + ")" + VALUE_DESC);
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(This expr) throws VisitException {
+        load(expr.binding(), expr.keyword());
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Super expr) throws VisitException {
+        load(expr.binding(), expr.keyword());
+        load(expr.receiver(), expr.keyword());
+        constant(expr.method(), TOKEN);
+        helper("superMethod", "(" + VALUE_DESC + VALUE_DESC + TOKEN_DESC + ")" + VALUE_DESC);
+        return null;
+    }
+
+    /////////////////////////////
+    // Statements              //
+    /////////////////////////////
+    @Override
+    public Void visitExpressionStmt(Expression stmt) throws VisitException {
+        compile(stmt.expression());
+        code.op(POP, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Print stmt) throws VisitException {
+        compile(stmt.expression());
+        helper("print", "(" + VALUE_DESC + ")V");
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Var stmt) throws VisitException {
+        if (stmt.initializer().isEmpty()) {
+            nil();
+        } else {
+            compile(stmt.initializer().get());
+        }
+        if (global) {
+            code.aload(INTERPRETER);
+            constant(stmt.name(), TOKEN);
+            helper("defineGlobal", "(" + VALUE_DESC + INTERPRETER_DESC + TOKEN_DESC + ")V");
+        } else if (framed) {
+            code.aload(environment).op(SWAP, 0);
+            code.invoke(INVOKEVIRTUAL, ENVIRONMENT, "define", "(" + VALUE_DESC + ")I").op(POP, -1);
+        } else {
+            int local = code.newLocal(1);
+            code.astore(local);
+            scopes.peek().add(local);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Block stmt) throws VisitException {
+        if (!stmt.scoped()) {
+            for (Stmt s : stmt.statements()) {
+                compile(s);
+            }
+            return null;
+        }
+        if (!framed) {
+            scopes.push(new ArrayList<>());
+            for (Stmt s : stmt.statements()) {
+                compile(s);
+            }
+            scopes.pop();
+            return null;
+        }
+
+        int enclosing = environment;
+        boolean enclosingGlobal = global;
+        environment = code.newLocal(1);
+        global = false;
+        code.type(NEW, ENVIRONMENT).op(DUP, 1).aload(enclosing);
+        code.invoke(INVOKESPECIAL, ENVIRONMENT, "<init>", "(" + ENVIRONMENT_DESC + ")V");
+        code.astore(environment);
+        for (Stmt s : stmt.statements()) {
+            compile(s);
+        }
+        environment = enclosing;
+        global = enclosingGlobal;
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(If stmt) throws VisitException {
+        ClassFile.Label otherwise = new ClassFile.Label();
+        ClassFile.Label end = new ClassFile.Label();
+        compile(stmt.condition());
+        truthy();
+        code.jump(IFEQ, otherwise);
+        compile(stmt.thenBranch());
+        code.jump(GOTO, end);
+        code.mark(otherwise);
+        if (!stmt.elseBranch().isEmpty())
+            compile(stmt.elseBranch().get());
+        code.mark(end);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(While stmt) throws VisitException {
+        ClassFile.Label loop = new ClassFile.Label();
+        ClassFile.Label exit = new ClassFile.Label();
+        code.mark(loop);
+        compile(stmt.condition());
+        truthy();
+        code.jump(IFEQ, exit);
+        compile(stmt.body());
+        code.jump(GOTO, loop);
+        code.mark(exit);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Function stmt) throws VisitException {
+        constant(stmt, FUNCTION);
+        code.aload(environment).aload(INTERPRETER).iconst(global ? 1 : 0);
+        helper("defineFunction", "(" + FUNCTION_DESC + ENVIRONMENT_DESC + INTERPRETER_DESC + "Z)V");
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Return stmt) throws VisitException {
+        if (stmt.value().isEmpty()) {
+            nil();
+        } else if (stmt.tail().isMarked() && stmt.value().get() instanceof Call call) {
+            call(call, "tail");
+        } else {
+            compile(stmt.value().get());
+        }
+        code.op(ARETURN, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) throws VisitException {
+        if (stmt.superclass().isEmpty()) {
+            code.op(ACONST_NULL, 1);
+        } else {
+            compile(stmt.superclass().get());
+        }
+        constant(stmt.name(), TOKEN);
+        code.iconst(stmt.methods().size()).type(ANEWARRAY, FUNCTION);
+        for (int i = 0; i < stmt.methods().size(); i++) {
+            code.op(DUP, 1).iconst(i);
+            constant(stmt.methods().get(i), FUNCTION);
+            code.op(AASTORE, -3);
+        }
+        code.aload(environment).aload(INTERPRETER).iconst(global ? 1 : 0);
+        helper("defineClass", "(" + VALUE_DESC + TOKEN_DESC + "[" + FUNCTION_DESC + ENVIRONMENT_DESC + INTERPRETER_DESC + "Z)V");
+        return null;
+    }
+}
@@ -0,0 +1,108 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.stream.Stream;
+
+// Ahead of time compiler: runs the front end once and writes the script, its functions and methods
+// as class files in a runnable jar, together with the classes of this package as runtime.
+public class Jloxc {
+    private static final String USAGE = "Usage: jloxc script [output.jar]";
+    private static final String PACKAGE = "com/craftinginterpreters/lox/";
+
+    public static void main(String[] args) {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println(USAGE);
+            System.exit(64);
+        }
+        Path script = Paths.get(args[0]);
+        Path jar = args.length == 2 ? Paths.get(args[1]) : Paths.get(script.getFileName().toString().replaceFirst("\\.lox$", "") + ".jar");
+
+        try {
+            Map<String, byte[]> classes = compile(new String(Files.readAllBytes(script), Charset.defaultCharset()));
+            if (classes.isEmpty())
+                System.exit(65);
+            write(jar, classes);
+        } catch (IOException | URISyntaxException e) {
+            System.err.println(e.getMessage());
+            System.exit(74);
+        }
+    }
+
+    // Class name to class file, the script class first. Empty when the source has errors.
+    public static Map<String, byte[]> compile(String source) {
+        Lox lox = new Lox(Lox.Engine.JIT);
+        List<Stmt> program = new Parser(lox, new Scanner(lox, source).scanTokens()).parse();
+        new Resolver(new Interpreter(lox)).resolve(program);
+        if (lox.hasErrored())
+            return Map.of();
+        Optimizer optimizer = new Optimizer(EnumSet.allOf(Optimizer.Pass.class));
+        program = optimizer.optimize(program);
+        if (optimizer.changed())
+            new Resolver(new Interpreter(lox)).resolve(program);
+
+        Map<String, byte[]> classes = new LinkedHashMap<>();
+        try {
+            new JitCompiler(classes).compileScript(program);
+        } catch (VisitException | ClassFile.ClassFileException e) {
+            System.err.println(e.getMessage());
+            return Map.of();
+        }
+        return classes;
+    }
+
+    private static void write(Path jar, Map<String, byte[]> classes) throws IOException, URISyntaxException {
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, classes.keySet().iterator().next().replace('/', '.'));
+
+        try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar), manifest)) {
+            copyRuntime(out);
+            for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+                out.putNextEntry(new JarEntry(entry.getKey() + ".class"));
+                out.write(entry.getValue());
+                out.closeEntry();
+            }
+        }
+    }
+
+    // The runtime is wherever this class was loaded from, the build directory or the jlox jar.
+    private static void copyRuntime(JarOutputStream out) throws IOException, URISyntaxException {
+        Path source = Paths.get(Jloxc.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        if (Files.isDirectory(source)) {
+            try (Stream<Path> files = Files.list(source.resolve(PACKAGE))) {
+                for (Path file : files.filter(f -> f.toString().endsWith(".class")).toList()) {
+                    out.putNextEntry(new JarEntry(PACKAGE + file.getFileName()));
+                    Files.copy(file, out);
+                    out.closeEntry();
+                }
+            }
+            return;
+        }
+        try (JarFile runtime = new JarFile(source.toFile())) {
+            for (JarEntry entry : runtime.stream().toList()) {
+                if (!entry.getName().startsWith(PACKAGE) || !entry.getName().endsWith(".class"))
+                    continue;
+                out.putNextEntry(new JarEntry(entry.getName()));
+                try (InputStream in = runtime.getInputStream(entry)) {
+                    in.transferTo(out);
+                }
+                out.closeEntry();
+            }
+        }
+    }
+}
@@ -3,43 +3,147 @@ package com.craftinginterpreters.lox;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.EnumSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.stream.IntStream;
 
 public class Lox {
+    public static enum Engine {
+        TREE("tree"), JIT("jit"), NODES("nodes"), VM("vm");
+
+        private final String flag;
+
+        Engine(String flag) {
+            this.flag = flag;
+        }
+
+        public String flag() {
+            return flag;
+        }
+
+        public static Optional<Engine> fromFlag(String flag) {
+            for (Engine engine : values()) {
+                if (engine.flag.equals(flag))
+                    return Optional.of(engine);
+            }
+            return Optional.empty();
+        }
+    }
+
     private boolean hadError = false;
     private boolean hadRuntimeError = false;
+    private boolean reportInlineCaches = false;
+    private boolean reportPasses = false;
+    private boolean scanThread = false;
+    private Set<Optimizer.Pass> passes = EnumSet.allOf(Optimizer.Pass.class);
     private final String PROMPT;
+    private final Engine engine;
     private final Interpreter interpreter;
+    private final NodeEngine nodes;
+    private final VM vm;
 
     public Lox() {
-        PROMPT = "JLOX :> ";
-        this.interpreter = new Interpreter(this);
+        this("JLOX :> ", Engine.TREE);
     }
 
     public Lox(String prompt) {
+        this(prompt, Engine.TREE);
+    }
+
+    public Lox(Engine engine) {
+        this("JLOX :> ", engine);
+    }
+
+    public Lox(String prompt, Engine engine) {
         PROMPT = prompt;
-        this.interpreter = new Interpreter(this);
+        this.engine = engine;
+        this.interpreter = new Interpreter(this, engine == Engine.JIT ? Optional.of(new Jit()) : Optional.empty());
+        this.nodes = new NodeEngine(this);
+        this.vm = new VM(this);
     }
 
     public boolean hasErrored() {
         return hadError;
     }
 
+    // What the process exits with after a script: 65 when it didn't compile or a call failed, 70 when it stopped on a runtime error.
+    public int exitCode() {
+        if (hadError)
+            return 65;
+        if (hadRuntimeError)
+            return 70;
+        return 0;
+    }
+
     public void setErrored(boolean error) {
         hadError = error;
     }
 
+    public void setReportInlineCaches(boolean report) {
+        reportInlineCaches = report;
+    }
+
+    public void setPasses(Set<Optimizer.Pass> passes) {
+        this.passes = passes;
+    }
+
+    public void setReportPasses(boolean report) {
+        reportPasses = report;
+    }
+
+    // Lex files on a thread of their own, see TokenPipeline.
+    public void setScanThread(boolean thread) {
+        scanThread = thread;
+    }
+
+    // Only the VM keeps its call stack on the heap, the other engines are bounded by the JVM's thread stack.
+    public void setMaxDepth(int depth) {
+        vm.setMaxDepth(depth);
+    }
+
+    // The file is never held whole in a String. UTF-8 sources are mapped and lexed from the bytes
+    // into a TokenBuffer, anything else the Scanner reads as the Parser asks for tokens.
     public void runFile(String path) throws IOException {
-        byte[] bytes = Files.readAllBytes(Paths.get(path));
-        run(new String(bytes, Charset.defaultCharset()));
-        if (hadError)
-            System.exit(65);
-        if (hadRuntimeError)
-            System.exit(70);
+        Path file = Paths.get(path);
+        if (Charset.defaultCharset().equals(StandardCharsets.UTF_8) && Files.size(file) <= Integer.MAX_VALUE) {
+            MappedScanner scanner = new MappedScanner(this, MappedScanner.map(file));
+            if (scanThread)
+                run(scanner.tokens(), true);
+            else
+                run(scanner.scanBuffer().cursor());
+        } else {
+            try (Reader reader = new InputStreamReader(Files.newInputStream(file), Charset.defaultCharset())) {
+                run(new Scanner(this, reader).tokens(), scanThread);
+            } catch (UncheckedIOException uio) {
+                throw uio.getCause();
+            }
+        }
+        if (reportInlineCaches)
+            System.err.println(interpreter.inlineCacheReport());
+        if (exitCode() != 0)
+            System.exit(exitCode());
+    }
+
+    // Entry point of the jars written by jloxc, the front end already ran at build time.
+    public static void runCompiled(Jit.Code script) {
+        Lox lox = new Lox(Engine.JIT);
+        try {
+            script.run(lox.interpreter, lox.interpreter.getGlobals(), Upvalue.NONE, new LoxValue[0]);
+        } catch (VisitException e) {
+            lox.runtimeError(e);
+        }
+        if (lox.exitCode() != 0)
+            System.exit(lox.exitCode());
     }
 
     public void runPrompt() throws IOException {
@@ -57,11 +161,27 @@ public class Lox {
         }
     }
 
-    private void run(String source)  {
-        Scanner scanner = new Scanner(this, source);
-        List<Token> tokens = scanner.scanTokens();
+    public void run(String source) {
+        run(new Scanner(this, source).tokens(), false);
+    }
+
+    private void run(Iterator<Token> tokens, boolean thread) {
+        if (!thread) {
+            run(TokenCursor.of(tokens));
+            return;
+        }
+        try (TokenPipeline pipeline = new TokenPipeline(tokens)) {
+            run(TokenCursor.of(pipeline));
+        }
+    }
+
+    private void run(TokenCursor tokens) {
         try {
             Parser parser = new Parser(this, tokens);
+            if (engine == Engine.VM) {
+                runFlat(parser.parseFlat());
+                return;
+            }
             List<Stmt> program = parser.parse();
 
             Resolver resolver = new Resolver(interpreter);
@@ -72,12 +192,49 @@ public class Lox {
                 return;
             }
 
-            interpreter.interpret(program);
+            Optimizer optimizer = new Optimizer(passes);
+            program = optimizer.optimize(program);
+            if (optimizer.changed())
+                new Resolver(interpreter).resolve(program);
+            if (reportPasses)
+                System.err.println(optimizer.report());
+
+            switch (engine) {
+                case TREE, JIT -> interpreter.interpret(program);
+                case NODES -> nodes.interpret(program);
+                case VM -> {} // ran flat, see runFlat
+            }
         } catch (VisitException e) {
             runtimeError(e);
+        } catch (StackOverflowError soe) {
+            // Every frame restores what it changed in a finally, so the engines are still usable afterwards.
+            runtimeError(new VisitException("Stack overflow, calls nest deeper than the Java stack allows."));
         }
     }
 
+    // The VM keeps nothing of the tree once it's compiled, so its program stays flat: each top
+    // level statement is made into records once, resolved, optimized and compiled before the next.
+    // The Compiler doesn't read the Resolver's bindings, an optimized statement isn't resolved again.
+    private void runFlat(FlatAst program) throws VisitException {
+        Resolver resolver = new Resolver(interpreter);
+        Optimizer optimizer = new Optimizer(passes);
+        // Past the first error statements are still resolved, for their errors, but no longer compiled.
+        Iterable<Stmt> optimized = () -> IntStream.range(0, program.size())
+            .mapToObj(i -> {
+                Stmt stmt = program.statement(i);
+                resolver.resolve(stmt);
+                return hadError ? List.<Stmt>of() : optimizer.optimize(List.of(stmt));
+            })
+            .flatMap(List::stream)
+            .iterator();
+        VmFunction script = new Compiler(this).compile(optimized);
+        if (reportPasses)
+            System.err.println(optimizer.report());
+        if (hadError)
+            return;
+        vm.interpret(script);
+    }
+
     public void error(int line, String message) {
         report(line, "", message);
     }
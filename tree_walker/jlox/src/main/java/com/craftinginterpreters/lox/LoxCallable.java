@@ -1,12 +1,31 @@
 package com.craftinginterpreters.lox;
 
-import java.util.Iterator;
-import java.util.List;
-
-import static com.craftinginterpreters.lox.Stmt.*;
-
+// Callers check arity() once and then pick an entry point, none of them checks it again.
+// Up to four arguments are passed as they are, so a callee that doesn't need them in an
+// array can take them without one. Anything longer goes through the array.
 public sealed interface LoxCallable extends LoxValue permits LoxClockBuiltin, LoxFunction, LoxClass {
+    static final LoxValue[] NO_ARGUMENTS = new LoxValue[0];
 
-    LoxValue call(Interpreter interpreter, List<LoxValue> arguments);
+    LoxValue call(Interpreter interpreter, LoxValue[] arguments);
     int arity();
+
+    default LoxValue call0(Interpreter interpreter) {
+        return call(interpreter, NO_ARGUMENTS);
+    }
+
+    default LoxValue call1(Interpreter interpreter, LoxValue a) {
+        return call(interpreter, new LoxValue[] { a });
+    }
+
+    default LoxValue call2(Interpreter interpreter, LoxValue a, LoxValue b) {
+        return call(interpreter, new LoxValue[] { a, b });
+    }
+
+    default LoxValue call3(Interpreter interpreter, LoxValue a, LoxValue b, LoxValue c) {
+        return call(interpreter, new LoxValue[] { a, b, c });
+    }
+
+    default LoxValue call4(Interpreter interpreter, LoxValue a, LoxValue b, LoxValue c, LoxValue d) {
+        return call(interpreter, new LoxValue[] { a, b, c, d });
+    }
 }
@@ -1,40 +1,43 @@
 package com.craftinginterpreters.lox;
 
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 
-import java.util.function.Supplier;
-import java.util.function.Function;
-
 public final class LoxClass implements LoxValue, LoxCallable {
 
     private final String name;
-    private final Map<String, LoxFunction> methods;
     private final Optional<LoxClass> superclass;
+    // Every instance starts from this shape, so a shape also tells the class apart.
+    private final Shape shape = Shape.root();
+    // Own and inherited methods flattened at definition, each already wrapped so a lookup is one probe.
+    private final Map<Symbol, Optional<LoxFunction>> table = new HashMap<>();
+    private final Optional<LoxFunction> initializer;
+    private final int arity;
 
-    public LoxClass(String name, Optional<LoxClass> superclass, Map<String, LoxFunction> methods) {
+    public LoxClass(String name, Optional<LoxClass> superclass, Map<Symbol, LoxFunction> methods) {
         this.name = name;
         this.superclass = superclass;
-        this.methods = methods;
+        if (!superclass.isEmpty())
+            table.putAll(superclass.get().table);
+        for (Map.Entry<Symbol, LoxFunction> method : methods.entrySet()) {
+            table.put(method.getKey(), Optional.of(method.getValue()));
+        }
+        this.initializer = findMethod(Symbol.INIT);
+        this.arity = initializer.isEmpty() ? 0 : initializer.get().arity();
     }
 
     public String getName() {
         return name;
     }
 
-    // NOTE: Even with an Optional<? extends Obj> I let a NullPointerException to sneak into
-    // That's because this Optional is bullshit!
-    // It can be null itself!
-    public Optional<LoxFunction> findMethod(String name) {
-        return Optional.ofNullable(methods.get(name))
-            .or(() -> {
-                    var sup = superclass.map(cl -> cl.findMethod(name));
-                    if (sup.isEmpty()) {
-                        return Optional.empty();
-                    }
-                    return sup.get();
-                });
+    public Shape getShape() {
+        return shape;
+    }
+
+    public Optional<LoxFunction> findMethod(Symbol name) {
+        return table.getOrDefault(name, Optional.empty());
     }
 
     @Override
@@ -43,21 +46,46 @@ public final class LoxClass implements LoxValue, LoxCallable {
     }
 
     @Override
-    public LoxValue call(Interpreter interpreter, List<LoxValue> arguments) {
-        LoxInstance instance = new LoxInstance(this);
-        Optional<LoxFunction> initializer = findMethod("init");
-        if(!initializer.isEmpty())
-            initializer.get().bind(instance).call(interpreter, arguments);
+    public LoxValue call(Interpreter interpreter, LoxValue[] arguments) {
+        return construct(interpreter, null, null, null, null, arguments);
+    }
+
+    @Override
+    public LoxValue call0(Interpreter interpreter) {
+        return construct(interpreter, null, null, null, null, null);
+    }
+
+    @Override
+    public LoxValue call1(Interpreter interpreter, LoxValue a) {
+        return construct(interpreter, a, null, null, null, null);
+    }
 
+    @Override
+    public LoxValue call2(Interpreter interpreter, LoxValue a, LoxValue b) {
+        return construct(interpreter, a, b, null, null, null);
+    }
+
+    @Override
+    public LoxValue call3(Interpreter interpreter, LoxValue a, LoxValue b, LoxValue c) {
+        return construct(interpreter, a, b, c, null, null);
+    }
+
+    @Override
+    public LoxValue call4(Interpreter interpreter, LoxValue a, LoxValue b, LoxValue c, LoxValue d) {
+        return construct(interpreter, a, b, c, d, null);
+    }
+
+    // The arguments as LoxFunction.invoke takes them, in arguments or up to four in a, b, c and d.
+    LoxInstance construct(Interpreter interpreter, LoxValue a, LoxValue b, LoxValue c, LoxValue d, LoxValue[] arguments) {
+        LoxInstance instance = new LoxInstance(this);
+        if (!initializer.isEmpty())
+            initializer.get().invoke(interpreter, instance, a, b, c, d, arguments);
         return instance;
     }
 
     @Override
     public int arity() {
-        Optional<LoxFunction> initializer = findMethod("init");
-        if (initializer.isEmpty())
-            return 0;
-        return initializer.get().arity();
+        return arity;
     }
 
 }
@@ -11,7 +11,12 @@ public final class LoxClockBuiltin implements LoxCallable {
     private LoxClockBuiltin() {};
 
     @Override
-    public LoxValue call(Interpreter interpreter, List<LoxValue> arguments) {
+    public LoxValue call(Interpreter interpreter, LoxValue[] arguments) {
+        return call0(interpreter);
+    }
+
+    @Override
+    public LoxValue call0(Interpreter interpreter) {
         return new LoxNum(System.currentTimeMillis() / 1000.);
     }
 
@@ -2,53 +2,166 @@ package com.craftinginterpreters.lox;
 
 import java.util.Iterator;
 import java.util.List;
+import java.util.Optional;
 
 import static com.craftinginterpreters.lox.Stmt.*;
 
-public record LoxFunction(Function declaration, Environment closure, boolean isInitializer) implements LoxCallable {
+// The body is only present for functions built by the NodeCompiler, those never go through the Interpreter.
+// Variables of enclosing functions come from the upvalues, the closure is only the globals or,
+// for a method, the frames holding 'super' and 'this'.
+public record LoxFunction(Function declaration, Environment closure, Upvalue[] upvalues, boolean isInitializer, Optional<Node.Body> body) implements LoxCallable {
+
+    public LoxFunction(Function declaration, Environment closure, boolean isInitializer) {
+        this(declaration, closure, Upvalue.NONE, isInitializer);
+    }
+
+    public LoxFunction(Function declaration, Environment closure, Upvalue[] upvalues, boolean isInitializer) {
+        this(declaration, closure, upvalues, isInitializer, Optional.empty());
+    }
 
     public LoxFunction bind(LoxInstance instance) {
         Environment env = new Environment(closure);
-        env.define("this", instance);
-        return new LoxFunction(declaration, env, isInitializer);
+        env.define(instance);
+        return new LoxFunction(declaration, env, upvalues, isInitializer, body);
     }
 
     @Override
-        public LoxValue call(Interpreter interpreter, List<LoxValue> arguments) {
-            if(declaration.params().size() != arguments.size()) {
-                String msg = String.format("Mismatched number of arguments in function call, expected %d, got %d.", declaration.params().size(), arguments.size());
-                throw new IllegalArgumentException(msg);
-            }
-            Environment env = new Environment(closure);
-            Iterator<LoxValue> iter = arguments.iterator();
-            for(Token param : declaration.params()){
-                env.define(param.lexeme(), iter.next());
-            }
+    public LoxValue call(Interpreter interpreter, LoxValue[] arguments) {
+        return invoke(interpreter, null, null, null, null, null, arguments);
+    }
+
+    @Override
+    public LoxValue call0(Interpreter interpreter) {
+        return invoke(interpreter, null, null, null, null, null, null);
+    }
+
+    @Override
+    public LoxValue call1(Interpreter interpreter, LoxValue a) {
+        return invoke(interpreter, null, a, null, null, null, null);
+    }
+
+    @Override
+    public LoxValue call2(Interpreter interpreter, LoxValue a, LoxValue b) {
+        return invoke(interpreter, null, a, b, null, null, null);
+    }
+
+    @Override
+    public LoxValue call3(Interpreter interpreter, LoxValue a, LoxValue b, LoxValue c) {
+        return invoke(interpreter, null, a, b, c, null, null);
+    }
 
+    @Override
+    public LoxValue call4(Interpreter interpreter, LoxValue a, LoxValue b, LoxValue c, LoxValue d) {
+        return invoke(interpreter, null, a, b, c, d, null);
+    }
+
+    // The whole of a call, with receiver as 'this' unless it's null, as bind(receiver) would without
+    // materializing the bound function. The arguments are in arguments or, when that's null, in a, b, c
+    // and d up to the first null. The body runs right under this frame, what's called for the frames
+    // returns before it, so a Lox call nests no more Java frames than the call site's and this one.
+    // The tail calls the body leaves pending are run by the same loop, the trampoline, one after the other.
+    public LoxValue invoke(Interpreter interpreter, LoxInstance receiver, LoxValue a, LoxValue b, LoxValue c, LoxValue d, LoxValue[] arguments) {
+        if (!body.isEmpty())
+            return body.get().call(receiver == null ? this : bind(receiver), a, b, c, d, arguments);
+        LoxFunction function = this;
+        while (true) {
+            Optional<Jit.Code> code = function.compiled(interpreter);
+            Environment closure = function.closure;
+            if (receiver != null) {
+                closure = interpreter.pushFrame(closure);
+                closure.define(receiver);
+            }
+            LoxValue result = LoxValue.Intern.NIL;
             try {
-                interpreter.executeBlock(declaration.body(), env);
-            } catch(Return.ReturnException ret) {
-                if(isInitializer)
-                    try {
-                        return closure.getAt(0, "this");
-                    } catch (EnvironmentException ee) {
-                        return LoxValue.Intern.NIL;
+                try {
+                    if (!code.isEmpty()) {
+                        // The Jit is the only one that still wants an array.
+                        result = code.get().run(interpreter, closure, function.upvalues, arguments != null ? arguments : arguments(a, b, c, d));
+                    } else {
+                        try {
+                            interpreter.executeBlock(function.declaration.body(), function.frame(interpreter, closure, a, b, c, d, arguments));
+                            result = interpreter.completeReturn();
+                        } finally {
+                            interpreter.popFrame();
+                        }
                     }
-
-                return ret.getValue();
-            } catch(VisitException ve) {
-                String msg = String.format("Error in %s function call.", declaration.name().lexeme());
-                interpreter.getLox().error(declaration.name(), msg);
+                } catch (VisitException ve) {
+                    function.fail(interpreter);
+                }
+                // 'this' of an initializer is read before its frame is let go.
+                result = function.complete(closure, result);
+            } finally {
+                if (receiver != null)
+                    interpreter.popFrame();
             }
+            if (interpreter.tailFunction == null)
+                return result;
+            function = interpreter.tailFunction;
+            receiver = interpreter.tailReceiver;
+            a = interpreter.tailA;
+            b = interpreter.tailB;
+            c = interpreter.tailC;
+            d = interpreter.tailD;
+            arguments = interpreter.tailArguments;
+            interpreter.tailFunction = null;
+            interpreter.tailReceiver = null;
+            interpreter.tailArguments = null;
+        }
+    }
 
-            try {
-                if(isInitializer)
-                    return closure.getAt(0, "this");
-            } catch (EnvironmentException ee) {
-               // do nothing
+    // The frame of one run of the body, pushed on top of closure with the upvalues and the arguments in it.
+    private Environment frame(Interpreter interpreter, Environment closure, LoxValue a, LoxValue b, LoxValue c, LoxValue d, LoxValue[] arguments) {
+        Environment env = interpreter.pushFrame(closure);
+        env.bindUpvalues(upvalues);
+        if (arguments != null) {
+            for (LoxValue argument : arguments) {
+                env.define(argument);
             }
+            return env;
+        }
+        if (a != null)
+            env.define(a);
+        if (b != null)
+            env.define(b);
+        if (c != null)
+            env.define(c);
+        if (d != null)
+            env.define(d);
+        return env;
+    }
+
+    private static LoxValue[] arguments(LoxValue a, LoxValue b, LoxValue c, LoxValue d) {
+        if (a == null)
+            return NO_ARGUMENTS;
+        if (b == null)
+            return new LoxValue[] { a };
+        if (c == null)
+            return new LoxValue[] { a, b };
+        if (d == null)
+            return new LoxValue[] { a, b, c };
+        return new LoxValue[] { a, b, c, d };
+    }
+
+    private Optional<Jit.Code> compiled(Interpreter interpreter) {
+        if (interpreter.getJit().isEmpty())
+            return Optional.empty();
+        return interpreter.getJit().get().codeFor(declaration);
+    }
 
+    private void fail(Interpreter interpreter) {
+        String msg = String.format("Error in %s function call.", declaration.name().lexeme());
+        interpreter.getLox().error(declaration.name(), msg);
+    }
+
+    private LoxValue complete(Environment closure, LoxValue result) {
+        try {
+            if(isInitializer)
+                return closure.getAt(0, 0);
+        } catch (EnvironmentException ee) {
             return LoxValue.Intern.NIL;
+        }
+
+        return result;
     }
 
     @Override
@@ -1,12 +1,19 @@
 package com.craftinginterpreters.lox;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
 
 public final class LoxInstance implements LoxValue {
+    private static final LoxValue[] EMPTY = new LoxValue[0];
+
     private final LoxClass clazz;
-    private final Map<String, LoxValue> fields = new HashMap<>();
+    // Fields live in values at the index given by the shape, unless the
+    // object outgrew the shapes and was moved to the dictionary.
+    private Shape shape;
+    private LoxValue[] values;
+    private Map<Symbol, LoxValue> dictionary;
 
     public static class InstanceException extends Exception {
         public InstanceException(String msg) { super(msg); }
@@ -14,14 +21,23 @@ public final class LoxInstance implements LoxValue {
 
     public LoxInstance(LoxClass clazz){
         this.clazz = clazz;
+        this.shape = clazz.getShape();
+        int capacity = shape.capacity();
+        this.values = capacity == 0 ? EMPTY : new LoxValue[capacity];
     }
 
     public LoxValue get(Token name) throws InstanceException {
-        if (fields.containsKey(name.lexeme())) {
-            return fields.get(name.lexeme());
+        if (dictionary != null) {
+            LoxValue value = dictionary.get(name.symbol());
+            if (value != null)
+                return value;
+        } else {
+            int index = shape.indexOf(name.symbol());
+            if (index >= 0)
+                return values[index];
         }
 
-        Optional<LoxFunction> method = clazz.findMethod(name.lexeme());
+        Optional<LoxFunction> method = clazz.findMethod(name.symbol());
 
         if(!method.isEmpty()) {
             return method.get().bind(this);
@@ -31,7 +47,124 @@ public final class LoxInstance implements LoxValue {
     }
 
     public void set(Token name, LoxValue value) {
-        fields.put(name.lexeme(), value);
+        if (dictionary != null) {
+            dictionary.put(name.symbol(), value);
+            return;
+        }
+        int index = shape.indexOf(name.symbol());
+        if (index >= 0) {
+            values[index] = value;
+            return;
+        }
+
+        Optional<Shape> next = shape.with(name.symbol());
+        if (next.isEmpty()) {
+            toDictionary();
+            dictionary.put(name.symbol(), value);
+            return;
+        }
+        shape = next.get();
+        if (shape.size() > values.length)
+            values = Arrays.copyOf(values, Math.max(shape.capacity(), shape.size()));
+        values[shape.size() - 1] = value;
+    }
+
+    // Same as get, but remembers per shape whether the name is a field (and its index) or a method.
+    public LoxValue get(Token name, InlineCache cache) throws InstanceException {
+        if (dictionary != null)
+            return get(name);
+        int entry = cache.find(shape);
+        if (entry >= 0) {
+            int index = cache.slot(entry);
+            if (index >= 0)
+                return values[index];
+            return ((LoxFunction) cache.target(entry)).bind(this);
+        }
+
+        int index = shape.indexOf(name.symbol());
+        if (index >= 0) {
+            cache.add(shape, index, null);
+            return values[index];
+        }
+        Optional<LoxFunction> method = clazz.findMethod(name.symbol());
+        if (!method.isEmpty())
+            cache.add(shape, -1, method.get());
+        return get(name);
+    }
+
+    // The unbound method a call through name lands on, null when a field shadows it or there's no such method.
+    // Shares the entries of get(name, cache), so the site it's used from can be a Get as well.
+    public LoxFunction method(Token name, InlineCache cache) {
+        if (dictionary != null) {
+            if (dictionary.containsKey(name.symbol()))
+                return null;
+            return clazz.findMethod(name.symbol()).orElse(null);
+        }
+        int entry = cache.find(shape);
+        if (entry >= 0)
+            return cache.slot(entry) >= 0 ? null : (LoxFunction) cache.target(entry);
+
+        int index = shape.indexOf(name.symbol());
+        if (index >= 0) {
+            cache.add(shape, index, null);
+            return null;
+        }
+        Optional<LoxFunction> method = clazz.findMethod(name.symbol());
+        if (!method.isEmpty())
+            cache.add(shape, -1, method.get());
+        return method.orElse(null);
+    }
+
+    // What get(name, cache) returns once method(name, cache) found no method, the lookup was counted then.
+    public LoxValue field(Token name, InlineCache cache) throws InstanceException {
+        if (dictionary == null) {
+            int entry = cache.peek(shape);
+            if (entry >= 0 && cache.slot(entry) >= 0)
+                return values[cache.slot(entry)];
+        }
+        return get(name);
+    }
+
+    // Same as set, but remembers per shape the index written and the shape it leads to.
+    public void set(Token name, LoxValue value, InlineCache cache) {
+        if (dictionary != null) {
+            set(name, value);
+            return;
+        }
+        int entry = cache.find(shape);
+        if (entry >= 0) {
+            Shape next = (Shape) cache.target(entry);
+            int index = cache.slot(entry);
+            if (next != shape) {
+                if (next.size() > values.length)
+                    values = Arrays.copyOf(values, Math.max(next.capacity(), next.size()));
+                shape = next;
+            }
+            values[index] = value;
+            return;
+        }
+
+        Shape before = shape;
+        set(name, value);
+        if (dictionary == null)
+            cache.add(before, shape.indexOf(name.symbol()), shape);
+    }
+
+    private void toDictionary() {
+        dictionary = new HashMap<>();
+        Symbol[] names = shape.names();
+        for (int i = 0; i < names.length; i++) {
+            dictionary.put(names[i], values[i]);
+        }
+        values = EMPTY;
+    }
+
+    public Shape getShape() {
+        return shape;
+    }
+
+    public boolean isDictionary() {
+        return dictionary != null;
     }
 
     @Override
@@ -6,7 +6,8 @@ public sealed interface LoxValue permits
     LoxValue.Intern,
     LoxCallable,
     LoxClass,
-    LoxInstance
+    LoxInstance,
+    VmObject
 {
 
     public static enum Intern implements LoxValue {
@@ -1,19 +1,80 @@
 package com.craftinginterpreters.lox;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
 
 public class Main {
+    private static final String USAGE = "Usage: jlox [--engine=tree|jit|nodes|vm] [--ic-stats] [--passes=fold,dead-branches,grouping,scopes,counted-loops] [--pass-stats] [--max-depth=calls] [--scan-thread] [script]";
+
     public static void main(String[] args) {
-        if (args.length > 1) {
-            System.err.println("Usage: jlox [script]");
+        Lox.Engine engine = Lox.Engine.TREE;
+        boolean inlineCacheStats = false;
+        boolean passStats = false;
+        boolean scanThread = false;
+        Set<Optimizer.Pass> passes = EnumSet.allOf(Optimizer.Pass.class);
+        int maxDepth = VM.DEFAULT_MAX_DEPTH;
+        List<String> scripts = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("--engine=")) {
+                Optional<Lox.Engine> selected = Lox.Engine.fromFlag(arg.substring("--engine=".length()));
+                if (selected.isEmpty()) {
+                    System.err.println(USAGE);
+                    System.exit(64);
+                }
+                engine = selected.get();
+            } else if (arg.equals("--ic-stats")) {
+                inlineCacheStats = true;
+            } else if (arg.startsWith("--passes=")) {
+                // Only the listed passes run, an empty list turns the optimizer off.
+                passes = EnumSet.noneOf(Optimizer.Pass.class);
+                for (String flag : arg.substring("--passes=".length()).split(",")) {
+                    if (flag.isEmpty())
+                        continue;
+                    Optional<Optimizer.Pass> pass = Optimizer.Pass.fromFlag(flag);
+                    if (pass.isEmpty()) {
+                        System.err.println(USAGE);
+                        System.exit(64);
+                    }
+                    passes.add(pass.get());
+                }
+            } else if (arg.equals("--pass-stats")) {
+                passStats = true;
+            } else if (arg.equals("--scan-thread")) {
+                scanThread = true;
+            } else if (arg.startsWith("--max-depth=")) {
+                try {
+                    maxDepth = Integer.parseInt(arg.substring("--max-depth=".length()));
+                } catch (NumberFormatException nfe) {
+                    maxDepth = 0;
+                }
+                if (maxDepth < 1) {
+                    System.err.println(USAGE);
+                    System.exit(64);
+                }
+            } else {
+                scripts.add(arg);
+            }
+        }
+
+        if (scripts.size() > 1) {
+            System.err.println(USAGE);
             System.exit(64);
         }
 
-        Lox l = new Lox();
+        Lox l = new Lox(engine);
+        l.setReportInlineCaches(inlineCacheStats);
+        l.setPasses(passes);
+        l.setReportPasses(passStats);
+        l.setMaxDepth(maxDepth);
+        l.setScanThread(scanThread);
 
         try {
-            if (args.length == 1) {
-               l.runFile(args[0]);
+            if (scripts.size() == 1) {
+               l.runFile(scripts.get(0));
             } else {
                l.runPrompt();
             }
@@ -0,0 +1,483 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+
+import static com.craftinginterpreters.lox.TokenType.*;
+
+// Same tokens as the Scanner, lexed straight out of UTF-8 bytes, usually a file mapped in memory,
+// so the source is never copied nor decoded. Outside string literals Lox is ASCII, a byte is a character.
+// A token only costs its Token: punctuation shares constant lexemes, identifiers, keywords and numbers
+// come from a table of the distinct lexemes seen so far, numbers keeping their parsed literal there.
+public class MappedScanner {
+    private static final String[] FIXED = new String[TokenType.values().length];
+    private static final double[] POW10 = new double[23];
+
+    static {
+        String[][] fixed = {
+            { "LEFT_PAREN", "(" }, { "RIGHT_PAREN", ")" }, { "LEFT_BRACE", "{" }, { "RIGHT_BRACE", "}" },
+            { "COMMA", "," }, { "DOT", "." }, { "MINUS", "-" }, { "PLUS", "+" }, { "SEMICOLON", ";" },
+            { "SLASH", "/" }, { "STAR", "*" }, { "BANG", "!" }, { "BANG_EQUAL", "!=" }, { "EQUAL", "=" },
+            { "EQUAL_EQUAL", "==" }, { "GREATER", ">" }, { "GREATER_EQUAL", ">=" }, { "LESS", "<" },
+            { "LESS_EQUAL", "<=" }, { "EOF", "" },
+        };
+        for (String[] entry : fixed) {
+            FIXED[TokenType.valueOf(entry[0]).ordinal()] = entry[1];
+        }
+        POW10[0] = 1;
+        for (int i = 1; i < POW10.length; i++) {
+            POW10[i] = POW10[i - 1] * 10;
+        }
+    }
+
+    // A distinct identifier, keyword or number lexeme, found again by hash and bytes.
+    // Names share the lexeme of their Symbol.
+    private static record Entry(String lexeme, TokenType type, Optional<LoxValue> literal, Symbol symbol) {  }
+
+    private final ByteBuffer source;
+    private final int length;
+    private boolean exhausted = false;
+    private final Lox context;
+    // Open addressing, kept at most half full. The hashes are apart so probing doesn't
+    // touch the entries, a free slot has hash 0 and no lexeme hashes to 0. The table stops
+    // taking lexemes at ENTRIES_MAX: a big enough table misses the cache on every lookup,
+    // which costs more than allocating the lexemes of the names seen once that would fill it.
+    private static final int ENTRIES_MAX = 1 << 16;
+    private int[] hashes = new int[256];
+    private Entry[] entries = new Entry[256];
+    private int size = 0;
+    // Where the tokens go when lexed by scanBuffer, otherwise each one is made into a Token.
+    private TokenBuffer buffer;
+    private Token token;
+
+    private int start = 0;
+    private int current = 0;
+    private int line = 1;
+
+    // Lexes from the buffer's position to its limit, absolute reads leave the buffer itself untouched.
+    public MappedScanner(Lox lox, ByteBuffer source) {
+        this.source = source.slice();
+        this.length = this.source.limit();
+        this.context = lox;
+        for (Map.Entry<String, TokenType> keyword : Scanner.keywords.entrySet()) {
+            Optional<LoxValue> literal = switch (keyword.getValue()) {
+                case NIL -> Optional.of(LoxValue.Intern.NIL);
+                case FALSE -> Optional.of(LoxValue.Intern.FALSE);
+                case TRUE -> Optional.of(LoxValue.Intern.TRUE);
+                default -> Optional.empty();
+            };
+            String lexeme = keyword.getKey();
+            Symbol symbol = Token.isName(keyword.getValue()) ? Symbol.of(lexeme) : null;
+            insert(hash(lexeme), new Entry(lexeme, keyword.getValue(), literal, symbol));
+        }
+    }
+
+    // The mapping outlives the channel, it's released once the buffer is unreachable.
+    // Files over 2GB don't fit one buffer.
+    public static ByteBuffer map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    public List<Token> scanTokens() {
+        List<Token> tokens = new ArrayList<>();
+        tokens().forEachRemaining(tokens::add);
+        return tokens;
+    }
+
+    // Like Scanner.tokens, lexed one at a time and ending with EOF.
+    public Iterator<Token> tokens() {
+        if (exhausted) {
+            throw new IllegalStateException("[PANIC] tokens already lexed and returned, scanner consumed.");
+        }
+        exhausted = true;
+        return new Iterator<Token>() {
+            private boolean done = false;
+
+            @Override
+            public boolean hasNext() {
+                return !done;
+            }
+
+            @Override
+            public Token next() {
+                if (done)
+                    throw new NoSuchElementException();
+                Token next = scanNext();
+                done = next.type() == EOF;
+                return next;
+            }
+        };
+    }
+
+    // Every token at once, recorded in a TokenBuffer rather than made into Tokens. Either this,
+    // tokens or scanTokens can be called once.
+    public TokenBuffer scanBuffer() {
+        if (exhausted) {
+            throw new IllegalStateException("[PANIC] tokens already lexed and returned, scanner consumed.");
+        }
+        exhausted = true;
+        buffer = new TokenBuffer(this, Math.max(length / 4, 16));
+        while (!isAtEnd()) {
+            start = current;
+            scanToken();
+        }
+        buffer.add(EOF, current, 0, line);
+        buffer.trim();
+        return buffer;
+    }
+
+    // The Token of what was recorded in the buffer, made the same way tokens would have.
+    Token token(TokenType type, int from, int length, int line) {
+        String fixed = FIXED[type.ordinal()];
+        if (fixed != null)
+            return new Token(type, fixed, Optional.empty(), line);
+        if (type == STRING) {
+            String lexeme = decode(from, from + length);
+            return new Token(type, lexeme, Optional.of(new LoxStr(lexeme.substring(1, lexeme.length() - 1))), line);
+        }
+        Entry entry = intern(hash(from, from + length), type, from, from + length);
+        return new Token(entry.type(), entry.lexeme(), entry.literal(), line, entry.symbol());
+    }
+
+    // Same as token(...).literal().get() without the Token.
+    LoxValue literal(TokenType type, int from, int length) {
+        return switch (type) {
+            case STRING -> new LoxStr(decode(from + 1, from + length - 1));
+            case NIL -> LoxValue.Intern.NIL;
+            case TRUE -> LoxValue.Intern.TRUE;
+            case FALSE -> LoxValue.Intern.FALSE;
+            default -> intern(hash(from, from + length), type, from, from + length).literal().get();
+        };
+    }
+
+    private Token scanNext() {
+        while (!isAtEnd()) {
+            start = current;
+            scanToken();
+            if (token != null) {
+                Token next = token;
+                token = null;
+                return next;
+            }
+        }
+        return new Token(EOF, "", Optional.empty(), line);
+    }
+
+    // Tokenizer
+    private void scanToken() {
+        byte c = advance();
+        switch (c) {
+            case '(' -> addToken(LEFT_PAREN);
+            case ')' -> addToken(RIGHT_PAREN);
+            case '{' -> addToken(LEFT_BRACE);
+            case '}' -> addToken(RIGHT_BRACE);
+            case ',' -> addToken(COMMA);
+            case '.' -> addToken(DOT);
+            case '-' -> addToken(MINUS);
+            case '+' -> addToken(PLUS);
+            case ';' -> addToken(SEMICOLON);
+            case '*' -> addToken(STAR);
+
+            case '!' -> addToken(match('=') ? BANG_EQUAL : BANG);
+            case '=' -> addToken(match('=') ? EQUAL_EQUAL : EQUAL);
+            case '<' -> addToken(match('=') ? LESS_EQUAL : LESS);
+            case '>' -> addToken(match('=') ? GREATER_EQUAL : GREATER);
+
+            case '/' -> {
+                if (match('/')) {
+                    while (peek() != '\n' && !isAtEnd())
+                        advance();
+                } else {
+                    addToken(SLASH);
+                }
+            }
+
+            case ' ', '\r', '\t' -> { }
+
+            case '\n' -> line++;
+
+            case '"' -> string();
+
+            default -> {
+                if (isDigit(c)) {
+                    number();
+                } else if (isAlpha(c)) {
+                    identifier();
+                } else {
+                    unexpected(c);
+                }
+            }
+        }
+    }
+
+    ///////////////////////////
+    // Lexing Special Tokens //
+    ///////////////////////////
+    private void string() {
+        while (peek() != '"' && !isAtEnd()) {
+            if (peek() == '\n')
+                line++;
+            advance();
+        }
+
+        if (isAtEnd()) {
+            context.error(line, "Unterminated string.");
+            return;
+        }
+
+        advance();
+
+        if (buffer != null) {
+            buffer.add(STRING, start, current - start, line);
+            return;
+        }
+        String lexeme = decode(start, current);
+        String value = lexeme.substring(1, lexeme.length() - 1);
+        token = new Token(STRING, lexeme, Optional.of(new LoxStr(value)), line);
+    }
+
+    // The hash of the lexeme is taken while it's lexed, its bytes are only read again to compare them.
+    private void number() {
+        int hash = mix(FNV_BASIS, source.get(start));
+        byte c;
+        while (isDigit(c = peek())) {
+            hash = mix(hash, c);
+            advance();
+        }
+
+        if (c == '.' && isDigit(peekNext())) {
+            hash = mix(hash, advance());
+
+            while (isDigit(c = peek())) {
+                hash = mix(hash, c);
+                advance();
+            }
+        }
+
+        addInterned(NUMBER, hash);
+    }
+
+    private void identifier() {
+        int hash = mix(FNV_BASIS, source.get(start));
+        byte c;
+        while (isAlphaNumeric(c = peek())) {
+            hash = mix(hash, c);
+            advance();
+        }
+
+        addInterned(IDENTIFIER, hash);
+    }
+
+    // A character the Scanner would reject, whole even when it takes more than one byte.
+    private void unexpected(byte c) {
+        int width = 1;
+        if ((c & 0xe0) == 0xc0)
+            width = 2;
+        else if ((c & 0xf0) == 0xe0)
+            width = 3;
+        else if ((c & 0xf8) == 0xf0)
+            width = 4;
+        while (width-- > 1 && !isAtEnd() && (peek() & 0xc0) == 0x80)
+            advance();
+        String text = decode(start, current);
+        for (char ch : text.toCharArray()) {
+            context.error(line, String.format("Unexpected character [%c].", ch));
+        }
+    }
+
+    ////////////////////////////////////////////
+    // Character Lookup Methods and Utilities //
+    ////////////////////////////////////////////
+
+    private boolean isAtEnd() {
+        return current >= length;
+    }
+
+    private byte advance() {
+        return source.get(current++);
+    }
+
+    private boolean match(char expected) {
+        if (isAtEnd() || source.get(current) != expected)
+            return false;
+        current++;
+        return true;
+    }
+
+    private byte peek() {
+        if (isAtEnd())
+            return '\0';
+        return source.get(current);
+    }
+
+    private byte peekNext() {
+        if (current + 1 >= length)
+            return '\0';
+        return source.get(current + 1);
+    }
+
+    private static boolean isDigit(byte c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isAlpha(byte c) {
+        return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z';
+    }
+
+    private static boolean isAlphaNumeric(byte c) {
+        return isDigit(c) || isAlpha(c);
+    }
+
+    private String decode(int from, int to) {
+        byte[] bytes = new byte[to - from];
+        source.get(from, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    //////////////////////////////
+    // Collect tokens utilities //
+    //////////////////////////////
+
+    private void addToken(TokenType type) {
+        if (buffer != null) {
+            buffer.add(type, start, current - start, line);
+            return;
+        }
+        token = new Token(type, FIXED[type.ordinal()], Optional.empty(), line);
+    }
+
+    // The buffer only needs to know whether a name is a keyword, its lexeme waits until it's asked for.
+    private void addInterned(TokenType type, int hash) {
+        hash = finish(hash);
+        if (buffer != null) {
+            Entry entry = find(hash, start, current);
+            buffer.add(entry == null ? type : entry.type(), start, current - start, line);
+            return;
+        }
+        Entry entry = intern(hash, type, start, current);
+        token = new Token(entry.type(), entry.lexeme(), entry.literal(), line, entry.symbol());
+    }
+
+    private Entry intern(int hash, TokenType type, int from, int to) {
+        Entry entry = find(hash, from, to);
+        if (entry != null)
+            return entry;
+        if (type == NUMBER) {
+            String lexeme = decode(from, to);
+            entry = new Entry(lexeme, type, Optional.of(new LoxNum(parseNumber(lexeme))), null);
+        } else {
+            Symbol symbol = Symbol.of(decode(from, to));
+            entry = new Entry(symbol.name(), type, Optional.empty(), symbol);
+        }
+        if (size < ENTRIES_MAX)
+            insert(hash, entry);
+        return entry;
+    }
+
+    // Identifiers and numbers are ASCII, so the lexeme's chars can be compared to the bytes one for one.
+    private Entry find(int hash, int from, int to) {
+        int mask = hashes.length - 1;
+        for (int i = hash & mask; hashes[i] != 0; i = (i + 1) & mask) {
+            if (hashes[i] == hash && matches(entries[i].lexeme(), from, to))
+                return entries[i];
+        }
+        return null;
+    }
+
+    private boolean matches(String lexeme, int from, int to) {
+        if (lexeme.length() != to - from)
+            return false;
+        for (int i = 0; i < lexeme.length(); i++) {
+            if (lexeme.charAt(i) != source.get(from + i))
+                return false;
+        }
+        return true;
+    }
+
+    private void insert(int hash, Entry entry) {
+        if (2 * (size + 1) > hashes.length) {
+            int[] oldHashes = hashes;
+            Entry[] oldEntries = entries;
+            hashes = new int[oldHashes.length * 2];
+            entries = new Entry[oldEntries.length * 2];
+            for (int i = 0; i < oldHashes.length; i++) {
+                if (oldHashes[i] != 0)
+                    place(oldHashes[i], oldEntries[i]);
+            }
+        }
+        place(hash, entry);
+        size++;
+    }
+
+    private void place(int hash, Entry entry) {
+        int mask = hashes.length - 1;
+        int i = hash & mask;
+        while (hashes[i] != 0)
+            i = (i + 1) & mask;
+        hashes[i] = hash;
+        entries[i] = entry;
+    }
+
+    // FNV-1a, the same over the bytes of the source and the chars of a lexeme.
+    private static final int FNV_BASIS = 0x811c9dc5;
+
+    private static int mix(int hash, int c) {
+        return (hash ^ c) * 0x01000193;
+    }
+
+    private static int finish(int hash) {
+        hash ^= hash >>> 16;
+        return hash == 0 ? 1 : hash;
+    }
+
+    private int hash(int from, int to) {
+        int h = FNV_BASIS;
+        for (int i = from; i < to; i++) {
+            h = mix(h, source.get(i));
+        }
+        return finish(h);
+    }
+
+    private static int hash(String lexeme) {
+        int h = FNV_BASIS;
+        for (int i = 0; i < lexeme.length(); i++) {
+            h = mix(h, lexeme.charAt(i));
+        }
+        return finish(h);
+    }
+
+    // Up to 15 digits and 22 decimals both the digits and the power of ten are exact doubles,
+    // so one division rounds correctly. Anything longer goes through parseDouble.
+    private static double parseNumber(String lexeme) {
+        long digits = 0;
+        int count = 0;
+        int decimals = 0;
+        boolean fraction = false;
+        for (int i = 0; i < lexeme.length(); i++) {
+            char c = lexeme.charAt(i);
+            if (c == '.') {
+                fraction = true;
+                continue;
+            }
+            digits = digits * 10 + (c - '0');
+            count++;
+            if (fraction)
+                decimals++;
+        }
+        if (count > 15 || decimals >= POW10.length)
+            return Double.parseDouble(lexeme);
+        return digits / POW10[decimals];
+    }
+}
@@ -0,0 +1,1193 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+// Executable nodes built once from the resolved AST by the NodeCompiler.
+// Every node knows its children directly and runs with a plain execute(frame) call,
+// so there is no visitor dispatch and the JIT can inline from one node into the next.
+public final class Node {
+    private Node() {}
+
+    // Unchecked so it crosses node boundaries without any plumbing, the NodeEngine turns it back into a VisitException.
+    public static class ExecutionException extends RuntimeException {
+        public ExecutionException(String msg) {
+            super(msg);
+        }
+    }
+
+    // What a node that was asked for a number throws when it produced something else, with that value.
+    // Only thrown when a specialization fails, so it doesn't bother filling in a stack trace.
+    public static class UnexpectedResultException extends Exception {
+        private final LoxValue result;
+
+        public UnexpectedResultException(LoxValue result) {
+            super(null, null, false, false);
+            this.result = result;
+        }
+
+        public LoxValue result() {
+            return result;
+        }
+    }
+
+    public static abstract class ExprNode {
+        public abstract LoxValue execute(Environment frame);
+
+        // Numeric nodes override this to hand their result over as a primitive.
+        public double executeNumber(Environment frame) throws UnexpectedResultException {
+            return expectNumber(execute(frame));
+        }
+    }
+
+    // A statement returns null when it completes normally, or the value of the 'return' it ran into.
+    public static abstract class StmtNode {
+        public abstract LoxValue execute(Environment frame);
+    }
+
+    static boolean isTruthy(LoxValue value) {
+        return value != LoxValue.Intern.NIL && value != LoxValue.Intern.FALSE;
+    }
+
+    static double expectNumber(LoxValue value) throws UnexpectedResultException {
+        if (value instanceof LoxNum n)
+            return n.num();
+        throw new UnexpectedResultException(value);
+    }
+
+    static LoxValue lookup(Environment frame, int depth, int slot) {
+        try {
+            return frame.getAt(depth, slot);
+        } catch (EnvironmentException ee) {
+            throw new ExecutionException("Variable read before its definition.");
+        }
+    }
+
+    /////////////////////////////
+    // Literals and Variables  //
+    /////////////////////////////
+    public static final class Constant extends ExprNode {
+        private final LoxValue value;
+
+        public Constant(LoxValue value) {
+            this.value = value;
+        }
+
+        @Override
+        public LoxValue execute(Environment frame) {
+            return value;
+        }
+    }
+
+    public static final class GetLocal extends ExprNode {
+        private final int depth;
+        private final int slot;
+
+        public GetLocal(int depth, int slot) {
+            this.depth = depth;
+            this.slot = slot;
+        }
+
+        @Override
+        public LoxValue execute(Environment frame) {
+            return lookup(frame, depth, slot);
+        }
+    }
+
+    public static final class GetUpvalue extends ExprNode {
+        private final int index;
+
+        public GetUpvalue(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public LoxValue execute(Environment frame) {
+            return frame.upvalue(index).get();
+        }
+    }
+
+    public static final class SetUpvalue extends ExprNode {
+        private final int index;
+        private final ExprNode value;
+
+        public SetUpvalue(int index, ExprNode value) {
+            this.index = index;
+            this.value = value;
+        }
+
+        @Override
+        public LoxValue execute(Environment frame) {
+            LoxValue v = value.execute(frame);
+            frame.upvalue(index).set(v);
+            return v;
+        }
+    }
+
+    public static final class SetLocal extends ExprNode {
+        private final int depth;
+        private final int slot;
+        private final ExprNode value;
+
+        public SetLocal(int depth, int slot, ExprNode value) {
+            this.depth = depth;
+            this.slot = slot;
+            this.value = value;
+        }
+
+        @Override
+        public LoxValue execute(Environment frame) {
+            LoxValue v = value.execute(frame);
+            try {
+                frame.assignAt(depth, slot, v);
+            } catch (EnvironmentException ee) {
+                throw new ExecutionException("Variable assigned before its definition.");
+            }
+            return v;
+        }
+    }
+
+    // Globals are reached through the cell of their name, taken when the node is compiled.
+    public static final class GetGlobal extends ExprNode {
+        private final Environment.Global global;
+        private final Token name;
+
+        public GetGlobal(Environment.Global global, Token name) {
+            this.global = global;
+            this.name = name;
+        }
+
+        @Override
+        public LoxValue execute(Environment frame) {
+            try {
+                return global.get();
+            } catch (EnvironmentException ee) {
+                throw new ExecutionException(String.format("Undefined variable: %s.", name));
+            }
+        }
+    }
+
+    public static final class SetGlobal extends ExprNode {
+        private final Environment.Global global;
+        private final Token name;
+        private final ExprNode value;
+
+        public SetGlobal(Environment.Global global, Token name, ExprNode value) {
+            this.global = global;
+            this.name = name;
+            this.value = value;
+        }
+
+        @Override
+        public LoxValue execute(Environment frame) {
+            LoxValue v = value.execute(frame);
+            try {
+                global.set(v);
+            } catch (EnvironmentException ee) {
+                throw new ExecutionException(String.format("Undefined variable name: %s.", name));
+            }
+            return v;
+        }
+    }
+
+    /////////////////////////////
+    // Operators               //
+    /////////////////////////////
+    public static abstract class BinaryNode extends ExprNode {
+        protected final ExprNode left;
+        protected final ExprNode right;
+
+        protected BinaryNode(ExprNode left, ExprNode right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public LoxValue execute(Environment frame) {
+            return apply(left.execute(frame), right.execute(frame));
+        }
+
+        protected abstract LoxValue apply(LoxValue l, LoxValue r);
+    }
+
+    // Operators that specialize on the operands they have seen. The first execution picks
+    // NUMBER (or STRING for Add), a later operand of another type deoptimizes the node to GENERIC for good.
+    // In NUMBER state the operands are read through executeNumber, so nothing is boxed in between.
+    public static abstract class NumericNode extends BinaryNode {
+        enum State { UNINITIALIZED, NUMBER, STRING, GENERIC }
+
+        private final boolean strings;
+        protected State state = State.UNINITIALIZED;
+
+        protected NumericNode(ExprNode left, ExprNode right, boolean strings) {
+            super(left, right);
+            this.strings = strings;
+        }
+
+        State state() {
+            return state;
+        }
+
+        @Override
+        public LoxValue execute(Environment frame) {
+            switch (state) {
+                case NUMBER: {
+                    double l;
+                    try {
+                        l = left.executeNumber(frame);
+                    } catch (UnexpectedResultException ue) {
+                        return deoptimize(ue.result(), right.execute(frame));
+                    }
+                    double r;
+                    try {
+                        r = right.executeNumber(frame);
+                    } catch (UnexpectedResultException ue) {
+                        return deoptimize(new LoxNum(l), ue.result());
+                    }
+                    return number(l, r);
+                }
+                case STRING: {
+                    LoxValue l = left.execute(frame);
+                    LoxValue r = right.execute(frame);
+                    if (l instanceof LoxStr ls && r instanceof LoxStr rs)
+                        return new LoxStr(ls.str() + rs.str());
+                    return deoptimize(l, r);
+                }
+                case GENERIC:
+                    return apply(left.execute(frame), right.execute(frame));
+                default: {
+                    LoxValue l = left.execute(frame);
+                    LoxValue r = right.execute(frame);
+                    if (l instanceof LoxNum && r instanceof LoxNum)
+                        state = State.NUMBER;
+                    else if (strings && l instanceof LoxStr && r instanceof LoxStr)
+                        state = State.STRING;
+                    else
+                        state = State.GENERIC;
+                    return apply(l, r);
+                }
+            }
+        }
+
+        // Operands already evaluated when the guess failed are passed in, never evaluated twice.
+        protected LoxValue deoptimize(LoxValue l, LoxValue r) {
+            state = State.GENERIC;
+            return apply(l, r);
+        }
+
+        protected abstract LoxValue number(double l, double r);
+    }
+
+    // Numeric operators whose result is a number again, a parent in NUMBER state gets it unboxed.
+    public static abstract class ArithmeticNode extends NumericNode {
+        protected ArithmeticNode(ExprNode left, ExprNode right, boolean strings) {
+            super(left, right, strings);
+        }
+
+        @Override
+        public double executeNumber(Environment frame) throws UnexpectedResultException {
+            if (state != State.NUMBER)
+                return super.executeNumber(frame);
+            double l;
+            try {
+                l = left.executeNumber(frame);
+            } catch (UnexpectedResultException ue) {
+                return expectNumber(deoptimize(ue.result(), right.execute(frame)));
+            }
+            double r;
+            try {
+                r = right.executeNumber(frame);
+            } catch (UnexpectedResultException ue) {
+                return expectNumber(deoptimize(new LoxNum(l), ue.result()));
+            }
+            return compute(l, r);
+        }
+
+        @Override
+        protected LoxValue number(double l, double r) {
+            return new LoxNum(compute(l, r));
+        }
+
+        protected abstract double compute(double l, double r);
+    }
+
+    public static final class Add extends ArithmeticNode {
+        public Add(ExprNode left, ExprNode right) {
+            super(left, right, true);
+        }
+
+        @Override
+        protected double compute(double l, double r) {
+            return l + r;
+        }
+
+        @Override
+        protected LoxValue apply(LoxValue left, LoxValue right) {
+            if (left instanceof LoxNum l && right instanceof LoxNum r) {
+                return new LoxNum(l.num() + r.num());
+            } else if (left instanceof LoxStr l && right instanceof LoxStr r) {
+                return new LoxStr(l.str() + r.str());
+            } else if (left instanceof LoxStr l && right instanceof LoxNum r) {
+                return new LoxStr(String.format("%s%f", l.str(), r.num()));
+            }
+            throw new ExecutionException("Mismateched type, in PLUS both operand must be both str or both num");
+        }
+    }
+
+    public static final class Subtract extends ArithmeticNode {
+        public Subtract(ExprNode left, ExprNode right) {
+            super(left, right, false);
+        }
+
+        @Override
+        protected double compute(double l, double r) {
+            return l - r;
+        }
+
+        @Override
+        protected LoxValue apply(LoxValue left, LoxValue right) {
+            if (left instanceof LoxNum l && right instanceof LoxNum r)
+                return new LoxNum(l.num() - r.num());
+            throw new ExecutionException("Mismateched type, in MINUS both operand must be both num");
+        }
+    }
+
+    public static final class Multiply extends ArithmeticNode {
+        public Multiply(ExprNode left, ExprNode right) {
+            super(left, right, false);
+        }
+
+        @Override
+        protected double compute(double l, double r) {
+            return l * r;
+        }
+
+        @Override
+        protected LoxValue apply(LoxValue left, LoxValue right) {
+            if (left instanceof LoxNum l && right instanceof LoxNum r)
+                return new LoxNum(l.num() * r.num());
+            throw new ExecutionException("Mismateched type, in STAR both operand must be both num");
+        }
+    }
+
+    public static final class Divide extends ArithmeticNode {
+        public Divide(ExprNode left, ExprNode right) {
+            super(left, right, false);
+        }
+
+        @Override
+        protected double compute(double l, double r) {
+            return l / r;
+        }
+
+        @Override
+        protected LoxValue apply(LoxValue left, LoxValue right) {
+            if (left instanceof LoxNum l && right instanceof LoxNum r)
+                return new LoxNum(l.num() / r.num());
+            throw new ExecutionException("Mismateched type, in SLASH both operand must be both num");
+        }
+    }
+
+    public static final class Less extends NumericNode {
+        public Less(ExprNode left, ExprNode right) {
+            super(left, right, false);
+        }
+
+        @Override
+        protected LoxValue number(double l, double r) {
+            return LoxValue.Intern.fromBool(l < r);
+        }
+
+        @Override
+        protected LoxValue apply(LoxValue left, LoxValue right) {
+            if (left instanceof LoxNum l && right instanceof LoxNum r)
+                return LoxValue.Intern.fromBool(l.num() < r.num());
+            throw new ExecutionException("Mismateched type, in LESS both operand must be both num");
+        }
+    }
+
+    public static final class LessEqual extends NumericNode {
+        public LessEqual(ExprNode left, ExprNode right) {
+            super(left, right, false);
+        }
+
+        @Override
+        protected LoxValue number(double l, double r) {
+            return LoxValue.Intern.fromBool(l <= r);
+        }
+
+        @Override
+        protected LoxValue apply(LoxValue left, LoxValue right) {
+            if (left instanceof LoxNum l && right instanceof LoxNum r)
+                return LoxValue.Intern.fromBool(l.num() <= r.num());
+            throw new ExecutionException("Mismateched type, in LESS_EQUAL both operand must be both num");
+        }
+    }
+
+    public static final class Greater extends NumericNode {
+        public Greater(ExprNode left, ExprNode right) {
+            super(left, right, false);
+        }
+
+        @Override
+        protected LoxValue number(double l, double r) {
+            return LoxValue.Intern.fromBool(l > r);
+        }
+
+        @Override
+        protected LoxValue apply(LoxValue left, LoxValue right) {
+            if (left instanceof LoxNum l && right instanceof LoxNum r)
+                return LoxValue.Intern.fromBool(l.num() > r.num());
+            throw new ExecutionException("Mismateched type, in GREATER both operand must be both num");
+        }
+    }
+
+    public static final class GreaterEqual extends NumericNode {
+        public GreaterEqual(ExprNode left, ExprNode right) {
+            super(left, right, false);
+        }
+
+        @Override
+        protected LoxValue number(double l, double r) {
+            return LoxValue.Intern.fromBool(l >= r);
+        }
+
+        @Override
+        protected LoxValue apply(LoxValue left, LoxValue right) {
+            if (left instanceof LoxNum l && right instanceof LoxNum r)
+                return LoxValue.Intern.fromBool(l.num() >= r.num());
+            throw new ExecutionException("Mismateched type, in GREATER_EQUAL both operand must be both num");
+        }
+    }
+
+    public static final class Equal extends BinaryNode {
+        public Equal(ExprNode left, ExprNode right) {
+            super(left, right);
+        }
+
+        @Override
+        protected LoxValue apply(LoxValue left, LoxValue right) {
+            return LoxValue.Intern.fromBool(left.equals(right));
+        }
+    }
+
+    public static final class NotEqual extends BinaryNode {
+        public NotEqual(ExprNode left, ExprNode right) {
+            super(left, right);
+        }
+
+        @Override
+        protected LoxValue apply(LoxValue left, LoxValue right) {
+            return LoxValue.Intern.fromBool(!left.equals(right));
+        }
+    }
+
+    public static final class Negate extends ExprNode {
+        private final ExprNode right;
+
+        public Negate(ExprNode right) {
+            this.right = right;
+        }
+
+        @Override
+        public LoxValue execute(Environment frame) {
+            try {
+                return new LoxNum(executeNumber(frame));
+            } catch (UnexpectedResultException ue) {
+                throw new ExecutionException("Invalid arguments for MINUS '-'");
+            }
+        }
+
+        @Override
+        public double executeNumber(Environment frame) throws UnexpectedResultException {
+            try {
+                return -right.executeNumber(frame);
+            } catch (UnexpectedResultException ue) {
+                throw new ExecutionException("Invalid arguments for MINUS '-'");
+            }
+        }
+    }
+
+    public static final class Not extends ExprNode {
+        private final ExprNode right;
+
+        public Not(ExprNode right) {
+            this.right = right;
+        }
+
+        @Override
+        public LoxValue execute(Environment frame) {
+            return LoxValue.Intern.fromBool(!isTruthy(right.execute(frame)));
+        }
+    }
+
+    public static final class And extends ExprNode {
+        private final ExprNode left;
+        private final ExprNode right;
+
+        public And(ExprNode left, ExprNode right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public LoxValue execute(Environment frame) {
+            LoxValue l = left.execute(frame);
+            if (!isTruthy(l))
+                return l;
+            return right.execute(frame);
+        }
+    }
+
+    public static final class Or extends ExprNode {
+        private final ExprNode left;
+        private final ExprNode right;
+
+        public Or(ExprNode left, ExprNode right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public LoxValue execute(Environment frame) {
+            LoxValue l = left.execute(frame);
+            if (isTruthy(l))
+                return l;
+            return right.execute(frame);
+        }
+    }
+
+    /////////////////////////////
+    // Calls and Objects       //
+    /////////////////////////////
+    public static final class Call extends ExprNode {
+        private final ExprNode callee;
+        private final ExprNode[] arguments;
+
+        public Call(ExprNode callee, ExprNode[] arguments) {
+            this.callee = callee;
+            this.arguments = arguments;
+        }
+
+        // Up to four arguments are held in locals and handed over as they are, like the Interpreter does,
+        // only longer calls build the array.
+        @Override
+        public LoxValue execute(Environment frame) {
+            LoxValue value = callee.execute(frame);
+            int count = arguments.length;
+            LoxValue a = null, b = null, c = null, d = null;
+            LoxValue[] args = null;
+            if (count > 4) {
+                args = evaluate(arguments, frame);
+            } else if (count > 0) {
+                a = arguments[0].execute(frame);
+                if (count > 1)
+                    b = arguments[1].execute(frame);
+                if (count > 2)
+                    c = arguments[2].execute(frame);
+                if (count > 3)
+                    d = arguments[3].execute(frame);
+            }
+
+            // Functions compiled to nodes are entered directly, anything else goes through LoxCallable.
+            if (value instanceof LoxFunction function && !function.body().isEmpty()) {
+                if (function.arity() != count)
+                    throw arityError(value, function.arity(), count);
+                return function.body().get().call(function, a, b, c, d, args);
+            }
+            return callOther(value, count, a, b, c, d, args);
+        }
+
+        static LoxValue[] evaluate(ExprNode[] arguments, Environment frame) {
+            LoxValue[] args = new LoxValue[arguments.length];
+            for (int i = 0; i < arguments.length; i++) {
+                args[i] = arguments[i].execute(frame);
+            }
+            return args;
+        }
+
+        static LoxValue callOther(LoxValue value, int count, LoxValue a, LoxValue b, LoxValue c, LoxValue d, LoxValue[] args) {
+            if (!(value instanceof LoxCallable callable))
+                throw new ExecutionException(String.format("ERR: %s is not callable.", value));
+            if (callable.arity() != count)
+                throw arityError(value, callable.arity(), count);
+            // Only the tree walker needs the interpreter, node functions and natives never look at it.
+            if (args != null)
+                return callable.call(null, args);
+            return switch (count) {
+                case 0 -> callable.call0(null);
+                case 1 -> callable.call1(null, a);
+                case 2 -> callable.call2(null, a, b);
+                case 3 -> callable.call3(null, a, b, c);
+                default -> callable.call4(null, a, b, c, d);
+            };
+        }
+
+        static ExecutionException arityError(LoxValue callee, int arity, int count) {
+            return new ExecutionException(String.format("ERR: %s require %d arguments, received %d.", callee, arity, count));
+        }
+    }
+
+    // The call of a 'return f(...)' the Resolver marked. A node function isn't entered but left
+    // to the Body returning, which makes it once its own frame is gone, see Trampoline.
+    public static final class TailCall extends ExprNode {
+        private final ExprNode callee;
+        private final ExprNode[] arguments;
+        private final Trampoline trampoline;
+
+        public TailCall(ExprNode callee, ExprNode[] arguments, Trampoline trampoline) {
+            this.callee = callee;
+            this.arguments = arguments;
+            this.trampoline = trampoline;
+        }
+
+        @Override
+        public LoxValue execute(Environment frame) {
+            LoxValue value = callee.execute(frame);
+            int count = arguments.length;
+            LoxValue a = null, b = null, c = null, d = null;
+            LoxValue[] args = null;
+            if (count > 4) {
+                args = Call.evaluate(arguments, frame);
+            } else if (count > 0) {
+                a = arguments[0].execute(frame);
+                if (count > 1)
+                    b = arguments[1].execute(frame);
+                if (count > 2)
+                    c = arguments[2].execute(frame);
+                if (count > 3)
+                    d = arguments[3].execute(frame);
+            }
+            if (value instanceof LoxFunction function && !function.body().isEmpty()) {
+                if (function.arity() != count)
+                    throw Call.arityError(value, function.arity(), count);
+                trampoline.defer(function, a, b, c, d, args);
+                return LoxValue.Intern.NIL;
+            }
+            return Call.callOther(value, count, a, b, c, d, args);
+        }
+    }
+
+    public static final class GetProperty extends ExprNode {
+        private final ExprNode object;
+        private final Token name;
+
+        public GetProperty(ExprNode object, Token name) {
+            this.object = object;
+            this.name = name;
+        }
+
+        @Override
+        public LoxValue execute(Environment frame) {
+            if (!(object.execute(frame) instanceof LoxInstance instance))
+                throw new ExecutionException(String.format("The %s is not applicable to given object.", name));
+            try {
+                return instance.get(name);
+            } catch (LoxInstance.InstanceException ie) {
+                throw new ExecutionException(ie.getMessage());
+            }
+        }
+    }
+
+    public static final class SetProperty extends ExprNode {
+        private final ExprNode object;
+        private final Token name;
+        private final ExprNode value;
+
+        public SetProperty(ExprNode object, Token name, ExprNode value) {
+            this.object = object;
+            this.name = name;
+            this.value = value;
+        }
+
+        @Override
+        public LoxValue execute(Environment frame) {
+            if (!(object.execute(frame) instanceof LoxInstance instance))
+                throw new ExecutionException("Setting property on non object instance value.");
+            LoxValue v = value.execute(frame);
+            instance.set(name, v);
+            return v;
+        }
+    }
+
+    public static final class GetSuper extends ExprNode {
+        private final ExprNode superclass;
+        private final ExprNode receiver;
+        private final Token method;
+
+        public GetSuper(ExprNode superclass, ExprNode receiver, Token method) {
+            this.superclass = superclass;
+            this.receiver = receiver;
+            this.method = method;
+        }
+
+        @Override
+        public LoxValue execute(Environment frame) {
+            LoxClass superclass = (LoxClass) this.superclass.execute(frame);
+            LoxInstance object = (LoxInstance) receiver.execute(frame);
+            return superclass
+                .findMethod(method.symbol())
+                .orElseThrow(() -> new ExecutionException(String.format("Undefinted property '%s' of superclass.", method.lexeme())))
+                .bind(object);
+        }
+    }
+
+    /////////////////////////////
+    // Statements              //
+    /////////////////////////////
+    public static final class Discard extends StmtNode {
+        private final ExprNode expression;
+
+        public Discard(ExprNode expression) {
+            this.expression = expression;
+        }
+
+        @Override
+        public LoxValue execute(Environment frame) {
+            expression.execute(frame);
+            return null;
+        }
+    }
+
+    public static final class Print extends StmtNode {
+        private final ExprNode expression;
+
+        public Print(ExprNode expression) {
+            this.expression = expression;
+        }
+
+        @Override
+        public LoxValue execute(Environment frame) {
+            System.out.println(expression.execute(frame).toString());
+            return null;
+        }
+    }
+
+    public static final class DefineLocal extends StmtNode {
+        private final ExprNode value;
+
+        public DefineLocal(ExprNode value) {
+            this.value = value;
+        }
+
+        @Override
+        public LoxValue execute(Environment frame) {
+            frame.define(value.execute(frame));
+            return null;
+        }
+    }
+
+    public static final class DefineGlobal extends StmtNode {
+        private final Environment.Global global;
+        private final ExprNode value;
+
+        public DefineGlobal(Environment.Global global, ExprNode value) {
+            this.global = global;
+            this.value = value;
+        }
+
+        @Override
+        public LoxValue execute(Environment frame) {
+            global.define(value.execute(frame));
+            return null;
+        }
+    }
+
+    // Statements that share the frame they run in, a function body or the whole program.
+    public static final class Sequence extends StmtNode {
+        private final StmtNode[] statements;
+
+        public Sequence(StmtNode[] statements) {
+            this.statements = statements;
+        }
+
+        @Override
+        public LoxValue execute(Environment frame) {
+            for (StmtNode statement : statements) {
+                LoxValue result = statement.execute(frame);
+                if (result != null)
+                    return result;
+            }
+            return null;
+        }
+    }
+
+    public static final class Block extends StmtNode {
+        private final Sequence body;
+        private final Frames frames;
+
+        public Block(Sequence body, Frames frames) {
+            this.body = body;
+            this.frames = frames;
+        }
+
+        @Override
+        public LoxValue execute(Environment frame) {
+            Environment scope = frames.push(frame);
+            try {
+                return body.execute(scope);
+            } finally {
+                frames.pop();
+            }
+        }
+    }
+
+    public static final class If extends StmtNode {
+        private final ExprNode condition;
+        private final StmtNode thenBranch;
+        private final Optional<StmtNode> elseBranch;
+
+        public If(ExprNode condition, StmtNode thenBranch, Optional<StmtNode> elseBranch) {
+            this.condition = condition;
+            this.thenBranch = thenBranch;
+            this.elseBranch = elseBranch;
+        }
+
+        @Override
+        public LoxValue execute(Environment frame) {
+            if (isTruthy(condition.execute(frame)))
+                return thenBranch.execute(frame);
+            if (!elseBranch.isEmpty())
+                return elseBranch.get().execute(frame);
+            return null;
+        }
+    }
+
+    public static final class While extends StmtNode {
+        private final ExprNode condition;
+        private final StmtNode body;
+
+        public While(ExprNode condition, StmtNode body) {
+            this.condition = condition;
+            this.body = body;
+        }
+
+        @Override
+        public LoxValue execute(Environment frame) {
+            while (isTruthy(condition.execute(frame))) {
+                LoxValue result = body.execute(frame);
+                if (result != null)
+                    return result;
+            }
+            return null;
+        }
+    }
+
+    // Stmt.Counted, run the way the Interpreter runs it: the counter lives in a double and only goes back to
+    // its slot when the body reads it or the loop is done. When the counter or the limit isn't a number the
+    // loop carries on as a generic one, from the same body and the increment the Optimizer took out of it.
+    public static final class Counted extends StmtNode {
+        private final int depth;
+        private final int slot;
+        private final TokenType comparison;
+        private final ExprNode limit;
+        private final double step;
+        private final Sequence body;
+        private final boolean scoped;
+        private final boolean readsCounter;
+        private final ExprNode condition;
+        private final StmtNode increment;
+        // Whether the increment was in the body's scope or after it, see Optimizer.counted.
+        private final boolean incrementScoped;
+        private final Frames frames;
+
+        public Counted(Expr.Binding counter, Stmt.Counted loop, ExprNode limit, Sequence body,
+                ExprNode condition, StmtNode increment, boolean incrementScoped, Frames frames) {
+            this.depth = counter.depth();
+            this.slot = counter.slot();
+            this.comparison = loop.comparison();
+            this.limit = limit;
+            this.step = loop.step();
+            this.body = body;
+            this.scoped = loop.scoped();
+            this.readsCounter = loop.readsCounter();
+            this.condition = condition;
+            this.increment = increment;
+            this.incrementScoped = incrementScoped;
+            this.frames = frames;
+        }
+
+        @Override
+        public LoxValue execute(Environment frame) {
+            if (!(lookup(frame, depth, slot) instanceof LoxNum start))
+                return generic(frame);
+            double i = start.num();
+            Environment scope = scoped ? frames.push(frame) : frame;
+            try {
+                while (true) {
+                    double to;
+                    try {
+                        to = limit.executeNumber(frame);
+                    } catch (UnexpectedResultException e) {
+                        store(frame, i);
+                        return generic(frame);
+                    }
+                    boolean enter = switch (comparison) {
+                        case LESS -> i < to;
+                        case LESS_EQUAL -> i <= to;
+                        case GREATER -> i > to;
+                        default -> i >= to;
+                    };
+                    if (!enter)
+                        break;
+                    if (readsCounter)
+                        store(frame, i);
+                    if (scoped)
+                        scope.clear();
+                    LoxValue result = body.execute(scope);
+                    if (result != null)
+                        return result;
+                    i += step;
+                }
+            } finally {
+                if (scoped)
+                    frames.pop();
+            }
+            store(frame, i);
+            return null;
+        }
+
+        private LoxValue generic(Environment frame) {
+            while (isTruthy(condition.execute(frame))) {
+                Environment scope = scoped ? frames.push(frame) : frame;
+                try {
+                    LoxValue result = body.execute(scope);
+                    if (result != null)
+                        return result;
+                    increment.execute(incrementScoped ? scope : frame);
+                } finally {
+                    if (scoped)
+                        frames.pop();
+                }
+            }
+            return null;
+        }
+
+        private void store(Environment frame, double i) {
+            try {
+                frame.assignAt(depth, slot, new LoxNum(i));
+            } catch (EnvironmentException ee) {
+                throw new ExecutionException("Variable assigned before its definition.");
+            }
+        }
+    }
+
+    public static final class Return extends StmtNode {
+        private final ExprNode value;
+
+        public Return(ExprNode value) {
+            this.value = value;
+        }
+
+        @Override
+        public LoxValue execute(Environment frame) {
+            return value.execute(frame);
+        }
+    }
+
+    /////////////////////////////
+    // Functions and Classes   //
+    /////////////////////////////
+
+    // The call a TailCall left pending, one for every NodeEngine like the Interpreter's. Every Body
+    // call makes the pending calls one after the other instead of each inside the last, so tail
+    // recursion runs in constant stack.
+    public static final class Trampoline {
+        private LoxFunction function;
+        private LoxValue a, b, c, d;
+        private LoxValue[] arguments;
+
+        void defer(LoxFunction function, LoxValue a, LoxValue b, LoxValue c, LoxValue d, LoxValue[] arguments) {
+            this.function = function;
+            this.a = a;
+            this.b = b;
+            this.c = c;
+            this.d = d;
+            this.arguments = arguments;
+        }
+    }
+
+    // The frames of blocks, loops and calls, one stack for every NodeEngine like the Interpreter's pushFrame.
+    // Closures take the Upvalues of what they capture, so a frame is dead once it's left and the next push reuses it.
+    // Every push is paired with a pop in a finally.
+    public static final class Frames {
+        private Environment[] frames = new Environment[64];
+        private int top = 0;
+
+        Environment push(Environment enclosing) {
+            if (top == frames.length)
+                frames = Arrays.copyOf(frames, frames.length * 2);
+            Environment frame = frames[top];
+            if (frame == null) {
+                frame = new Environment(enclosing);
+                frames[top] = frame;
+            } else {
+                frame.reset(enclosing);
+            }
+            top++;
+            return frame;
+        }
+
+        void pop() {
+            frames[--top].release();
+        }
+    }
+
+    // The compiled body of a Stmt.Function, shared by every closure created from it.
+    // A runtime error ends the call only, as in LoxFunction: it's reported as an error
+    // in the function, the call returns nil and the caller carries on.
+    public static final class Body {
+        private final Sequence statements;
+        private final Trampoline trampoline;
+        private final Frames frames;
+        private final Lox lox;
+
+        public Body(Sequence statements, Trampoline trampoline, Frames frames, Lox lox) {
+            this.statements = statements;
+            this.trampoline = trampoline;
+            this.frames = frames;
+            this.lox = lox;
+        }
+
+        // The arguments as LoxFunction.invoke takes them, in arguments or up to four in a, b, c and d.
+        public LoxValue call(LoxFunction function, LoxValue a, LoxValue b, LoxValue c, LoxValue d, LoxValue[] arguments) {
+            LoxValue result = run(function, a, b, c, d, arguments);
+            return trampoline.function == null ? result : bounce();
+        }
+
+        private LoxValue bounce() {
+            LoxValue result;
+            do {
+                LoxFunction next = trampoline.function;
+                LoxValue a = trampoline.a, b = trampoline.b, c = trampoline.c, d = trampoline.d;
+                LoxValue[] args = trampoline.arguments;
+                trampoline.defer(null, null, null, null, null, null);
+                result = next.body().get().run(next, a, b, c, d, args);
+            } while (trampoline.function != null);
+            return result;
+        }
+
+        // One run of the body, a tail call it returns is still pending afterwards.
+        private LoxValue run(LoxFunction function, LoxValue a, LoxValue b, LoxValue c, LoxValue d, LoxValue[] arguments) {
+            LoxValue result = null;
+            try {
+                result = statements.execute(frame(function, a, b, c, d, arguments));
+            } catch (ExecutionException ee) {
+                Token name = function.declaration().name();
+                lox.error(name, String.format("Error in %s function call.", name.lexeme()));
+            } finally {
+                frames.pop();
+            }
+            if (function.isInitializer())
+                return lookup(function.closure(), 0, 0);
+            return result == null ? LoxValue.Intern.NIL : result;
+        }
+
+        // The frame of one run, pushed on top of the closure with the upvalues and the arguments in it.
+        private Environment frame(LoxFunction function, LoxValue a, LoxValue b, LoxValue c, LoxValue d, LoxValue[] arguments) {
+            Environment env = frames.push(function.closure());
+            env.bindUpvalues(function.upvalues());
+            if (arguments != null) {
+                for (LoxValue argument : arguments) {
+                    env.define(argument);
+                }
+                return env;
+            }
+            if (a != null)
+                env.define(a);
+            if (b != null)
+                env.define(b);
+            if (c != null)
+                env.define(c);
+            if (d != null)
+                env.define(d);
+            return env;
+        }
+    }
+
+    public static final class FunctionDecl extends StmtNode {
+        private final Stmt.Function declaration;
+        private final Body body;
+        private final Optional<Environment> globals;
+        private final Environment closure;
+
+        // Without globals the function lands in the next slot of the current frame.
+        public FunctionDecl(Stmt.Function declaration, Body body, Optional<Environment> globals, Environment closure) {
+            this.declaration = declaration;
+            this.body = body;
+            this.globals = globals;
+            this.closure = closure;
+        }
+
+        @Override
+        public LoxValue execute(Environment frame) {
+            Upvalue[] upvalues = frame.capture(declaration.scope().upvalues());
+            LoxFunction function = new LoxFunction(declaration, closure, upvalues, false, Optional.of(body));
+            if (globals.isEmpty()) {
+                frame.define(function);
+            } else {
+                globals.get().define(declaration.name().symbol(), function);
+            }
+            return null;
+        }
+    }
+
+    public static final class ClassDecl extends StmtNode {
+        private final Token name;
+        private final Optional<ExprNode> superclass;
+        private final List<Stmt.Function> methods;
+        private final List<Body> bodies;
+        private final Optional<Environment> globals;
+        private final Environment closure;
+
+        public ClassDecl(Token name, Optional<ExprNode> superclass, List<Stmt.Function> methods, List<Body> bodies, Optional<Environment> globals, Environment closure) {
+            this.name = name;
+            this.superclass = superclass;
+            this.methods = methods;
+            this.bodies = bodies;
+            this.globals = globals;
+            this.closure = closure;
+        }
+
+        @Override
+        public LoxValue execute(Environment frame) {
+            Optional<LoxClass> parent = Optional.empty();
+            if (!superclass.isEmpty()) {
+                if (!(superclass.get().execute(frame) instanceof LoxClass clazz))
+                    throw new ExecutionException("Superclass must be class.");
+                parent = Optional.of(clazz);
+            }
+
+            int slot = globals.isEmpty() ? frame.define(LoxValue.Intern.NIL) : -1;
+
+            Environment env = closure;
+            if (!parent.isEmpty()) {
+                env = new Environment(closure);
+                env.define(parent.get());
+            }
+
+            Map<Symbol, LoxFunction> table = new HashMap<>();
+            for (int i = 0; i < methods.size(); i++) {
+                Stmt.Function method = methods.get(i);
+                boolean isInitializer = method.name().symbol() == Symbol.INIT;
+                Upvalue[] upvalues = frame.capture(method.scope().upvalues());
+                table.put(method.name().symbol(), new LoxFunction(method, env, upvalues, isInitializer, Optional.of(bodies.get(i))));
+            }
+
+            LoxClass clazz = new LoxClass(name.lexeme(), parent, table);
+            try {
+                if (globals.isEmpty()) {
+                    frame.set(slot, clazz);
+                } else {
+                    globals.get().define(name.symbol(), clazz);
+                }
+            } catch (EnvironmentException ee) {
+                throw new ExecutionException(String.format("Error defining %s, maybe it's already declared.", name.lexeme()));
+            }
+            return null;
+        }
+    }
+}
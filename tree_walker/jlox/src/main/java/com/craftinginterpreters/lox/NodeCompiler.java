@@ -0,0 +1,263 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static com.craftinginterpreters.lox.Expr.*;
+import static com.craftinginterpreters.lox.Stmt.*;
+
+// Turns the resolved AST into a tree of Node, every decision the Interpreter takes
+// on each visit (operator, global or local, slot) is taken here once.
+public class NodeCompiler implements Stmt.Visitor<Node.StmtNode>, Expr.Visitor<Node.ExprNode> {
+    private final Environment globals;
+    // Where the functions report a runtime error that ended a call to them.
+    private final Lox lox;
+    private final Node.Trampoline trampoline;
+    private final Node.Frames frames;
+    // 0 at top level, where declarations go in the globals map.
+    private int scopeDepth = 0;
+
+    public NodeCompiler(Environment globals, Node.Trampoline trampoline, Node.Frames frames, Lox lox) {
+        this.globals = globals;
+        this.trampoline = trampoline;
+        this.frames = frames;
+        this.lox = lox;
+    }
+
+    public Node.Sequence compile(List<Stmt> statements) throws VisitException {
+        return sequence(statements);
+    }
+
+    private Node.StmtNode compile(Stmt stmt) throws VisitException {
+        return Stmt.accept(stmt, this);
+    }
+
+    private Node.ExprNode compile(Expr expr) throws VisitException {
+        return Expr.accept(expr, this);
+    }
+
+    private Node.Sequence sequence(List<Stmt> statements) throws VisitException {
+        Node.StmtNode[] nodes = new Node.StmtNode[statements.size()];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = compile(statements.get(i));
+        }
+        return new Node.Sequence(nodes);
+    }
+
+    private Optional<Environment> declarationTarget() {
+        return scopeDepth == 0 ? Optional.of(globals) : Optional.empty();
+    }
+
+    private Node.Body body(Function function) throws VisitException {
+        scopeDepth++;
+        try {
+            return new Node.Body(sequence(function.body()), trampoline, frames, lox);
+        } finally {
+            scopeDepth--;
+        }
+    }
+
+    private Node.ExprNode variable(Token name, Binding binding) {
+        if (binding.isGlobal())
+            return new Node.GetGlobal(globals.global(name.symbol()), name);
+        if (binding.isUpvalue())
+            return new Node.GetUpvalue(binding.upvalue());
+        return new Node.GetLocal(binding.depth(), binding.slot());
+    }
+
+    /////////////////////////////
+    // Expressions             //
+    /////////////////////////////
+    @Override
+    public Node.ExprNode visitBinaryExpr(Binary expr) throws VisitException {
+        Node.ExprNode left = compile(expr.left());
+        Node.ExprNode right = compile(expr.right());
+        return switch (expr.operator().type()) {
+            case PLUS -> new Node.Add(left, right);
+            case MINUS -> new Node.Subtract(left, right);
+            case STAR -> new Node.Multiply(left, right);
+            case SLASH -> new Node.Divide(left, right);
+            case LESS -> new Node.Less(left, right);
+            case LESS_EQUAL -> new Node.LessEqual(left, right);
+            case GREATER -> new Node.Greater(left, right);
+            case GREATER_EQUAL -> new Node.GreaterEqual(left, right);
+            case EQUAL_EQUAL -> new Node.Equal(left, right);
+            case BANG_EQUAL -> new Node.NotEqual(left, right);
+            default -> throw new VisitException(String.format("Unsupporte Operation: %s", expr.operator().toString()));
+        };
+    }
+
+    @Override
+    public Node.ExprNode visitGroupingExpr(Grouping expr) throws VisitException {
+        return compile(expr.expression());
+    }
+
+    @Override
+    public Node.ExprNode visitLiteralExpr(Literal expr) throws VisitException {
+        return new Node.Constant(expr.value());
+    }
+
+    @Override
+    public Node.ExprNode visitUnaryExpr(Unary expr) throws VisitException {
+        Node.ExprNode right = compile(expr.right());
+        return switch (expr.operator().type()) {
+            case MINUS -> new Node.Negate(right);
+            case BANG -> new Node.Not(right);
+            default -> throw new VisitException("Invalid Operator");
+        };
+    }
+
+    @Override
+    public Node.ExprNode visitVariableExpr(Variable expr) throws VisitException {
+        return variable(expr.name(), expr.binding());
+    }
+
+    @Override
+    public Node.ExprNode visitAssignExpr(Assign expr) throws VisitException {
+        Node.ExprNode value = compile(expr.value());
+        Binding binding = expr.binding();
+        if (binding.isGlobal())
+            return new Node.SetGlobal(globals.global(expr.name().symbol()), expr.name(), value);
+        if (binding.isUpvalue())
+            return new Node.SetUpvalue(binding.upvalue(), value);
+        return new Node.SetLocal(binding.depth(), binding.slot(), value);
+    }
+
+    @Override
+    public Node.ExprNode visitLogicalExpr(Logical expr) throws VisitException {
+        Node.ExprNode left = compile(expr.left());
+        Node.ExprNode right = compile(expr.right());
+        if (expr.operator().type() == TokenType.OR)
+            return new Node.Or(left, right);
+        return new Node.And(left, right);
+    }
+
+    @Override
+    public Node.ExprNode visitCallExpr(Call expr) throws VisitException {
+        return new Node.Call(compile(expr.callee()), arguments(expr));
+    }
+
+    private Node.ExprNode[] arguments(Call expr) throws VisitException {
+        Node.ExprNode[] arguments = new Node.ExprNode[expr.arguments().size()];
+        for (int i = 0; i < arguments.length; i++) {
+            arguments[i] = compile(expr.arguments().get(i));
+        }
+        return arguments;
+    }
+
+    @Override
+    public Node.ExprNode visitGetExpr(Get expr) throws VisitException {
+        return new Node.GetProperty(compile(expr.obj()), expr.name());
+    }
+
+    @Override
+    public Node.ExprNode visitSetExpr(Set expr) throws VisitException {
+        return new Node.SetProperty(compile(expr.obj()), expr.name(), compile(expr.value()));
+    }
+
+    @Override
+    public Node.ExprNode visitThisExpr(This expr) throws VisitException {
+        return variable(expr.keyword(), expr.binding());
+    }
+
+    @Override
+    public Node.ExprNode visitSuperExpr(Super expr) throws VisitException {
+        return new Node.GetSuper(variable(expr.keyword(), expr.binding()), variable(expr.keyword(), expr.receiver()), expr.method());
+    }
+
+    /////////////////////////////
+    // Statements              //
+    /////////////////////////////
+    @Override
+    public Node.StmtNode visitExpressionStmt(Expression stmt) throws VisitException {
+        return new Node.Discard(compile(stmt.expression()));
+    }
+
+    @Override
+    public Node.StmtNode visitPrintStmt(Print stmt) throws VisitException {
+        return new Node.Print(compile(stmt.expression()));
+    }
+
+    @Override
+    public Node.StmtNode visitVarStmt(Var stmt) throws VisitException {
+        Node.ExprNode value = new Node.Constant(LoxValue.Intern.NIL);
+        if (!stmt.initializer().isEmpty())
+            value = compile(stmt.initializer().get());
+
+        if (scopeDepth == 0)
+            return new Node.DefineGlobal(globals.global(stmt.name().symbol()), value);
+        return new Node.DefineLocal(value);
+    }
+
+    @Override
+    public Node.StmtNode visitBlockStmt(Block stmt) throws VisitException {
+        if (!stmt.scoped())
+            return sequence(stmt.statements());
+        scopeDepth++;
+        try {
+            return new Node.Block(sequence(stmt.statements()), frames);
+        } finally {
+            scopeDepth--;
+        }
+    }
+
+    @Override
+    public Node.StmtNode visitIfStmt(If stmt) throws VisitException {
+        Optional<Node.StmtNode> elseBranch = Optional.empty();
+        if (!stmt.elseBranch().isEmpty())
+            elseBranch = Optional.of(compile(stmt.elseBranch().get()));
+        return new Node.If(compile(stmt.condition()), compile(stmt.thenBranch()), elseBranch);
+    }
+
+    @Override
+    public Node.StmtNode visitWhileStmt(While stmt) throws VisitException {
+        if (stmt.counted().isEmpty())
+            return new Node.While(compile(stmt.condition()), compile(stmt.body()));
+        // The body is only compiled once, the generic loop runs it followed by the increment, the
+        // last statement of the loop's block. An assignment, so the scope depth doesn't matter to it.
+        Counted loop = stmt.counted().get();
+        Block block = (Block) stmt.body();
+        Node.StmtNode increment = compile(block.statements().get(block.statements().size() - 1));
+        Node.Sequence body;
+        if (loop.scoped())
+            scopeDepth++;
+        try {
+            body = sequence(loop.body());
+        } finally {
+            if (loop.scoped())
+                scopeDepth--;
+        }
+        return new Node.Counted(loop.counter().binding(), loop, compile(loop.limit()), body,
+            compile(stmt.condition()), increment, block.scoped(), frames);
+    }
+
+    @Override
+    public Node.StmtNode visitFunctionStmt(Function stmt) throws VisitException {
+        Optional<Environment> target = declarationTarget();
+        return new Node.FunctionDecl(stmt, body(stmt), target, globals);
+    }
+
+    @Override
+    public Node.StmtNode visitReturnStmt(Return stmt) throws VisitException {
+        if (stmt.value().isEmpty())
+            return new Node.Return(new Node.Constant(LoxValue.Intern.NIL));
+        if (stmt.tail().isMarked() && stmt.value().get() instanceof Call call)
+            return new Node.Return(new Node.TailCall(compile(call.callee()), arguments(call), trampoline));
+        return new Node.Return(compile(stmt.value().get()));
+    }
+
+    @Override
+    public Node.StmtNode visitClassStmt(Stmt.Class stmt) throws VisitException {
+        Optional<Environment> target = declarationTarget();
+        Optional<Node.ExprNode> superclass = Optional.empty();
+        if (!stmt.superclass().isEmpty())
+            superclass = Optional.of(compile(stmt.superclass().get()));
+
+        List<Node.Body> bodies = new ArrayList<>();
+        for (Function method : stmt.methods()) {
+            bodies.add(body(method));
+        }
+        return new Node.ClassDecl(stmt.name(), superclass, stmt.methods(), bodies, target, globals);
+    }
+}
@@ -0,0 +1,25 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+// Runs programs as Node trees, the globals survive across run() calls like in the Interpreter.
+public class NodeEngine {
+    private final Lox lox;
+    private final Environment globals = new Environment();
+    // Both shared by everything the engine compiles, whichever run() it came from.
+    private final Node.Trampoline trampoline = new Node.Trampoline();
+    private final Node.Frames frames = new Node.Frames();
+
+    public NodeEngine(Lox lox) {
+        this.lox = lox;
+    }
+
+    public void interpret(List<Stmt> statements) throws VisitException {
+        Node.Sequence program = new NodeCompiler(globals, trampoline, frames, lox).compile(statements);
+        try {
+            program.execute(globals);
+        } catch (Node.ExecutionException e) {
+            throw new VisitException(e.getMessage());
+        }
+    }
+}
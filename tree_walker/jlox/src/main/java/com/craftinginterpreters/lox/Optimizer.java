@@ -0,0 +1,465 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import com.craftinginterpreters.lox.Expr.Get;
+import com.craftinginterpreters.lox.Expr.Set;
+import com.craftinginterpreters.lox.Expr.Super;
+import com.craftinginterpreters.lox.Expr.This;
+
+import static com.craftinginterpreters.lox.TokenType.*;
+import static com.craftinginterpreters.lox.Expr.*;
+import static com.craftinginterpreters.lox.Stmt.*;
+
+// Rewrites the resolved program before any engine sees it. The passes run one after the other
+// over the whole tree, each can be switched off on its own and counts what it changed.
+// Only what would succeed at runtime is folded, anything that would fail is left for the engine to report.
+// Rebuilt nodes keep their Binding, InlineCache, Profile and Scope, the program must be resolved again
+// once something changed because elided scopes move variables to a smaller depth.
+public class Optimizer implements Stmt.Visitor<Stmt>, Expr.Visitor<Expr> {
+    public static enum Pass {
+        FOLD("fold"), DEAD_BRANCHES("dead-branches"), GROUPING("grouping"), SCOPES("scopes"), COUNTED_LOOPS("counted-loops");
+
+        private final String flag;
+
+        Pass(String flag) {
+            this.flag = flag;
+        }
+
+        public String flag() {
+            return flag;
+        }
+
+        public static Optional<Pass> fromFlag(String flag) {
+            for (Pass pass : values()) {
+                if (pass.flag.equals(flag))
+                    return Optional.of(pass);
+            }
+            return Optional.empty();
+        }
+    }
+
+    private final java.util.Set<Pass> enabled;
+    private final Map<Pass, Integer> changes = new EnumMap<>(Pass.class);
+    private Pass pass;
+
+    public Optimizer(java.util.Set<Pass> enabled) {
+        this.enabled = enabled;
+        for (Pass pass : Pass.values()) {
+            changes.put(pass, 0);
+        }
+    }
+
+    public List<Stmt> optimize(List<Stmt> program) {
+        for (Pass pass : Pass.values()) {
+            if (!enabled.contains(pass))
+                continue;
+            this.pass = pass;
+            program = optimizeAll(program);
+        }
+        return program;
+    }
+
+    public boolean changed() {
+        for (int count : changes.values()) {
+            if (count > 0)
+                return true;
+        }
+        return false;
+    }
+
+    public int changes(Pass pass) {
+        return changes.get(pass);
+    }
+
+    public String report() {
+        StringBuilder report = new StringBuilder("Optimizer:");
+        for (Pass pass : Pass.values()) {
+            report.append(String.format(" %s %s", pass.flag(), enabled.contains(pass) ? changes.get(pass) : "off"));
+        }
+        return report.toString();
+    }
+
+    private void count() {
+        changes.merge(pass, 1, Integer::sum);
+    }
+
+    private List<Stmt> optimizeAll(List<Stmt> stmts) {
+        List<Stmt> result = new ArrayList<>();
+        for (Stmt stmt : stmts) {
+            Stmt optimized = optimize(stmt);
+            // A block without a scope of its own is just its statements.
+            if (pass == Pass.SCOPES && optimized instanceof Block block && !block.scoped()) {
+                result.addAll(block.statements());
+            } else {
+                result.add(optimized);
+            }
+        }
+        if (pass == Pass.COUNTED_LOOPS) {
+            for (int i = 1; i < result.size(); i++) {
+                if (!(result.get(i - 1) instanceof Var var) || !(result.get(i) instanceof While loop))
+                    continue;
+                Optional<Counted> counted = counted(var, loop);
+                if (!counted.isEmpty()) {
+                    count();
+                    result.set(i, new While(loop.condition(), loop.body(), counted));
+                }
+            }
+        }
+        return result;
+    }
+
+    // The declaration has to come right before the loop, otherwise a function declared
+    // in between could capture the counter and change it behind the loop's back.
+    private static Optional<Counted> counted(Var var, While loop) {
+        Symbol name = var.name().symbol();
+        if (!(loop.condition() instanceof Binary condition)
+                || !(condition.left() instanceof Variable counter)
+                || counter.name().symbol() != name
+                || counter.binding().isGlobal())
+            return Optional.empty();
+        TokenType comparison = condition.operator().type();
+        if (comparison != LESS && comparison != LESS_EQUAL && comparison != GREATER && comparison != GREATER_EQUAL)
+            return Optional.empty();
+        // The limit is evaluated again on every iteration, it just mustn't have side effects.
+        boolean pure = condition.right() instanceof Literal
+            || (condition.right() instanceof Variable limit && limit.name().symbol() != name);
+        if (!pure || !(loop.body() instanceof Block body) || body.statements().isEmpty())
+            return Optional.empty();
+
+        List<Stmt> statements = body.statements();
+        if (!(statements.get(statements.size() - 1) instanceof Expression increment)
+                || !(increment.expression() instanceof Assign assign)
+                || assign.name().symbol() != name
+                || !(assign.value() instanceof Binary step)
+                || !(step.left() instanceof Variable self)
+                || self.name().symbol() != name
+                || !(step.right() instanceof Literal literal)
+                || !(literal.value() instanceof LoxNum delta)
+                || (step.operator().type() != PLUS && step.operator().type() != MINUS))
+            return Optional.empty();
+
+        List<Stmt> rest = statements.subList(0, statements.size() - 1);
+        Usage usage = new Usage(name);
+        for (Stmt stmt : rest) {
+            usage.scan(stmt);
+        }
+        if (usage.assigns || usage.captures)
+            return Optional.empty();
+
+        boolean scoped = body.scoped();
+        // The body of a desugared for is a block of its own, running it in the loop's frame saves one per iteration.
+        if (!scoped && rest.size() == 1 && rest.get(0) instanceof Block inner) {
+            scoped = inner.scoped();
+            rest = inner.statements();
+        }
+        double by = step.operator().type() == PLUS ? delta.num() : -delta.num();
+        return Optional.of(new Counted(counter, comparison, condition.right(), by, List.copyOf(rest), scoped, usage.reads));
+    }
+
+    // What a loop body does with a name. A local shadowing the counter matches as well, which only makes the check stricter.
+    private static final class Usage {
+        private final Symbol name;
+        private boolean reads = false;
+        private boolean assigns = false;
+        private boolean captures = false;
+
+        private Usage(Symbol name) {
+            this.name = name;
+        }
+
+        private void scan(Stmt stmt) {
+            switch (stmt) {
+                case Expression s -> scan(s.expression());
+                case Print s -> scan(s.expression());
+                case Var s -> s.initializer().ifPresent(this::scan);
+                case Block s -> s.statements().forEach(this::scan);
+                case If s -> {
+                    scan(s.condition());
+                    scan(s.thenBranch());
+                    s.elseBranch().ifPresent(this::scan);
+                }
+                case While s -> {
+                    scan(s.condition());
+                    scan(s.body());
+                }
+                case Return s -> s.value().ifPresent(this::scan);
+                case Function s -> captures = true;
+                case Stmt.Class s -> captures = true;
+            }
+        }
+
+        private void scan(Expr expr) {
+            switch (expr) {
+                case Binary e -> {
+                    scan(e.left());
+                    scan(e.right());
+                }
+                case Grouping e -> scan(e.expression());
+                case Literal e -> {}
+                case Unary e -> scan(e.right());
+                case Variable e -> reads |= e.name().symbol() == name;
+                case Assign e -> {
+                    assigns |= e.name().symbol() == name;
+                    scan(e.value());
+                }
+                case Logical e -> {
+                    scan(e.left());
+                    scan(e.right());
+                }
+                case Call e -> {
+                    scan(e.callee());
+                    e.arguments().forEach(this::scan);
+                }
+                case Get e -> scan(e.obj());
+                case Set e -> {
+                    scan(e.obj());
+                    scan(e.value());
+                }
+                case This e -> {}
+                case Super e -> {}
+            }
+        }
+    }
+
+    private List<Expr> optimizeArguments(List<Expr> exprs) {
+        List<Expr> result = new ArrayList<>();
+        for (Expr expr : exprs) {
+            result.add(optimize(expr));
+        }
+        return result;
+    }
+
+    private Stmt optimize(Stmt stmt) {
+        try {
+            return Stmt.accept(stmt, this);
+        } catch (VisitException e) {
+            // Nothing in here throws, the engines report what can't be folded.
+            return stmt;
+        }
+    }
+
+    private Expr optimize(Expr expr) {
+        try {
+            return Expr.accept(expr, this);
+        } catch (VisitException e) {
+            return expr;
+        }
+    }
+
+    private Optional<Expr> optimize(Optional<Expr> expr) {
+        if (expr.isEmpty())
+            return expr;
+        return Optional.of(optimize(expr.get()));
+    }
+
+    private static boolean isTruthy(LoxValue value) {
+        return value != LoxValue.Intern.NIL && value != LoxValue.Intern.FALSE;
+    }
+
+    private static boolean declares(List<Stmt> stmts) {
+        for (Stmt stmt : stmts) {
+            if (stmt instanceof Var || stmt instanceof Function || stmt instanceof Stmt.Class)
+                return true;
+        }
+        return false;
+    }
+
+    ////////////////
+    // Expression //
+    ////////////////
+    @Override
+    public Expr visitBinaryExpr(Binary expr) {
+        Expr left = optimize(expr.left());
+        Expr right = optimize(expr.right());
+        if (pass == Pass.FOLD && left instanceof Literal l && right instanceof Literal r) {
+            Optional<LoxValue> folded = fold(expr.operator().type(), l.value(), r.value());
+            if (!folded.isEmpty()) {
+                count();
+                return new Literal(folded.get());
+            }
+        }
+        return new Binary(left, expr.operator(), right);
+    }
+
+    // Same results as Interpreter.visitBinaryExpr, empty where it would raise an error.
+    private static Optional<LoxValue> fold(TokenType operator, LoxValue left, LoxValue right) {
+        if (operator == EQUAL_EQUAL)
+            return Optional.of(LoxValue.Intern.fromBool(left.equals(right)));
+        if (operator == BANG_EQUAL)
+            return Optional.of(LoxValue.Intern.fromBool(!left.equals(right)));
+        if (operator == PLUS && left instanceof LoxStr l && right instanceof LoxStr r)
+            return Optional.of(new LoxStr(String.format("%s%s", l.str(), r.str())));
+        if (operator == PLUS && left instanceof LoxStr l && right instanceof LoxNum r)
+            return Optional.of(new LoxStr(String.format("%s%f", l.str(), r.num())));
+        if (!(left instanceof LoxNum l) || !(right instanceof LoxNum r))
+            return Optional.empty();
+        return switch (operator) {
+            case PLUS -> Optional.of(new LoxNum(l.num() + r.num()));
+            case MINUS -> Optional.of(new LoxNum(l.num() - r.num()));
+            case STAR -> Optional.of(new LoxNum(l.num() * r.num()));
+            case SLASH -> Optional.of(new LoxNum(l.num() / r.num()));
+            case LESS -> Optional.of(LoxValue.Intern.fromBool(l.num() < r.num()));
+            case LESS_EQUAL -> Optional.of(LoxValue.Intern.fromBool(l.num() <= r.num()));
+            case GREATER -> Optional.of(LoxValue.Intern.fromBool(l.num() > r.num()));
+            case GREATER_EQUAL -> Optional.of(LoxValue.Intern.fromBool(l.num() >= r.num()));
+            default -> Optional.empty();
+        };
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Grouping expr) {
+        Expr inner = optimize(expr.expression());
+        // Folding sees through a parenthesized constant even when the grouping pass is off.
+        if (pass == Pass.GROUPING || (pass == Pass.FOLD && inner instanceof Literal)) {
+            count();
+            return inner;
+        }
+        return new Grouping(inner);
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Literal expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Unary expr) {
+        Expr right = optimize(expr.right());
+        if (pass == Pass.FOLD && right instanceof Literal literal) {
+            if (expr.operator().type() == BANG) {
+                count();
+                return new Literal(LoxValue.Intern.fromBool(!isTruthy(literal.value())));
+            }
+            if (expr.operator().type() == MINUS && literal.value() instanceof LoxNum n) {
+                count();
+                return new Literal(new LoxNum(-n.num()));
+            }
+        }
+        return new Unary(expr.operator(), right);
+    }
+
+    @Override
+    public Expr visitVariableExpr(Variable expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitAssignExpr(Assign expr) {
+        return new Assign(expr.name(), optimize(expr.value()), expr.binding());
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Logical expr) {
+        Expr left = optimize(expr.left());
+        Expr right = optimize(expr.right());
+        // 'and' and 'or' yield one of their operands, with a constant left side it's known which.
+        if (pass == Pass.FOLD && left instanceof Literal l) {
+            count();
+            boolean shortCircuits = expr.operator().type() == OR ? isTruthy(l.value()) : !isTruthy(l.value());
+            return shortCircuits ? left : right;
+        }
+        return new Logical(left, expr.operator(), right);
+    }
+
+    @Override
+    public Expr visitCallExpr(Call expr) {
+        return new Call(optimize(expr.callee()), expr.paren(), optimizeArguments(expr.arguments()), expr.cache());
+    }
+
+    @Override
+    public Expr visitGetExpr(Get expr) {
+        return new Get(optimize(expr.obj()), expr.name(), expr.cache());
+    }
+
+    @Override
+    public Expr visitSetExpr(Set expr) {
+        return new Set(optimize(expr.obj()), expr.name(), optimize(expr.value()), expr.cache());
+    }
+
+    @Override
+    public Expr visitThisExpr(This expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitSuperExpr(Super expr) {
+        return expr;
+    }
+
+    ////////////////
+    // Statement  //
+    ////////////////
+    @Override
+    public Stmt visitExpressionStmt(Expression stmt) {
+        return new Expression(optimize(stmt.expression()));
+    }
+
+    @Override
+    public Stmt visitPrintStmt(Print stmt) {
+        return new Print(optimize(stmt.expression()));
+    }
+
+    @Override
+    public Stmt visitVarStmt(Var stmt) {
+        return new Var(stmt.name(), optimize(stmt.initializer()));
+    }
+
+    @Override
+    public Stmt visitBlockStmt(Block stmt) {
+        List<Stmt> statements = optimizeAll(stmt.statements());
+        // Nothing declared means nobody needs the Environment the block would allocate.
+        if (pass == Pass.SCOPES && stmt.scoped() && !declares(statements)) {
+            count();
+            return new Block(statements, false);
+        }
+        return new Block(statements, stmt.scoped());
+    }
+
+    @Override
+    public Stmt visitIfStmt(If stmt) {
+        Expr condition = optimize(stmt.condition());
+        Stmt thenBranch = optimize(stmt.thenBranch());
+        Optional<Stmt> elseBranch = stmt.elseBranch().isEmpty() ? Optional.empty() : Optional.of(optimize(stmt.elseBranch().get()));
+        if (pass == Pass.DEAD_BRANCHES && condition instanceof Literal literal) {
+            count();
+            if (isTruthy(literal.value()))
+                return thenBranch;
+            return elseBranch.orElse(new Block(List.of(), false));
+        }
+        return new If(condition, thenBranch, elseBranch);
+    }
+
+    @Override
+    public Stmt visitWhileStmt(While stmt) {
+        Expr condition = optimize(stmt.condition());
+        if (pass == Pass.DEAD_BRANCHES && condition instanceof Literal literal && !isTruthy(literal.value())) {
+            count();
+            return new Block(List.of(), false);
+        }
+        return new While(condition, optimize(stmt.body()));
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Function stmt) {
+        return new Function(stmt.name(), stmt.params(), optimizeAll(stmt.body()), stmt.profile(), stmt.scope());
+    }
+
+    @Override
+    public Stmt visitReturnStmt(Return stmt) {
+        return new Return(stmt.keyword(), optimize(stmt.value()), stmt.tail());
+    }
+
+    @Override
+    public Stmt visitClassStmt(Stmt.Class stmt) {
+        List<Function> methods = new ArrayList<>();
+        for (Function method : stmt.methods()) {
+            methods.add((Function) visitFunctionStmt(method));
+        }
+        return new Stmt.Class(stmt.name(), stmt.superclass(), methods);
+    }
+}
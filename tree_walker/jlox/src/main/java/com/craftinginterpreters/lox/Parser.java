@@ -9,6 +9,7 @@ import java.util.Optional;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.function.Consumer;
 
 public class Parser {
     private static class ParseException extends Exception {}
@@ -17,36 +18,59 @@ public class Parser {
     }
 
     private final Lox lox;
-    private final Iterator<Token> tokens;
-    private Token current;
-    private Token previous;
+    private final TokenCursor tokens;
     private boolean exhausted = false;
 
     public Parser(Lox lox, List<Token> tokens) {
+        this(lox, tokens.iterator());
+    }
+
+    // Tokens are only taken as the parse gets to them, they can still be being lexed.
+    public Parser(Lox lox, Iterator<Token> tokens) {
+        this(lox, TokenCursor.of(tokens));
+    }
+
+    public Parser(Lox lox, TokenCursor tokens) {
         this.lox = lox;
-        this.tokens = tokens.iterator();
-        current = this.tokens.next();
+        this.tokens = tokens;
     }
 
     //////////////////////////
     // Parsing Verbs - LALR //
     //////////////////////////
     public List<Stmt> parse() {
+        List<Stmt> statements = new ArrayList<>();
+        if (!parse(statements::add))
+            return Collections.emptyList();
+        return List.<Stmt>copyOf(statements);
+    }
+
+    // Same as parse, but every declaration goes into the FlatAst as soon as it's parsed,
+    // so the records of the whole program are never alive at once.
+    public FlatAst parseFlat() {
+        FlatAst program = new FlatAst();
+        if (!parse(program::add))
+            return new FlatAst();
+        program.trim();
+        return program;
+    }
+
+    // Hands each declaration over as it's parsed, false when the parse failed.
+    private boolean parse(Consumer<Stmt> declarations) {
         if (exhausted) {
             throw new IllegalStateException("Parser already consumed");
         }
-        List<Stmt> statements = new ArrayList<>();
         try {
             while (!isAtEnd()) {
-                statements.add(declaration());
+                declarations.accept(declaration());
             }
         } catch(ParseException pe) {
             synchronize();
-            return Collections.emptyList();
+            return false;
         } finally {
             exhausted = true;
         }
-        return List.<Stmt>copyOf(statements);
+        return true;
     }
 
     private Stmt declaration() throws ParseException {
@@ -62,24 +86,24 @@ public class Parser {
         Optional<Variable> superclass = Optional.empty();
         Token name = consume(IDENTIFIER, "Expect class name after 'class'.");
         if (match(LESS)) {
-            consume(IDENTIFIER, "Expect superclass name.");
-            superclass = Optional.of(new Variable(previous));
+            expect(IDENTIFIER, "Expect superclass name.");
+            superclass = Optional.of(new Variable(previous()));
         }
 
-        consume(LEFT_BRACE, "Expect '{' before class body.");
+        expect(LEFT_BRACE, "Expect '{' before class body.");
         List<Function> methods = new ArrayList<>();
         while(!check(RIGHT_BRACE) && !isAtEnd()) {
             methods.add(function(CallableKind.CLASS));
         }
 
-        consume(RIGHT_BRACE, "Expect '}' after class body.");
+        expect(RIGHT_BRACE, "Expect '}' after class body.");
 
         return new Stmt.Class(name, superclass, methods);
     }
 
     private Function function(CallableKind kind) throws ParseException {
         Token name = consume(IDENTIFIER, String.format("Expect %s name.", kind));
-        consume(LEFT_PAREN, String.format("Expect '(' after %s name.", kind));
+        expect(LEFT_PAREN, String.format("Expect '(' after %s name.", kind));
         List<Token> parameters = new ArrayList<>();
         if(!check(RIGHT_PAREN)) {
             do {
@@ -89,9 +113,9 @@ public class Parser {
                 parameters.add(consume(IDENTIFIER, "Expect parameter name."));
             } while(match(COMMA));
         }
-        consume(RIGHT_PAREN, "Expect ')' after parameters.");
+        expect(RIGHT_PAREN, "Expect ')' after parameters.");
 
-        consume(LEFT_BRACE, String.format("Expect '{' before %s body.", kind));
+        expect(LEFT_BRACE, String.format("Expect '{' before %s body.", kind));
         List<Stmt> body = block();
 
         return new Function(name,
@@ -105,14 +129,14 @@ public class Parser {
         if (match(EQUAL)) {
             initializer = Optional.of(expression());
         }
-        consume(SEMICOLON, "Expect ';' after variable declaration.");
+        expect(SEMICOLON, "Expect ';' after variable declaration.");
         return new Var(name, initializer);
     }
 
     private Stmt whileStatement() throws ParseException {
-        consume(LEFT_PAREN, "Expect '(' after 'while'.");
+        expect(LEFT_PAREN, "Expect '(' after 'while'.");
         Expr condition = expression();
-        consume(RIGHT_PAREN, "Expect ')' after 'while (condition'.");
+        expect(RIGHT_PAREN, "Expect ')' after 'while (condition'.");
         Stmt body = statement();
 
         return new While(condition, body);
@@ -130,7 +154,7 @@ public class Parser {
     }
 
     private Stmt forStatement() throws ParseException {
-        consume(LEFT_PAREN, "Expect '(' after 'for'.");
+        expect(LEFT_PAREN, "Expect '(' after 'for'.");
         Optional<Stmt> initializer = Optional.empty();
         if (match(SEMICOLON))
             initializer = Optional.empty();
@@ -143,12 +167,12 @@ public class Parser {
         if (!check(SEMICOLON)) {
             condition = expression();
         }
-        consume(SEMICOLON, "Expect ';' after 'for (init?; cond '.");
+        expect(SEMICOLON, "Expect ';' after 'for (init?; cond '.");
         Optional<Expr> increment = Optional.empty();
         if (!check(RIGHT_PAREN)) {
             increment = Optional.of(expression());
         }
-        consume(RIGHT_PAREN, "Expect ')' after 'for (init?; cond?; incr?'.");
+        expect(RIGHT_PAREN, "Expect ')' after 'for (init?; cond?; incr?'.");
         Stmt body = statement();
 
 
@@ -164,9 +188,9 @@ public class Parser {
     }
 
     private Stmt ifStatement() throws ParseException {
-        consume(LEFT_PAREN, "Expect '(' after 'if'. ");
+        expect(LEFT_PAREN, "Expect '(' after 'if'. ");
         Expr condition = expression();
-        consume(RIGHT_PAREN, "Expect ')' after 'if' condition. ");
+        expect(RIGHT_PAREN, "Expect ')' after 'if' condition. ");
         Stmt thenBranch = statement();
         Optional<Stmt> elseBranch = Optional.empty();
         if (match(ELSE)) {
@@ -178,24 +202,24 @@ public class Parser {
 
     private Stmt printStatement() throws ParseException {
        Expr value = expression();
-       consume(SEMICOLON, "Expect ';' after value.");
+       expect(SEMICOLON, "Expect ';' after value.");
        return new Print(value);
     }
 
     private Stmt returnStatement() throws ParseException {
-        Token keyword = previous;
+        Token keyword = previous();
         Optional<Expr> value = Optional.empty();
         if (!check(SEMICOLON)) {
             value = Optional.of(expression());
         }
-        consume(SEMICOLON, "Expecte ';' after return value.");
+        expect(SEMICOLON, "Expecte ';' after return value.");
 
         return new Return(keyword, value);
     }
 
     private Stmt expressionStatement() throws ParseException {
         Expr expr = expression();
-        consume(SEMICOLON, "Expect ';' after value.");
+        expect(SEMICOLON, "Expect ';' after value.");
         return new Expression(expr);
     }
 
@@ -204,7 +228,7 @@ public class Parser {
         while (!check(RIGHT_BRACE) && !isAtEnd()) {
             statements.add(declaration());
         }
-        consume(RIGHT_BRACE, "Expect '}' after block.");
+        expect(RIGHT_BRACE, "Expect '}' after block.");
         return List.<Stmt>copyOf(statements);
 
     }
@@ -216,7 +240,7 @@ public class Parser {
     private Expr assignment() throws ParseException {
         Expr expr = or();
         if (match(EQUAL)) {
-            Token equals = previous;
+            Token equals = previous();
             Expr value = assignment();
 
             if(expr instanceof Variable v) {
@@ -234,7 +258,7 @@ public class Parser {
     private Expr or() throws ParseException {
         Expr expr = and();
         while(match(OR)) {
-            Token operator = previous;
+            Token operator = previous();
             Expr right = and();
             expr = new Logical(expr, operator, right);
         }
@@ -245,7 +269,7 @@ public class Parser {
     private Expr and() throws ParseException {
         Expr expr = equality();
         while(match(AND)) {
-            Token operator = previous;
+            Token operator = previous();
             Expr right = equality();
             expr = new Logical(expr, operator, right);
         }
@@ -257,7 +281,7 @@ public class Parser {
         Expr expr = comparison();
 
         while(match(BANG_EQUAL, EQUAL_EQUAL)) {
-            Token operator = previous;
+            Token operator = previous();
             Expr right = comparison();
             expr = new Binary(expr, operator, right);
         }
@@ -269,7 +293,7 @@ public class Parser {
         Expr expr = term();
 
         while (match(GREATER, GREATER_EQUAL, LESS, LESS_EQUAL)) {
-            Token operator = previous;
+            Token operator = previous();
             Expr right = term();
             expr = new Binary(expr, operator, right);
         }
@@ -281,7 +305,7 @@ public class Parser {
         Expr expr = factor();
 
         while (match(PLUS, MINUS)) {
-            Token operator = previous;
+            Token operator = previous();
             Expr right = factor();
             expr = new Binary(expr, operator, right);
         }
@@ -293,7 +317,7 @@ public class Parser {
         Expr expr = unary();
 
         while (match(SLASH, STAR)) {
-            Token operator = previous;
+            Token operator = previous();
             Expr right = unary();
             expr = new Binary(expr, operator, right);
         }
@@ -303,7 +327,7 @@ public class Parser {
 
     private Expr unary() throws ParseException {
         if (match(BANG, MINUS)) {
-            Token operator = previous;
+            Token operator = previous();
             Expr right = unary();
             return new Unary(operator, right);
         }
@@ -351,24 +375,24 @@ public class Parser {
             return new Literal(LoxValue.Intern.NIL);
 
         if (match(NUMBER, STRING))
-            return new Literal(previous.literal().get());
+            return new Literal(tokens.previousLiteral());
 
         if(match(SUPER)) {
-            Token keyword = previous;
-            consume(DOT, "Expect '.' after 'super'.");
+            Token keyword = previous();
+            expect(DOT, "Expect '.' after 'super'.");
             Token method = consume(IDENTIFIER, "Expect superclass method name.");
             return new Super(keyword, method);
         }
 
         if(match(THIS))
-            return new This(previous);
+            return new This(previous());
 
         if (match(IDENTIFIER))
-            return new Variable(previous);
+            return new Variable(previous());
 
         if (match(LEFT_PAREN)) {
            Expr expr = expression();
-           consume(RIGHT_PAREN, "Expecte ')' after expression.");
+           expect(RIGHT_PAREN, "Expecte ')' after expression.");
            return new Grouping(expr);
         }
 
@@ -391,30 +415,35 @@ public class Parser {
 
     private boolean check(TokenType type) {
         if (isAtEnd()) return false;
-        return peek().type() == type;
+        return tokens.type() == type;
     }
 
-    private Token advance() {
-        if (!tokens.hasNext())
-            throw new IllegalStateException("Nothing to consume, parse goes out of bound.");
-        if (!isAtEnd()) {
-            previous = current;
-            current = tokens.next();
-        }
-        return previous;
+    private void advance() {
+        tokens.advance();
     }
 
     private boolean isAtEnd() {
-        return current.type() == EOF;
+        return tokens.type() == EOF;
     }
 
     private Token peek() {
-        return current;
+        return tokens.current();
+    }
+
+    private Token previous() {
+        return tokens.previous();
     }
 
     private Token consume(TokenType type, String message) throws ParseException {
-        if (check(type)) return advance();
-        throw error(peek(), message);
+        expect(type, message);
+        return previous();
+    }
+
+    // Same as consume, for the tokens that don't end up in the tree.
+    private void expect(TokenType type, String message) throws ParseException {
+        if (!check(type))
+            throw error(peek(), message);
+        advance();
     }
 
     /////////////////////////////
@@ -430,10 +459,10 @@ public class Parser {
             advance();
 
             while (!isAtEnd()) {
-                if (previous.type() == SEMICOLON)
+                if (tokens.previousType() == SEMICOLON)
                     return;
 
-                switch (peek().type()) {
+                switch (tokens.type()) {
                     case CLASS:
                     case FUN:
                     case VAR:
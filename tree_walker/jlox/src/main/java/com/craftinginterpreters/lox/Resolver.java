@@ -1,5 +1,6 @@
 package com.craftinginterpreters.lox;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -18,7 +19,8 @@ import static com.craftinginterpreters.lox.Stmt.*;
 
 public class Resolver implements Stmt.Visitor<Void>, Expr.Visitor<Void> {
     private final Interpreter interpreter;
-    private final Deque<Map<String, Boolean>> scopes = new ArrayDeque<>();
+    private final Deque<Map<Symbol, Local>> scopes = new ArrayDeque<>();
+    private Closure closure = new Closure(0, null);
     private FunctionType currentFunction = FunctionType.NONE;
     private ClassType currentClass = ClassType.NONE;
 
@@ -26,6 +28,30 @@ public class Resolver implements Stmt.Visitor<Void>, Expr.Visitor<Void> {
         this.interpreter = interpreter;
     }
 
+    // A local gets the next free slot of its scope when declared, the same
+    // order in which the Interpreter will define it at runtime.
+    private static final class Local {
+        private final int slot;
+        private boolean defined = false;
+
+        private Local(int slot) {
+            this.slot = slot;
+        }
+    }
+
+    // The function being resolved, the top level being the outermost one. Scopes from base
+    // up are its own, any local found below base is reached through one of its upvalues.
+    private static final class Closure {
+        private final int base;
+        private final Closure enclosing;
+        private final List<Capture> upvalues = new ArrayList<>();
+
+        private Closure(int base, Closure enclosing) {
+            this.base = base;
+            this.enclosing = enclosing;
+        }
+    }
+
     private enum FunctionType {
         NONE, FUNCTION, METHOD, INITIALIZER;
     }
@@ -56,21 +82,42 @@ public class Resolver implements Stmt.Visitor<Void>, Expr.Visitor<Void> {
         }
     }
 
-    private void resolveLocal(Expr expr, Token name) {
-       Iterator<Map<String, Boolean>> iter = scopes.iterator();
+    private void resolveLocal(Binding binding, Symbol name) {
+       Iterator<Map<Symbol, Local>> iter = scopes.iterator();
        for (int i = scopes.size() - 1; i >= 0; i--) {
            // no need to check for iter.hasNext()
-           Map<String, Boolean> scope = iter.next();
-           if(scope.containsKey(name.lexeme())) {
-               interpreter.resolve(expr, scopes.size() - 1 - i);
+           Local local = iter.next().get(name);
+           if(local != null) {
+               binding.resolve(scopes.size() - 1 - i, local.slot);
+               if (i < closure.base)
+                   binding.capture(upvalue(closure, i, local.slot));
                return;
            }
        }
     }
 
-    private void resolveFunction(Function function, FunctionType type) {
+    // Index of the upvalue of function for the local in slot of scope i, every function
+    // in between gets one too so it can hand it down when the inner closure is created.
+    private int upvalue(Closure function, int i, int slot) {
+        Capture capture;
+        if (i >= function.enclosing.base) {
+            capture = new Capture(true, function.base - 1 - i, slot);
+        } else {
+            capture = new Capture(false, 0, upvalue(function.enclosing, i, slot));
+        }
+        int index = function.upvalues.indexOf(capture);
+        if (index < 0) {
+            function.upvalues.add(capture);
+            index = function.upvalues.size() - 1;
+        }
+        return index;
+    }
+
+    // Base is the scope the function is declared in plus one, methods own the scopes of 'super' and 'this' as well.
+    private void resolveFunction(Function function, FunctionType type, int base) {
         FunctionType enclosingFunction = currentFunction;
         currentFunction = type;
+        closure = new Closure(base, closure);
         beginScope();
         for(Token param : function.params()){
             declare(param);
@@ -78,6 +125,8 @@ public class Resolver implements Stmt.Visitor<Void>, Expr.Visitor<Void> {
         }
         resolve(function.body());
         endScope();
+        function.scope().capture(List.copyOf(closure.upvalues));
+        closure = closure.enclosing;
         currentFunction = enclosingFunction;
     }
 
@@ -93,16 +142,24 @@ public class Resolver implements Stmt.Visitor<Void>, Expr.Visitor<Void> {
         if(scopes.isEmpty())
             return;
 
-        Map<String, Boolean> scope = scopes.peek();
-        if(scope.containsKey(name.lexeme()))
+        Map<Symbol, Local> scope = scopes.peek();
+        if(scope.containsKey(name.symbol())) {
             interpreter.getLox().error(name, String.format("Already a variable with this name <%s> in this scope.", name.lexeme()));
-        scope.put(name.lexeme(), false);
+            return;
+        }
+        scope.put(name.symbol(), new Local(scope.size()));
     }
 
     private void define(Token name) {
         if(scopes.isEmpty()) return;
-        scopes.peek().put(name.lexeme(), true);
+        scopes.peek().get(name.symbol()).defined = true;
+    }
 
+    private void defineImplicit(Symbol name) {
+        Map<Symbol, Local> scope = scopes.peek();
+        Local local = new Local(scope.size());
+        local.defined = true;
+        scope.put(name, local);
     }
 
     @Override
@@ -131,10 +188,12 @@ public class Resolver implements Stmt.Visitor<Void>, Expr.Visitor<Void> {
 
     @Override
     public Void visitVariableExpr(Variable expr) throws VisitException {
-        if (!scopes.isEmpty() && scopes.peek().get(expr.name().lexeme()) == Boolean.FALSE) {
+        if (!scopes.isEmpty()
+            && scopes.peek().containsKey(expr.name().symbol())
+            && !scopes.peek().get(expr.name().symbol()).defined) {
            interpreter.getLox().error(expr.name(), "Can't read local variable in its own initializer.");
         }
-        resolveLocal(expr, expr.name());
+        resolveLocal(expr.binding(), expr.name().symbol());
 
         return null;
     }
@@ -142,7 +201,7 @@ public class Resolver implements Stmt.Visitor<Void>, Expr.Visitor<Void> {
     @Override
     public Void visitAssignExpr(Assign expr) throws VisitException {
         resolve(expr.value());
-        resolveLocal(expr, expr.name());
+        resolveLocal(expr.binding(), expr.name().symbol());
         return null;
     }
 
@@ -186,6 +245,10 @@ public class Resolver implements Stmt.Visitor<Void>, Expr.Visitor<Void> {
 
     @Override
     public Void visitBlockStmt(Block stmt) throws VisitException {
+        if (!stmt.scoped()) {
+            resolve(stmt.statements());
+            return null;
+        }
         beginScope();
         resolve(stmt.statements());
         endScope();
@@ -213,7 +276,7 @@ public class Resolver implements Stmt.Visitor<Void>, Expr.Visitor<Void> {
     public Void visitFunctionStmt(Function stmt) throws VisitException {
         declare(stmt.name());
         define(stmt.name());
-        resolveFunction(stmt, FunctionType.FUNCTION);
+        resolveFunction(stmt, FunctionType.FUNCTION, scopes.size());
         return null;
     }
 
@@ -229,6 +292,8 @@ public class Resolver implements Stmt.Visitor<Void>, Expr.Visitor<Void> {
                 return null;
             }
 
+            if (stmt.value().get() instanceof Call)
+                stmt.tail().mark();
             resolve(stmt.value().get());
         }
         return null;
@@ -241,7 +306,7 @@ public class Resolver implements Stmt.Visitor<Void>, Expr.Visitor<Void> {
         declare(stmt.name());
         define(stmt.name());
 
-        if (!stmt.superclass().isEmpty() && stmt.name().lexeme().equals(stmt.superclass().get().name().lexeme())) {
+        if (!stmt.superclass().isEmpty() && stmt.name().symbol() == stmt.superclass().get().name().symbol()) {
             interpreter.getLox().error(stmt.superclass().get().name(), "A 'class' can't inherit from itself.");
             return null;
         }
@@ -251,20 +316,21 @@ public class Resolver implements Stmt.Visitor<Void>, Expr.Visitor<Void> {
             resolve(stmt.superclass().get());
         }
 
+        int base = scopes.size();
         if (!stmt.superclass().isEmpty()) {
             beginScope();
-            scopes.peek().put("super", true);
+            defineImplicit(Symbol.SUPER);
         }
 
         beginScope();
-        scopes.peek().put("this", true);
+        defineImplicit(Symbol.THIS);
 
         for (Function fn : stmt.methods()) {
             FunctionType declaration = FunctionType.METHOD;
-            if (fn.name().lexeme().equals("init"))
+            if (fn.name().symbol() == Symbol.INIT)
                 declaration = FunctionType.INITIALIZER;
 
-            resolveFunction(fn, declaration);
+            resolveFunction(fn, declaration, base);
         }
         endScope();
         if (!stmt.superclass().isEmpty()) {
@@ -295,7 +361,7 @@ public class Resolver implements Stmt.Visitor<Void>, Expr.Visitor<Void> {
             return null;
         }
 
-        resolveLocal(expr, expr.keyword());
+        resolveLocal(expr.binding(), expr.keyword().symbol());
         return null;
     }
 
@@ -309,7 +375,8 @@ public class Resolver implements Stmt.Visitor<Void>, Expr.Visitor<Void> {
             return null;
         }
 
-        resolveLocal(expr, expr.keyword());
+        resolveLocal(expr.binding(), expr.keyword().symbol());
+        resolveLocal(expr.receiver(), Symbol.THIS);
         return null;
     }
 
@@ -1,15 +1,22 @@
 package com.craftinginterpreters.lox;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Optional;
 
 import static com.craftinginterpreters.lox.TokenType.*;
 
 public class Scanner {
-    private static final Map<String, TokenType> keywords = new HashMap<>();;
+    static final Map<String, TokenType> keywords = new HashMap<>();
 
     static {
         keywords.put("and", AND);
@@ -30,32 +37,83 @@ public class Scanner {
         keywords.put("while", WHILE);
     }
 
-    private final String source;
-    private final List<Token> tokens = new ArrayList<>();
+    // Lexeme of each keyword by ordinal, so a keyword token doesn't copy it out of the buffer.
+    private static final String[] lexemes = new String[TokenType.values().length];
+
+    static {
+        keywords.forEach((lexeme, type) -> lexemes[type.ordinal()] = lexeme);
+    }
+
+    private static final int BUFFER_SIZE = 1 << 13;
+
+    // The source is read a buffer at a time, the buffer holds the token being lexed
+    // (from start) and what's been read past it, up to limit.
+    private final Reader source;
+    private char[] buffer = new char[BUFFER_SIZE];
+    private int limit = 0;
+    private boolean drained = false;
     private boolean exhausted = false;
     private final Lox context;
+    // The token the last scanToken made, whitespace and comments don't make any.
+    private Token token;
 
     private int start = 0;
     private int current = 0;
     private int line = 1;
 
     public Scanner(Lox lox, String source) {
+        this(lox, new StringReader(source));
+    }
+
+    // Nothing is read before the first token is asked for, the reader is left open.
+    public Scanner(Lox lox, Reader source) {
         this.source = source;
         context = lox;
     }
 
     public List<Token> scanTokens() {
+        List<Token> tokens = new ArrayList<>();
+        tokens().forEachRemaining(tokens::add);
+        return tokens;
+    }
+
+    // The tokens lexed one at a time as they're asked for, ending with EOF. Either this
+    // or scanTokens can be called once. A failing read surfaces as an UncheckedIOException.
+    public Iterator<Token> tokens() {
         if (exhausted) {
             throw new IllegalStateException("[PANIC] tokens already lexed and returned, scanner consumed.");
         }
+        exhausted = true;
+        return new Iterator<Token>() {
+            private boolean done = false;
+
+            @Override
+            public boolean hasNext() {
+                return !done;
+            }
+
+            @Override
+            public Token next() {
+                if (done)
+                    throw new NoSuchElementException();
+                Token next = scanNext();
+                done = next.type() == EOF;
+                return next;
+            }
+        };
+    }
+
+    private Token scanNext() {
         while (!isAtEnd()) {
             start = current;
             scanToken();
+            if (token != null) {
+                Token next = token;
+                token = null;
+                return next;
+            }
         }
-
-        tokens.add(new Token(EOF, "", Optional.empty(), line));
-        exhausted = true;
-        return tokens;
+        return new Token(EOF, "", Optional.empty(), line);
     }
 
     // Tokenizer
@@ -157,7 +215,7 @@ public class Scanner {
 
         advance();
 
-        String value = source.substring(start + 1, current - 1);
+        String value = new String(buffer, start + 1, current - start - 2);
         addToken(STRING, Optional.of(new LoxStr(value)));
     }
 
@@ -172,7 +230,7 @@ public class Scanner {
                 advance();
         }
 
-        Double num = Double.parseDouble(source.substring(start, current));
+        Double num = Double.parseDouble(new String(buffer, start, current - start));
         addToken(NUMBER, Optional.of(new LoxNum(num)));
     }
 
@@ -180,9 +238,18 @@ public class Scanner {
         while (isAlphaNumeric(peek()))
             advance();
 
-        String text = source.substring(start, current);
-        TokenType type = keywords.getOrDefault(text, IDENTIFIER);
+        TokenType type = keyword(buffer, start, current);
         switch(type) {
+            case IDENTIFIER:
+                Symbol symbol = Symbol.of(buffer, start, current);
+                token = new Token(type, symbol.name(), Optional.empty(), line, symbol);
+                break;
+            case THIS:
+                token = new Token(type, lexemes[type.ordinal()], Optional.empty(), line, Symbol.THIS);
+                break;
+            case SUPER:
+                token = new Token(type, lexemes[type.ordinal()], Optional.empty(), line, Symbol.SUPER);
+                break;
             case NIL:
                 addToken(type, Optional.of(LoxValue.Intern.NIL));
                 break;
@@ -198,20 +265,63 @@ public class Scanner {
         }
     }
 
+    // Same answer as keywords.getOrDefault(word, IDENTIFIER) without making a String of the word:
+    // the first letter, and the second one after 'f' or 't', leaves a single keyword to compare with.
+    static TokenType keyword(char[] chars, int from, int to) {
+        int length = to - from;
+        return switch (chars[from]) {
+            case 'a' -> rest(chars, from, length, "and", AND);
+            case 'c' -> rest(chars, from, length, "class", CLASS);
+            case 'e' -> rest(chars, from, length, "else", ELSE);
+            case 'i' -> rest(chars, from, length, "if", IF);
+            case 'n' -> rest(chars, from, length, "nil", NIL);
+            case 'o' -> rest(chars, from, length, "or", OR);
+            case 'p' -> rest(chars, from, length, "print", PRINT);
+            case 'r' -> rest(chars, from, length, "return", RETURN);
+            case 's' -> rest(chars, from, length, "super", SUPER);
+            case 'v' -> rest(chars, from, length, "var", VAR);
+            case 'w' -> rest(chars, from, length, "while", WHILE);
+            case 'f' -> length < 2 ? IDENTIFIER : switch (chars[from + 1]) {
+                case 'a' -> rest(chars, from, length, "false", FALSE);
+                case 'o' -> rest(chars, from, length, "for", FOR);
+                case 'u' -> rest(chars, from, length, "fun", FUN);
+                default -> IDENTIFIER;
+            };
+            case 't' -> length < 2 ? IDENTIFIER : switch (chars[from + 1]) {
+                case 'h' -> rest(chars, from, length, "this", THIS);
+                case 'r' -> rest(chars, from, length, "true", TRUE);
+                default -> IDENTIFIER;
+            };
+            default -> IDENTIFIER;
+        };
+    }
+
+    // The letters the switch already matched are compared again, it's at most two.
+    private static TokenType rest(char[] chars, int from, int length, String keyword, TokenType type) {
+        if (length != keyword.length())
+            return IDENTIFIER;
+        for (int i = 0; i < length; i++) {
+            if (chars[from + i] != keyword.charAt(i))
+                return IDENTIFIER;
+        }
+        return type;
+    }
+
     ////////////////////////////////////////////
     // Character Lookup Methods and Utilities //
     ////////////////////////////////////////////
 
     private boolean isAtEnd() {
-        return current >= source.length();
+        return current >= limit && !fill();
     }
 
+    // Only called once isAtEnd or peek said there's a character.
     private char advance() {
-        return source.charAt(current++);
+        return buffer[current++];
     }
 
     private boolean match(char expected) {
-        if (isAtEnd() || source.charAt(current) != expected)
+        if (isAtEnd() || buffer[current] != expected)
             return false;
         current++;
         return true;
@@ -220,13 +330,41 @@ public class Scanner {
     private char peek() {
         if (isAtEnd())
             return '\0';
-        return source.charAt(current);
+        return buffer[current];
     }
 
     private char peekNext() {
-        if (current + 1 >= source.length())
-            return '\0';
-        return source.charAt(current + 1);
+        while (current + 1 >= limit) {
+            if (!fill())
+                return '\0';
+        }
+        return buffer[current + 1];
+    }
+
+    // Reads more of the source, false once it's all been read. What's before the token being
+    // lexed is dropped to make room, the buffer only grows for a token longer than itself.
+    private boolean fill() {
+        if (drained)
+            return false;
+        if (start > 0) {
+            System.arraycopy(buffer, start, buffer, 0, limit - start);
+            limit -= start;
+            current -= start;
+            start = 0;
+        }
+        if (limit == buffer.length)
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        try {
+            int read = source.read(buffer, limit, buffer.length - limit);
+            if (read < 0) {
+                drained = true;
+                return false;
+            }
+            limit += read;
+            return true;
+        } catch (IOException io) {
+            throw new UncheckedIOException(io);
+        }
     }
 
     private static boolean isDigit(char c) {
@@ -250,7 +388,9 @@ public class Scanner {
     }
 
     private void addToken(TokenType type, Optional<LoxValue> literal) {
-        String lexeme = source.substring(start, current);
-        tokens.add(new Token(type, lexeme, literal, line));
+        String lexeme = lexemes[type.ordinal()];
+        if (lexeme == null)
+            lexeme = new String(buffer, start, current - start);
+        token = new Token(type, lexeme, literal, line);
     }
 }
@@ -0,0 +1,72 @@
+package com.craftinginterpreters.lox;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+// Field layout shared by every instance that got the same fields in the same order.
+// Adding a field moves the instance to a child shape, the children are cached so
+// instances built the same way end up sharing one Shape and store their values in a plain array.
+public final class Shape {
+    // Past these an object is pathological and keeps its fields in a map instead.
+    static final int MAX_FIELDS = 64;
+    static final int MAX_TRANSITIONS = 32;
+
+    private final Shape root;
+    private final Map<Symbol, Integer> indexes;
+    private Map<Symbol, Shape> transitions;
+    // Largest layout seen from this root, new instances start with an array this big.
+    private int capacity = 0;
+
+    private Shape() {
+        this.root = this;
+        this.indexes = Map.of();
+    }
+
+    private Shape(Shape parent, Symbol name) {
+        this.root = parent.root;
+        this.indexes = new HashMap<>(parent.indexes);
+        this.indexes.put(name, parent.indexes.size());
+        root.capacity = Math.max(root.capacity, indexes.size());
+    }
+
+    public static Shape root() {
+        return new Shape();
+    }
+
+    public int size() {
+        return indexes.size();
+    }
+
+    public int capacity() {
+        return root.capacity;
+    }
+
+    // -1 when the field isn't part of the layout.
+    public int indexOf(Symbol name) {
+        Integer index = indexes.get(name);
+        return index == null ? -1 : index;
+    }
+
+    public Optional<Shape> with(Symbol name) {
+        if (transitions == null)
+            transitions = new HashMap<>();
+        Shape next = transitions.get(name);
+        if (next != null)
+            return Optional.of(next);
+        if (indexes.size() >= MAX_FIELDS || transitions.size() >= MAX_TRANSITIONS)
+            return Optional.empty();
+        next = new Shape(this, name);
+        transitions.put(name, next);
+        return Optional.of(next);
+    }
+
+    // Field names in slot order.
+    public Symbol[] names() {
+        Symbol[] names = new Symbol[indexes.size()];
+        for (Map.Entry<Symbol, Integer> entry : indexes.entrySet()) {
+            names[entry.getValue()] = entry.getKey();
+        }
+        return names;
+    }
+}
@@ -1,6 +1,7 @@
 package com.craftinginterpreters.lox;
 
 import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
 
 public sealed interface Stmt permits
@@ -18,24 +19,102 @@ public sealed interface Stmt permits
     public static record Expression(Expr expression) implements Stmt {  }
     public static record Var(Token name, Optional<Expr> initializer) implements Stmt {  }
     public static record Print(Expr expression) implements Stmt {  }
-    public static record Block(List<Stmt> statements) implements Stmt {  }
+    // Without a scope of its own the block runs in the enclosing one, the Optimizer only clears it when nothing is declared.
+    public static record Block(List<Stmt> statements, boolean scoped) implements Stmt {
+        public Block(List<Stmt> statements) {
+            this(statements, true);
+        }
+    }
     public static record If(Expr condition, Stmt thenBranch, Optional<Stmt> elseBranch) implements Stmt {  }
-    public static record While(Expr condition, Stmt body) implements Stmt {  }
-    public static record Function(Token name, List<Token> params, List<Stmt> body) implements Stmt {  }
-    public static record Return(Token keyword, Optional<Expr> value) implements Stmt {
-        public static class ReturnException extends VisitException {
-            private final LoxValue value;
-            public ReturnException(LoxValue value) {
-                super("");
-                this.value = value;
-            }
-            public LoxValue getValue() {
-                return this.value;
-            }
+    public static record While(Expr condition, Stmt body, Optional<Counted> counted) implements Stmt {
+        public While(Expr condition, Stmt body) {
+            this(condition, body, Optional.empty());
+        }
+    }
+    // 'var i = start; while (i < limit) { ...; i = i + step; }' as recognized by the Optimizer: only the
+    // increment assigns i and nothing in the body can capture it. The nodes are shared with the While,
+    // body is everything but the increment and runs in one frame of its own when scoped.
+    public static record Counted(Expr.Variable counter, TokenType comparison, Expr limit, double step, List<Stmt> body, boolean scoped, boolean readsCounter) {  }
+    public static record Function(Token name, List<Token> params, List<Stmt> body, Jit.Profile profile, Scope scope) implements Stmt {
+        public Function(Token name, List<Token> params, List<Stmt> body) {
+            this(name, params, body, new Jit.Profile());
+        }
+
+        public Function(Token name, List<Token> params, List<Stmt> body, Jit.Profile profile) {
+            this(name, params, body, profile, new Scope());
+        }
+
+        // The Profile and Scope are annotations, like Expr.Binding they're left out.
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Function s && name.equals(s.name) && params.equals(s.params) && body.equals(s.body);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(name, params, body);
+        }
+    }
+    public static record Return(Token keyword, Optional<Expr> value, Tail tail) implements Stmt {
+        public Return(Token keyword, Optional<Expr> value) {
+            this(keyword, value, new Tail());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Return s && keyword.equals(s.keyword) && value.equals(s.value);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(keyword, value);
         }
     }
     public static record Class(Token name, Optional<Expr.Variable> superclass, List<Stmt.Function> methods) implements Stmt {  }
 
+    // Where a closure finds one of its upvalues when it's created: slot index of the frame depth
+    // scopes out from the declaration when local, otherwise upvalue index of the enclosing function.
+    public static record Capture(boolean local, int depth, int index) {  }
+
+    // Set by the Resolver: every variable of an enclosing function the function or one of its own
+    // closures reads, the function's frame reaches them by index instead of through a chain of frames.
+    // Like Expr.Binding it annotates the node and is equal to itself only.
+    public static final class Scope {
+        private List<Capture> upvalues;
+
+        public Scope() {
+            this(List.of());
+        }
+
+        // Functions compiled ahead of time by jloxc are never resolved again.
+        public Scope(List<Capture> upvalues) {
+            this.upvalues = upvalues;
+        }
+
+        public void capture(List<Capture> upvalues) {
+            this.upvalues = upvalues;
+        }
+
+        public List<Capture> upvalues() {
+            return upvalues;
+        }
+    }
+
+    // Set by the Resolver on a 'return f(...)' of a function: the Interpreter doesn't make the call
+    // but leaves it to the function returning, which runs it once its own frame is gone.
+    // An annotation like Scope.
+    public static final class Tail {
+        private boolean marked = false;
+
+        public void mark() {
+            this.marked = true;
+        }
+
+        public boolean isMarked() {
+            return marked;
+        }
+    }
+
     public interface Visitor<T> {
         T visitExpressionStmt(Expression stmt) throws VisitException;
         T visitPrintStmt(Print stmt) throws VisitException;
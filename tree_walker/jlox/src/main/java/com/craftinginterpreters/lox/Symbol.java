@@ -0,0 +1,177 @@
+package com.craftinginterpreters.lox;
+
+import java.lang.ref.WeakReference;
+
+// A name interned once for the whole process, hashed on a number handed out in the order the Symbols are made.
+// Two Symbols are the same name only when they're the same object, so a map keyed on them
+// hashes an int and compares references where a String key would hash and compare characters.
+// The table holds its Symbols weakly: once no token, environment or class refers to a name (a line of
+// the REPL, a test that's done) its Symbol is collected, and the slot is let go the next time the table
+// is rebuilt. Seen again, the name gets a new Symbol, which nobody can tell since nobody kept the old one.
+public final class Symbol {
+    private static final int TABLE_INITIAL = 1 << 10;
+
+    // The hash is kept next to the reference, so probing past other names doesn't dereference them.
+    private static final class Entry extends WeakReference<Symbol> {
+        private final int hash;
+
+        private Entry(Symbol symbol) {
+            super(symbol);
+            this.hash = symbol.hash;
+        }
+    }
+
+    // Lookups read the table without the lock. Under the lock a writer either fills a null slot of the
+    // published table or fills a new table whole before publishing it through the volatile field, slots
+    // are never emptied, so a reader's probe sequence never breaks whatever table it holds. A slot filled
+    // under the lock can reach a reader late, or with its Symbol not visible yet: both read as a miss, and
+    // a miss is looked up again under the lock before a Symbol is made, so a name never has two live
+    // Symbols. A hit needs no lock since the fields of a Symbol are final.
+    private static volatile Entry[] table = new Entry[TABLE_INITIAL];
+    // Slots filled, collected Symbols included, and numbers handed out. Both only read and written under the lock.
+    private static int used = 0;
+    private static int count = 0;
+    private static final Object lock = new Object();
+
+    public static final Symbol INIT = of("init");
+    public static final Symbol THIS = of("this");
+    public static final Symbol SUPER = of("super");
+
+    private final int id;
+    private final String name;
+    // Same as name.hashCode(), so chars can be looked up before a String is made of them.
+    private final int hash;
+
+    private Symbol(int id, String name, int hash) {
+        this.id = id;
+        this.name = name;
+        this.hash = hash;
+    }
+
+    public static Symbol of(String name) {
+        int hash = name.hashCode();
+        Symbol symbol = find(table, hash, name);
+        if (symbol != null)
+            return symbol;
+        synchronized (lock) {
+            symbol = find(table, hash, name);
+            return symbol != null ? symbol : add(name, hash);
+        }
+    }
+
+    // The Symbol of chars[from, to), the String is only made the first time the name is seen.
+    public static Symbol of(char[] chars, int from, int to) {
+        int hash = 0;
+        for (int i = from; i < to; i++) {
+            hash = 31 * hash + chars[i];
+        }
+        Symbol symbol = find(table, hash, chars, from, to);
+        if (symbol != null)
+            return symbol;
+        synchronized (lock) {
+            symbol = find(table, hash, chars, from, to);
+            return symbol != null ? symbol : add(new String(chars, from, to - from), hash);
+        }
+    }
+
+    public String name() {
+        return name;
+    }
+
+    @Override
+    public int hashCode() {
+        return id;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    private static Symbol find(Entry[] table, int hash, String name) {
+        int mask = table.length - 1;
+        Entry entry;
+        for (int i = spread(hash) & mask; (entry = table[i]) != null; i = (i + 1) & mask) {
+            if (entry.hash != hash)
+                continue;
+            Symbol symbol = entry.get();
+            if (symbol != null && symbol.name.equals(name))
+                return symbol;
+        }
+        return null;
+    }
+
+    private static Symbol find(Entry[] table, int hash, char[] chars, int from, int to) {
+        int mask = table.length - 1;
+        Entry entry;
+        for (int i = spread(hash) & mask; (entry = table[i]) != null; i = (i + 1) & mask) {
+            if (entry.hash != hash)
+                continue;
+            Symbol symbol = entry.get();
+            if (symbol != null && matches(symbol.name, chars, from, to))
+                return symbol;
+        }
+        return null;
+    }
+
+    private static boolean matches(String name, char[] chars, int from, int to) {
+        if (name.length() != to - from)
+            return false;
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) != chars[from + i])
+                return false;
+        }
+        return true;
+    }
+
+    // Only called holding the lock. Once half the slots are filled the table is rebuilt with the
+    // live Symbols only, sized on them, so it shrinks as well as grows.
+    private static Symbol add(String name, int hash) {
+        Symbol symbol = new Symbol(count++, name, hash);
+        Entry[] current = table;
+        if ((used + 1) * 2 > current.length) {
+            table = rebuild(current, new Entry(symbol));
+        } else {
+            place(current, new Entry(symbol));
+            used++;
+        }
+        return symbol;
+    }
+
+    private static Entry[] rebuild(Entry[] current, Entry added) {
+        int live = 1;
+        for (Entry entry : current) {
+            if (entry != null && !entry.refersTo(null))
+                live++;
+        }
+        int capacity = TABLE_INITIAL;
+        while (capacity < live * 4) {
+            capacity <<= 1;
+        }
+        Entry[] rebuilt = new Entry[capacity];
+        used = 0;
+        for (Entry entry : current) {
+            // A Symbol collected since it was counted leaves a slot spare, never one short.
+            if (entry != null && !entry.refersTo(null)) {
+                place(rebuilt, entry);
+                used++;
+            }
+        }
+        place(rebuilt, added);
+        used++;
+        return rebuilt;
+    }
+
+    private static void place(Entry[] table, Entry entry) {
+        int mask = table.length - 1;
+        int i = spread(entry.hash) & mask;
+        while (table[i] != null) {
+            i = (i + 1) & mask;
+        }
+        table[i] = entry;
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+}
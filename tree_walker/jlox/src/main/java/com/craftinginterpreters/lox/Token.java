@@ -2,7 +2,16 @@ package com.craftinginterpreters.lox;
 
 import java.util.Optional;
 
-public record Token(TokenType type, String lexeme, Optional<LoxValue> literal, int line) {
+// Names (identifiers, this and super) carry the Symbol of their lexeme, every other token null.
+public record Token(TokenType type, String lexeme, Optional<LoxValue> literal, int line, Symbol symbol) {
+
+  public Token(TokenType type, String lexeme, Optional<LoxValue> literal, int line) {
+    this(type, lexeme, literal, line, isName(type) ? Symbol.of(lexeme) : null);
+  }
+
+  public static boolean isName(TokenType type) {
+    return type == TokenType.IDENTIFIER || type == TokenType.THIS || type == TokenType.SUPER;
+  }
 
   public String toString() {
     StringBuilder sb = new StringBuilder("Token{ type: ");
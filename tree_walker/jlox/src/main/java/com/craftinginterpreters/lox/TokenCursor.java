@@ -0,0 +1,54 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Iterator;
+
+// What the Parser walks over. Only the tokens it keeps in the tree need to be Tokens,
+// the rest it can skip knowing just their type, see TokenBuffer.
+public interface TokenCursor {
+    TokenType type();
+
+    Token current();
+
+    Token previous();
+
+    TokenType previousType();
+
+    LoxValue previousLiteral();
+
+    // Moves past the current token, throws once there's nothing after it.
+    void advance();
+
+    static TokenCursor of(Iterator<Token> tokens) {
+        return new TokenCursor() {
+            private Token current = tokens.next();
+            private Token previous;
+
+            public TokenType type() {
+                return current.type();
+            }
+
+            public Token current() {
+                return current;
+            }
+
+            public Token previous() {
+                return previous;
+            }
+
+            public TokenType previousType() {
+                return previous.type();
+            }
+
+            public LoxValue previousLiteral() {
+                return previous.literal().get();
+            }
+
+            public void advance() {
+                if (!tokens.hasNext())
+                    throw new IllegalStateException("Nothing to consume, parse goes out of bound.");
+                previous = current;
+                current = tokens.next();
+            }
+        };
+    }
+}
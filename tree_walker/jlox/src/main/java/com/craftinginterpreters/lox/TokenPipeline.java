@@ -0,0 +1,106 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import static com.craftinginterpreters.lox.TokenType.*;
+
+// Lexes on a thread of its own while the Parser takes the tokens from a bounded queue,
+// so parsing overlaps lexing and at most capacity batches are ever held ahead of it.
+// Tokens go through in batches, one hand-off per token would cost more than lexing it.
+public final class TokenPipeline implements Iterator<Token>, AutoCloseable {
+    public static final int DEFAULT_CAPACITY = 16;
+    private static final int BATCH = 512;
+    // Put by the producer when the scanner failed, the failure is thrown on the Parser's side.
+    // Errors as well as exceptions, anything less would leave the Parser waiting for a batch that never comes.
+    private static final Token[] FAILED = new Token[0];
+
+    private final BlockingQueue<Token[]> queue;
+    private final Thread producer;
+    private volatile Throwable failure;
+    private Token[] batch = FAILED;
+    private int index = 0;
+    private boolean done = false;
+
+    public TokenPipeline(Iterator<Token> tokens) {
+        this(tokens, DEFAULT_CAPACITY);
+    }
+
+    public TokenPipeline(Iterator<Token> tokens, int capacity) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.producer = Thread.ofPlatform().name("lox-scanner").daemon().unstarted(() -> produce(tokens));
+        producer.start();
+    }
+
+    private void produce(Iterator<Token> tokens) {
+        try {
+            try {
+                Token[] batch = new Token[BATCH];
+                int size = 0;
+                while (true) {
+                    Token token = tokens.next();
+                    batch[size++] = token;
+                    if (token.type() == EOF) {
+                        queue.put(Arrays.copyOf(batch, size));
+                        return;
+                    }
+                    if (size == BATCH) {
+                        queue.put(batch);
+                        batch = new Token[BATCH];
+                        size = 0;
+                    }
+                }
+            } catch (Throwable t) {
+                failure = t;
+                queue.put(FAILED);
+            }
+        } catch (InterruptedException ie) {
+            // Closed before the Parser got to the end.
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !done;
+    }
+
+    @Override
+    public Token next() {
+        if (done)
+            throw new NoSuchElementException();
+        if (index == batch.length) {
+            batch = take();
+            index = 0;
+        }
+        Token token = batch[index++];
+        done = token.type() == EOF;
+        return token;
+    }
+
+    private Token[] take() {
+        Token[] next;
+        try {
+            next = queue.take();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for tokens.");
+        }
+        if (next == FAILED) {
+            if (failure instanceof RuntimeException e)
+                throw e;
+            if (failure instanceof Error e)
+                throw e;
+            throw new IllegalStateException("Scanner failed.", failure);
+        }
+        return next;
+    }
+
+    // Stops the producer when the Parser gave up before EOF, it would otherwise wait on the full queue forever.
+    @Override
+    public void close() {
+        producer.interrupt();
+    }
+}
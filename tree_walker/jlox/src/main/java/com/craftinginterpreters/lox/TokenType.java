@@ -2,21 +2,32 @@ package com.craftinginterpreters.lox;
 
 public enum TokenType {
   // Single-character tokens.
-  LEFT_PAREN, RIGHT_PAREN, LEFT_BRACE, RIGHT_BRACE,
-  COMMA, DOT, MINUS, PLUS, SEMICOLON, SLASH, STAR,
+  LEFT_PAREN("("), RIGHT_PAREN(")"), LEFT_BRACE("{"), RIGHT_BRACE("}"),
+  COMMA(","), DOT("."), MINUS("-"), PLUS("+"), SEMICOLON(";"), SLASH("/"), STAR("*"),
 
   // One or two character tokens.
-  BANG, BANG_EQUAL,
-  EQUAL, EQUAL_EQUAL,
-  GREATER, GREATER_EQUAL,
-  LESS, LESS_EQUAL,
+  BANG("!"), BANG_EQUAL("!="),
+  EQUAL("="), EQUAL_EQUAL("=="),
+  GREATER(">"), GREATER_EQUAL(">="),
+  LESS("<"), LESS_EQUAL("<="),
 
   // Literals.
-  IDENTIFIER, STRING, NUMBER,
+  IDENTIFIER(null), STRING(null), NUMBER(null),
 
   // Keywords.
-  AND, CLASS, ELSE, FALSE, FUN, FOR, IF, NIL, OR,
-  PRINT, RETURN, SUPER, THIS, TRUE, VAR, WHILE,
+  AND("and"), CLASS("class"), ELSE("else"), FALSE("false"), FUN("fun"), FOR("for"), IF("if"), NIL("nil"), OR("or"),
+  PRINT("print"), RETURN("return"), SUPER("super"), THIS("this"), TRUE("true"), VAR("var"), WHILE("while"),
 
-  EOF
+  EOF("");
+
+  private final String lexeme;
+
+  TokenType(String lexeme) {
+    this.lexeme = lexeme;
+  }
+
+  // The lexeme every token of this type has, null when it's the token's own (names, strings, numbers).
+  public String lexeme() {
+    return lexeme;
+  }
 }
@@ -0,0 +1,21 @@
+package com.craftinginterpreters.lox;
+
+// A local some closure captured. The frame that declared it and every closure share the same Upvalue,
+// so an assignment on either side is seen by the others.
+public final class Upvalue {
+    static final Upvalue[] NONE = new Upvalue[0];
+
+    LoxValue value;
+
+    public Upvalue(LoxValue value) {
+        this.value = value;
+    }
+
+    public LoxValue get() {
+        return value;
+    }
+
+    public void set(LoxValue value) {
+        this.value = value;
+    }
+}
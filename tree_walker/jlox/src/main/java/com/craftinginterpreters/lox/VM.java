@@ -0,0 +1,583 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static com.craftinginterpreters.lox.OpCode.*;
+
+public final class VM {
+    // Calls never recurse in Java, so the depth is only bounded by the heap. Frames and
+    // stack grow on demand up to the max depth, past it the program fails with a Lox error.
+    public static final int DEFAULT_MAX_DEPTH = 1 << 20;
+    private static final int FRAMES_INITIAL = 1 << 6;
+    private static final int STACK_INITIAL = 1 << 10;
+
+    private static final class CallFrame {
+        private VmClosure closure;
+        private int ip;
+        private int base;
+    }
+
+    // Past the max depth the whole program stops, like a StackOverflowError does on the other engines.
+    private static final class StackOverflow extends VisitException {
+        private StackOverflow(int depth) {
+            super(String.format("Stack overflow, more than %d calls deep.", depth));
+        }
+    }
+
+    private final Lox lox;
+    private final Map<String, LoxValue> globals = new HashMap<>();
+    private Object[] stack = new Object[STACK_INITIAL];
+    private int sp = 0;
+    private CallFrame[] frames = new CallFrame[FRAMES_INITIAL];
+    private int frameCount = 0;
+    private int maxDepth = DEFAULT_MAX_DEPTH;
+    // Sorted by stack slot, highest first, so closing a frame only looks at the head.
+    private VmUpvalue openUpvalues = null;
+
+    public VM(Lox lox) {
+        this.lox = lox;
+        globals.put("clock", LoxClockBuiltin.fn);
+    }
+
+    public void setMaxDepth(int depth) {
+        this.maxDepth = depth;
+    }
+
+    public void interpret(VmFunction script) throws VisitException {
+        VmClosure closure = new VmClosure(script);
+        push(closure);
+        call(closure, 0);
+        try {
+            run();
+        } finally {
+            Arrays.fill(stack, 0, sp, null);
+            sp = 0;
+            frameCount = 0;
+            openUpvalues = null;
+        }
+    }
+
+    ////////////////////
+    // Stack Utils    //
+    ////////////////////
+    private void push(LoxValue value) {
+        stack[sp++] = value;
+    }
+
+    private LoxValue pop() {
+        return (LoxValue) stack[--sp];
+    }
+
+    private LoxValue peek(int distance) {
+        return (LoxValue) stack[sp - 1 - distance];
+    }
+
+    private static boolean isFalsey(Object value) {
+        return value == LoxValue.Intern.NIL || value == LoxValue.Intern.FALSE;
+    }
+
+    ////////////////////
+    // Dispatch Loop  //
+    ////////////////////
+
+    // A runtime error inside a function ends that call only, as in LoxFunction: it's reported
+    // as an error in the function, the call returns nil and the caller carries on.
+    private void run() throws VisitException {
+        while (true) {
+            try {
+                dispatch();
+                return;
+            } catch (StackOverflow so) {
+                throw so;
+            } catch (VisitException e) {
+                if (frameCount == 1)
+                    throw e;
+                fail();
+            }
+        }
+    }
+
+    private void dispatch() throws VisitException {
+        CallFrame frame = frames[frameCount - 1];
+        byte[] code = frame.closure.function().code;
+        Object[] constants = frame.closure.function().constants;
+        int ip = frame.ip;
+        int base = frame.base;
+        // Hot state lives in locals, it's written back to the fields before anything that can call out.
+        Object[] stack = this.stack;
+        int sp = this.sp;
+
+        while (true) {
+            switch (code[ip++]) {
+                case CONSTANT -> {
+                    stack[sp++] = (LoxValue) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                }
+                case NIL -> stack[sp++] = LoxValue.Intern.NIL;
+                case TRUE -> stack[sp++] = LoxValue.Intern.TRUE;
+                case FALSE -> stack[sp++] = LoxValue.Intern.FALSE;
+                case POP -> sp--;
+                case GET_LOCAL -> stack[sp++] = stack[base + (code[ip++] & 0xff)];
+                case SET_LOCAL -> stack[base + (code[ip++] & 0xff)] = stack[sp - 1];
+                case GET_GLOBAL -> {
+                    String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    LoxValue value = globals.get(name);
+                    if (value == null) {
+                        frame.ip = ip;
+                        this.sp = sp;
+                        throw runtimeError(String.format("Undefined variable: %s.", token(name, frame)));
+                    }
+                    stack[sp++] = value;
+                }
+                case DEFINE_GLOBAL -> {
+                    String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    globals.put(name, (LoxValue) stack[--sp]);
+                }
+                case SET_GLOBAL -> {
+                    String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    if (!globals.containsKey(name)) {
+                        frame.ip = ip;
+                        this.sp = sp;
+                        throw runtimeError(String.format("Undefined variable name: %s.", token(name, frame)));
+                    }
+                    globals.put(name, (LoxValue) stack[sp - 1]);
+                }
+                case GET_UPVALUE -> {
+                    VmUpvalue upvalue = frame.closure.upvalues()[code[ip++] & 0xff];
+                    stack[sp++] = upvalue.isOpen() ? stack[upvalue.slot] : upvalue.closed;
+                }
+                case SET_UPVALUE -> {
+                    VmUpvalue upvalue = frame.closure.upvalues()[code[ip++] & 0xff];
+                    if (upvalue.isOpen()) {
+                        stack[upvalue.slot] = stack[sp - 1];
+                    } else {
+                        upvalue.closed = (LoxValue) stack[sp - 1];
+                    }
+                }
+                case GET_PROPERTY -> {
+                    String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    frame.ip = ip;
+                    this.sp = sp;
+                    if (!(stack[sp - 1] instanceof VmInstance instance))
+                        throw runtimeError(String.format("The %s is not applicable to given object.", name));
+                    LoxValue field = instance.fields.get(name);
+                    if (field != null) {
+                        stack[sp - 1] = field;
+                    } else {
+                        stack[sp - 1] = bindMethod(instance, instance.getLoxClass(), name);
+                    }
+                }
+                case SET_PROPERTY -> {
+                    String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    if (!(stack[sp - 2] instanceof VmInstance instance)) {
+                        frame.ip = ip;
+                        this.sp = sp;
+                        throw runtimeError("Setting property on non object instance value.");
+                    }
+                    LoxValue value = (LoxValue) stack[--sp];
+                    instance.fields.put(name, value);
+                    stack[sp - 1] = value;
+                }
+                case GET_SUPER -> {
+                    String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    frame.ip = ip;
+                    this.sp = sp;
+                    VmClass superclass = (VmClass) stack[--sp];
+                    stack[sp - 1] = bindMethod((LoxValue) stack[sp - 1], superclass, name);
+                }
+                case EQUAL -> {
+                    Object b = stack[--sp];
+                    stack[sp - 1] = LoxValue.Intern.fromBool(stack[sp - 1].equals(b));
+                }
+                case NOT_EQUAL -> {
+                    Object b = stack[--sp];
+                    stack[sp - 1] = LoxValue.Intern.fromBool(!stack[sp - 1].equals(b));
+                }
+                case GREATER -> {
+                    if (!(stack[sp - 2] instanceof LoxNum a && stack[sp - 1] instanceof LoxNum b)) {
+                        frame.ip = ip;
+                        this.sp = sp;
+                        throw runtimeError("Mismateched type, in GREATER both operand must be both num");
+                    }
+                    sp--;
+                    stack[sp - 1] = LoxValue.Intern.fromBool(a.num() > b.num());
+                }
+                case GREATER_EQUAL -> {
+                    if (!(stack[sp - 2] instanceof LoxNum a && stack[sp - 1] instanceof LoxNum b)) {
+                        frame.ip = ip;
+                        this.sp = sp;
+                        throw runtimeError("Mismateched type, in GREATER_EQUAL both operand must be both num");
+                    }
+                    sp--;
+                    stack[sp - 1] = LoxValue.Intern.fromBool(a.num() >= b.num());
+                }
+                case LESS -> {
+                    if (!(stack[sp - 2] instanceof LoxNum a && stack[sp - 1] instanceof LoxNum b)) {
+                        frame.ip = ip;
+                        this.sp = sp;
+                        throw runtimeError("Mismateched type, in LESS both operand must be both num");
+                    }
+                    sp--;
+                    stack[sp - 1] = LoxValue.Intern.fromBool(a.num() < b.num());
+                }
+                case LESS_EQUAL -> {
+                    if (!(stack[sp - 2] instanceof LoxNum a && stack[sp - 1] instanceof LoxNum b)) {
+                        frame.ip = ip;
+                        this.sp = sp;
+                        throw runtimeError("Mismateched type, in LESS_EQUAL both operand must be both num");
+                    }
+                    sp--;
+                    stack[sp - 1] = LoxValue.Intern.fromBool(a.num() <= b.num());
+                }
+                case ADD -> {
+                    Object a = stack[sp - 2];
+                    Object b = stack[sp - 1];
+                    LoxValue result;
+                    if (a instanceof LoxNum l && b instanceof LoxNum r) {
+                        result = new LoxNum(l.num() + r.num());
+                    } else if (a instanceof LoxStr l && b instanceof LoxStr r) {
+                        result = new LoxStr(l.str() + r.str());
+                    } else if (a instanceof LoxStr l && b instanceof LoxNum r) {
+                        result = new LoxStr(String.format("%s%f", l.str(), r.num()));
+                    } else {
+                        frame.ip = ip;
+                        this.sp = sp;
+                        throw runtimeError("Mismateched type, in PLUS both operand must be both str or both num");
+                    }
+                    sp--;
+                    stack[sp - 1] = result;
+                }
+                case SUBTRACT -> {
+                    if (!(stack[sp - 2] instanceof LoxNum a && stack[sp - 1] instanceof LoxNum b)) {
+                        frame.ip = ip;
+                        this.sp = sp;
+                        throw runtimeError("Mismateched type, in MINUS both operand must be both num");
+                    }
+                    sp--;
+                    stack[sp - 1] = new LoxNum(a.num() - b.num());
+                }
+                case MULTIPLY -> {
+                    if (!(stack[sp - 2] instanceof LoxNum a && stack[sp - 1] instanceof LoxNum b)) {
+                        frame.ip = ip;
+                        this.sp = sp;
+                        throw runtimeError("Mismateched type, in STAR both operand must be both num");
+                    }
+                    sp--;
+                    stack[sp - 1] = new LoxNum(a.num() * b.num());
+                }
+                case DIVIDE -> {
+                    if (!(stack[sp - 2] instanceof LoxNum a && stack[sp - 1] instanceof LoxNum b)) {
+                        frame.ip = ip;
+                        this.sp = sp;
+                        throw runtimeError("Mismateched type, in SLASH both operand must be both num");
+                    }
+                    sp--;
+                    stack[sp - 1] = new LoxNum(a.num() / b.num());
+                }
+                case NOT -> stack[sp - 1] = LoxValue.Intern.fromBool(isFalsey(stack[sp - 1]));
+                case NEGATE -> {
+                    if (!(stack[sp - 1] instanceof LoxNum n)) {
+                        frame.ip = ip;
+                        this.sp = sp;
+                        throw runtimeError("Invalid arguments for MINUS '-'");
+                    }
+                    stack[sp - 1] = new LoxNum(-n.num());
+                }
+                case PRINT -> System.out.println(stack[--sp].toString());
+                case JUMP -> {
+                    int offset = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                    ip += 2 + offset;
+                }
+                case JUMP_IF_FALSE -> {
+                    int offset = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                    ip += 2;
+                    if (isFalsey(stack[sp - 1]))
+                        ip += offset;
+                }
+                case LOOP -> {
+                    int offset = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                    ip += 2 - offset;
+                }
+                case CALL -> {
+                    int argc = code[ip++] & 0xff;
+                    frame.ip = ip;
+                    this.sp = sp;
+                    callValue((LoxValue) stack[sp - 1 - argc], argc, code[ip] == RETURN);
+                    frame = frames[frameCount - 1];
+                    code = frame.closure.function().code;
+                    constants = frame.closure.function().constants;
+                    ip = frame.ip;
+                    base = frame.base;
+                    stack = this.stack;
+                    sp = this.sp;
+                }
+                case INVOKE -> {
+                    String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    int argc = code[ip + 2] & 0xff;
+                    ip += 3;
+                    frame.ip = ip;
+                    this.sp = sp;
+                    invoke(name, argc, code[ip] == RETURN);
+                    frame = frames[frameCount - 1];
+                    code = frame.closure.function().code;
+                    constants = frame.closure.function().constants;
+                    ip = frame.ip;
+                    base = frame.base;
+                    stack = this.stack;
+                    sp = this.sp;
+                }
+                case SUPER_INVOKE -> {
+                    String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    int argc = code[ip + 2] & 0xff;
+                    ip += 3;
+                    VmClass superclass = (VmClass) stack[--sp];
+                    frame.ip = ip;
+                    this.sp = sp;
+                    invokeFromClass(superclass, name, argc, code[ip] == RETURN);
+                    frame = frames[frameCount - 1];
+                    code = frame.closure.function().code;
+                    constants = frame.closure.function().constants;
+                    ip = frame.ip;
+                    base = frame.base;
+                    stack = this.stack;
+                    sp = this.sp;
+                }
+                case CLOSURE -> {
+                    VmFunction function = (VmFunction) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    VmClosure closure = new VmClosure(function);
+                    VmUpvalue[] upvalues = closure.upvalues();
+                    for (int i = 0; i < upvalues.length; i++) {
+                        boolean isLocal = code[ip++] == 1;
+                        int index = code[ip++] & 0xff;
+                        upvalues[i] = isLocal ? captureUpvalue(base + index) : frame.closure.upvalues()[index];
+                    }
+                    stack[sp++] = closure;
+                }
+                case CLOSE_UPVALUE -> {
+                    closeUpvalues(sp - 1);
+                    sp--;
+                }
+                case RETURN -> {
+                    Object result = stack[--sp];
+                    closeUpvalues(base);
+                    frameCount--;
+                    Arrays.fill(stack, base, sp, null);
+                    sp = base;
+                    if (frameCount == 0) {
+                        this.sp = sp;
+                        return;
+                    }
+
+                    stack[sp++] = result;
+                    frame = frames[frameCount - 1];
+                    code = frame.closure.function().code;
+                    constants = frame.closure.function().constants;
+                    ip = frame.ip;
+                    base = frame.base;
+                }
+                case CLASS -> {
+                    String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    stack[sp++] = new VmClass(name);
+                }
+                case INHERIT -> {
+                    if (!(stack[sp - 2] instanceof VmClass superclass)) {
+                        frame.ip = ip;
+                        this.sp = sp;
+                        throw runtimeError("Superclass must be class.");
+                    }
+                    ((VmClass) stack[sp - 1]).inherit(superclass);
+                    sp--;
+                }
+                case METHOD -> {
+                    String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    ((VmClass) stack[sp - 2]).defineMethod(name, (VmClosure) stack[sp - 1]);
+                    sp--;
+                }
+                default -> {
+                    frame.ip = ip;
+                    this.sp = sp;
+                    throw runtimeError(String.format("Unknown opcode %d.", code[ip - 1]));
+                }
+            }
+        }
+    }
+
+    ////////////////////
+    // Calls          //
+    ////////////////////
+
+    // A call right before a RETURN is a 'return f(...)': a closure it calls takes over the frame
+    // of the function returning instead of stacking one more, so tail recursion runs in constant
+    // depth. Classes and natives are called as usual and the RETURN hands their result back.
+    private void callValue(LoxValue callee, int argc, boolean tail) throws VisitException {
+        switch (callee) {
+            case VmClosure closure -> call(closure, argc, tail);
+            case VmBoundMethod bound -> {
+                stack[sp - argc - 1] = bound.receiver();
+                call(bound.method(), argc, tail);
+            }
+            case VmClass clazz -> {
+                stack[sp - argc - 1] = new VmInstance(clazz);
+                if (!clazz.initializer().isEmpty()) {
+                    call(clazz.initializer().get(), argc, false);
+                } else if (argc != 0) {
+                    throw runtimeError(String.format("ERR: %s require %d arguments, received %d.", clazz, 0, argc));
+                }
+            }
+            // Natives never look at the interpreter, they only get the arguments.
+            case LoxCallable fn -> {
+                if (fn.arity() != argc)
+                    throw runtimeError(String.format("ERR: %s require %d arguments, received %d.", fn, fn.arity(), argc));
+                LoxValue result = fn.call(null, Arrays.copyOfRange(stack, sp - argc, sp, LoxValue[].class));
+                sp -= argc + 1;
+                push(result);
+            }
+            default -> throw runtimeError(String.format("ERR: %s is not callable.", callee));
+        }
+    }
+
+    // The callee and its arguments move down to the base of the frame they take over.
+    private void call(VmClosure closure, int argc, boolean tail) throws VisitException {
+        // The script's frame is never taken over, it has no RETURN after a call anyway.
+        if (!tail || frameCount == 1) {
+            call(closure, argc);
+            return;
+        }
+        VmFunction function = closure.function();
+        if (function.arity() != argc)
+            throw runtimeError(String.format("ERR: %s require %d arguments, received %d.", closure, function.arity(), argc));
+        CallFrame frame = frames[frameCount - 1];
+        int base = frame.base;
+        closeUpvalues(base);
+        System.arraycopy(stack, sp - argc - 1, stack, base, argc + 1);
+        Arrays.fill(stack, base + argc + 1, sp, null);
+        sp = base + argc + 1;
+        if (base + function.maxStack() >= stack.length)
+            stack = Arrays.copyOf(stack, Math.max(stack.length * 2, base + function.maxStack() + 1));
+        frame.closure = closure;
+        frame.ip = 0;
+    }
+
+    private void call(VmClosure closure, int argc) throws VisitException {
+        VmFunction function = closure.function();
+        if (function.arity() != argc)
+            throw runtimeError(String.format("ERR: %s require %d arguments, received %d.", closure, function.arity(), argc));
+        if (frameCount >= maxDepth)
+            throw new StackOverflow(maxDepth);
+        if (frameCount == frames.length)
+            frames = Arrays.copyOf(frames, frames.length * 2);
+
+        int base = sp - argc - 1;
+        if (base + function.maxStack() >= stack.length)
+            stack = Arrays.copyOf(stack, Math.max(stack.length * 2, base + function.maxStack() + 1));
+
+        CallFrame frame = frames[frameCount];
+        if (frame == null) {
+            frame = new CallFrame();
+            frames[frameCount] = frame;
+        }
+        frame.closure = closure;
+        frame.ip = 0;
+        frame.base = base;
+        frameCount++;
+    }
+
+    private void invoke(String name, int argc, boolean tail) throws VisitException {
+        if (!(peek(argc) instanceof VmInstance instance))
+            throw runtimeError(String.format("The %s is not applicable to given object.", name));
+
+        // A field holding a function shadows the method of the same name.
+        LoxValue field = instance.fields.get(name);
+        if (field != null) {
+            stack[sp - argc - 1] = field;
+            callValue(field, argc, tail);
+            return;
+        }
+        invokeFromClass(instance.getLoxClass(), name, argc, tail);
+    }
+
+    private void invokeFromClass(VmClass clazz, String name, int argc, boolean tail) throws VisitException {
+        VmClosure method = clazz.findMethod(name);
+        if (method == null)
+            throw runtimeError(String.format("The %s instance doesn't have field %s.", clazz, name));
+        call(method, argc, tail);
+    }
+
+    private VmBoundMethod bindMethod(LoxValue receiver, VmClass clazz, String name) throws VisitException {
+        VmClosure method = clazz.findMethod(name);
+        if (method == null)
+            throw runtimeError(String.format("The %s instance doesn't have field %s.", clazz, name));
+        return new VmBoundMethod(receiver, method);
+    }
+
+    ////////////////////
+    // Upvalues       //
+    ////////////////////
+    private VmUpvalue captureUpvalue(int slot) {
+        VmUpvalue prev = null;
+        VmUpvalue upvalue = openUpvalues;
+        while (upvalue != null && upvalue.slot > slot) {
+            prev = upvalue;
+            upvalue = upvalue.next;
+        }
+        if (upvalue != null && upvalue.slot == slot)
+            return upvalue;
+
+        VmUpvalue created = new VmUpvalue(slot, upvalue);
+        if (prev == null) {
+            openUpvalues = created;
+        } else {
+            prev.next = created;
+        }
+        return created;
+    }
+
+    private void closeUpvalues(int last) {
+        while (openUpvalues != null && openUpvalues.slot >= last) {
+            VmUpvalue upvalue = openUpvalues;
+            upvalue.closed = (LoxValue) stack[upvalue.slot];
+            upvalue.slot = -1;
+            openUpvalues = upvalue.next;
+            upvalue.next = null;
+        }
+    }
+
+    ////////////////////
+    // Errors         //
+    ////////////////////
+    private VisitException runtimeError(String message) {
+        return new VisitException(message);
+    }
+
+    // The innermost call ends with the value a return without one would give.
+    private void fail() {
+        CallFrame frame = frames[frameCount - 1];
+        VmFunction function = frame.closure.function();
+        lox.report(function.line(), String.format(" at '%s'", function.name()), String.format("Error in %s function call.", function.name()));
+        LoxValue result = function.isInitializer() ? (LoxValue) stack[frame.base] : LoxValue.Intern.NIL;
+        closeUpvalues(frame.base);
+        frameCount--;
+        Arrays.fill(stack, frame.base, Math.max(sp, frame.base), null);
+        sp = frame.base;
+        push(result);
+    }
+
+    // The name as the Token the tree walker would show, on the line being run in frame.
+    private static Token token(String name, CallFrame frame) {
+        int line = frame.closure.function().chunk().lineAt(Math.max(frame.ip - 1, 0));
+        return new Token(TokenType.IDENTIFIER, name, Optional.empty(), line);
+    }
+}
@@ -0,0 +1,8 @@
+package com.craftinginterpreters.lox;
+
+public record VmBoundMethod(LoxValue receiver, VmClosure method) implements VmObject {
+    @Override
+    public String toString() {
+        return method.toString();
+    }
+}
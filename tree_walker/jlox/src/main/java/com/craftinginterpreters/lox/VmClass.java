@@ -0,0 +1,45 @@
+package com.craftinginterpreters.lox;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+public final class VmClass implements VmObject {
+    private final String name;
+    private final Map<String, VmClosure> methods = new HashMap<>();
+    private Optional<VmClosure> initializer = Optional.empty();
+
+    public VmClass(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    // Methods are copied down on OpCode.INHERIT, so a lookup never walks the superclass chain.
+    public VmClosure findMethod(String name) {
+        return methods.get(name);
+    }
+
+    public Optional<VmClosure> initializer() {
+        return initializer;
+    }
+
+    public void defineMethod(String name, VmClosure method) {
+        methods.put(name, method);
+        if (name.equals("init"))
+            initializer = Optional.of(method);
+    }
+
+    public void inherit(VmClass superclass) {
+        for (Map.Entry<String, VmClosure> method : superclass.methods.entrySet()) {
+            defineMethod(method.getKey(), method.getValue());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("<class %s>", name);
+    }
+}
@@ -0,0 +1,12 @@
+package com.craftinginterpreters.lox;
+
+public record VmClosure(VmFunction function, VmUpvalue[] upvalues) implements VmObject {
+    public VmClosure(VmFunction function) {
+        this(function, new VmUpvalue[function.upvalueCount()]);
+    }
+
+    @Override
+    public String toString() {
+        return function.toString();
+    }
+}
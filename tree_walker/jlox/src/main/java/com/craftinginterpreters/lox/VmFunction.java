@@ -0,0 +1,73 @@
+package com.craftinginterpreters.lox;
+
+// The compiled prototype of a function, closures over it are created at runtime by OpCode.CLOSURE.
+public final class VmFunction {
+    private final String name;
+    private final int arity;
+    // Where it's declared and whether it returns 'this', for when a runtime error ends a call to it.
+    private final int line;
+    private final boolean initializer;
+    private final Chunk chunk = new Chunk();
+    private int upvalueCount = 0;
+    private int maxStack = 0;
+
+    // Frozen by the Compiler once the body is emitted, read by the VM on every call.
+    byte[] code;
+    Object[] constants;
+
+    public VmFunction(String name, int arity) {
+        this(name, arity, 0, false);
+    }
+
+    public VmFunction(String name, int arity, int line, boolean initializer) {
+        this.name = name;
+        this.arity = arity;
+        this.line = line;
+        this.initializer = initializer;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public int arity() {
+        return arity;
+    }
+
+    public int line() {
+        return line;
+    }
+
+    public boolean isInitializer() {
+        return initializer;
+    }
+
+    public Chunk chunk() {
+        return chunk;
+    }
+
+    public int upvalueCount() {
+        return upvalueCount;
+    }
+
+    public int maxStack() {
+        return maxStack;
+    }
+
+    void setUpvalueCount(int upvalueCount) {
+        this.upvalueCount = upvalueCount;
+    }
+
+    void finish(int maxStack) {
+        this.maxStack = maxStack;
+        this.code = chunk.code();
+        this.constants = chunk.constants();
+    }
+
+    @Override
+    public String toString() {
+        if (name.isEmpty())
+            return "<script>";
+        return String.format("<fn %s>.", name);
+    }
+}
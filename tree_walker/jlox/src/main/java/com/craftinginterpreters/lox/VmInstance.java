@@ -0,0 +1,22 @@
+package com.craftinginterpreters.lox;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public final class VmInstance implements VmObject {
+    private final VmClass clazz;
+    final Map<String, LoxValue> fields = new HashMap<>();
+
+    public VmInstance(VmClass clazz) {
+        this.clazz = clazz;
+    }
+
+    public VmClass getLoxClass() {
+        return clazz;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("<%s instance>", clazz.getName());
+    }
+}
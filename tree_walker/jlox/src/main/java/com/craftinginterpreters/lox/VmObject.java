@@ -0,0 +1,10 @@
+package com.craftinginterpreters.lox;
+
+// Runtime values that only exist when running on the bytecode VM.
+public sealed interface VmObject extends LoxValue permits
+    VmClosure,
+    VmClass,
+    VmInstance,
+    VmBoundMethod
+{
+}
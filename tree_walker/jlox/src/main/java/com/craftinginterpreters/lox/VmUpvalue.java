@@ -0,0 +1,18 @@
+package com.craftinginterpreters.lox;
+
+// While open the variable still lives on the VM stack at 'slot', once the
+// enclosing frame returns the value is moved into 'closed' and slot becomes -1.
+public final class VmUpvalue {
+    int slot;
+    LoxValue closed = LoxValue.Intern.NIL;
+    VmUpvalue next;
+
+    public VmUpvalue(int slot, VmUpvalue next) {
+        this.slot = slot;
+        this.next = next;
+    }
+
+    public boolean isOpen() {
+        return slot >= 0;
+    }
+}
@@ -2,6 +2,8 @@ package com.craftinginterpreters.lox;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.lang.ref.WeakReference;
+import java.util.List;
 import java.util.Optional;
 
 import static com.craftinginterpreters.lox.TokenType.*;
@@ -33,7 +35,7 @@ public class EnvironmentTest {
         Token a = new Token(IDENTIFIER, "a", Optional.empty(), 1);
 
         LoxValue str = new LoxStr("asdfaf");
-        env.define(a.lexeme(), str);
+        env.define(a.symbol(), str);
         assertEnvGetMatchValue(env, a, str);
     }
 
@@ -44,7 +46,7 @@ public class EnvironmentTest {
 
         LoxValue str1 = new LoxStr("asdfaf");
         LoxValue str2 = new LoxStr("nfqsns");
-        env.define(a.lexeme(), str1);
+        env.define(a.symbol(), str1);
         assertEnvGetMatchValue(env, a, str1);
         try {
             env.assign(a, str2);
@@ -60,7 +62,7 @@ public class EnvironmentTest {
 
         LoxValue str1 = new LoxStr("asdfaf");
         LoxValue str2 = new LoxStr("nfqsns");
-        outer.define(a.lexeme(), str1);
+        outer.define(a.symbol(), str1);
         assertEnvGetMatchValue(outer, a, str1);
         Environment env = new Environment(outer);
         try {
@@ -104,7 +106,7 @@ public class EnvironmentTest {
         Token a = new Token(IDENTIFIER, "a", Optional.empty(), 1);
 
         LoxValue str = new LoxStr("asdfaf");
-        env.define(a.lexeme(), str);
+        env.define(a.symbol(), str);
         Environment inner = new Environment(env);
         assertEnvGetMatchValue(inner, a, str);
     }
@@ -130,4 +132,120 @@ public class EnvironmentTest {
 
         assertEnvThrows(env, a);
     }
+
+    @Test
+    public void shouldDefineLocalsInSlotOrder() {
+        Environment env = new Environment(new Environment());
+        LoxValue str1 = new LoxStr("asdfaf");
+        LoxValue str2 = new LoxStr("nfqsns");
+
+        assertEquals(0, env.define(str1));
+        assertEquals(1, env.define(str2));
+        try {
+            assertEquals(str1, env.getAt(0, 0));
+            assertEquals(str2, env.getAt(0, 1));
+        } catch (EnvironmentException ee) {
+            assertTrue(false, "Expected both slots to be defined.");
+        }
+    }
+
+    @Test
+    public void shouldGrowFrameBeyondDefaultSize() {
+        Environment env = new Environment(new Environment());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, env.define(new LoxNum(i)));
+        }
+        try {
+            assertEquals(new LoxNum(42), env.getAt(0, 42));
+        } catch (EnvironmentException ee) {
+            assertTrue(false, "Expected slot 42 to be defined.");
+        }
+    }
+
+    @Test
+    public void shouldAssignSlotInAncestorFrame() {
+        Environment outer = new Environment(new Environment());
+        outer.define(new LoxStr("asdfaf"));
+        Environment inner = new Environment(new Environment(outer));
+        LoxValue str = new LoxStr("nfqsns");
+        try {
+            inner.assignAt(2, 0, str);
+            assertEquals(str, inner.getAt(2, 0));
+            assertEquals(str, outer.getAt(0, 0));
+        } catch (EnvironmentException ee) {
+            assertTrue(false, "Expected slot 0 to be defined two frames up.");
+        }
+    }
+
+    @Test
+    public void shouldThrowIfSlotIsNotDefined() {
+        Environment env = new Environment(new Environment());
+        assertThrows(EnvironmentException.class, () -> env.getAt(0, 0), "Should throw if the slot was never defined.");
+    }
+
+    @Test
+    public void shouldShareCapturedSlotWithTheFrame() {
+        Environment outer = new Environment(new Environment());
+        outer.define(new LoxStr("asdfaf"));
+        outer.define(new LoxStr("unused"));
+        Environment inner = new Environment(outer);
+        Upvalue[] upvalues = inner.capture(List.of(new Stmt.Capture(true, 1, 0)));
+        assertEquals(1, upvalues.length, "Expected a closure to capture only the slot it reads.");
+        LoxValue str = new LoxStr("nfqsns");
+        try {
+            outer.set(0, str);
+            assertEquals(str, upvalues[0].get(), "Expected the closure to see the frame's assignment.");
+            upvalues[0].set(new LoxNum(1));
+            assertEquals(new LoxNum(1), outer.getAt(0, 0), "Expected the frame to see the closure's assignment.");
+        } catch (EnvironmentException ee) {
+            assertTrue(false, "Expected slot 0 to stay defined once captured.");
+        }
+        outer.reset(new Environment());
+        outer.define(new LoxStr("fresh"));
+        assertEquals(new LoxNum(1), upvalues[0].get(), "Expected a reused frame to leave the old Upvalue alone.");
+    }
+
+    @Test
+    public void shouldLetGoOfWhatAPoppedFrameHeld() throws InterruptedException {
+        Interpreter interpreter = new Interpreter(new Lox());
+        List<WeakReference<Object>> held = pushAndPopFrame(interpreter);
+        for (int i = 0; i < 20 && held.stream().anyMatch(ref -> ref.get() != null); i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(held.get(0).get(), "Expected a popped frame not to keep its locals alive.");
+        assertNull(held.get(1).get(), "Expected a popped frame not to keep its enclosing frame alive.");
+        assertNull(held.get(2).get(), "Expected a popped frame not to keep its upvalues alive.");
+        assertNull(held.get(3).get(), "Expected a popped frame not to keep its captured slots alive.");
+    }
+
+    private List<WeakReference<Object>> pushAndPopFrame(Interpreter interpreter) {
+        Environment closure = new Environment(interpreter.getGlobals());
+        Environment frame = interpreter.pushFrame(closure);
+        Upvalue upvalue = new Upvalue(new LoxStr("upvalue"));
+        frame.bindUpvalues(new Upvalue[] { upvalue });
+        LoxValue local = new LoxStr("local");
+        frame.define(local);
+        Upvalue captured = new Environment(frame).capture(List.of(new Stmt.Capture(true, 1, 0)))[0];
+        interpreter.popFrame();
+        return List.of(new WeakReference<>(local), new WeakReference<>(closure),
+                       new WeakReference<>(upvalue), new WeakReference<>(captured));
+    }
+
+    @Test
+    public void shouldKeepOneCellPerGlobal() {
+        Environment globals = new Environment();
+        Environment.Global cell = globals.global(Symbol.of("a"));
+        assertThrows(EnvironmentException.class, () -> cell.get(), "Should throw while a is only referenced.");
+        assertThrows(EnvironmentException.class, () -> cell.set(new LoxNum(1)), "Should not assign an undefined global.");
+        globals.define(Symbol.of("a"), new LoxNum(1));
+        globals.define(Symbol.of("a"), new LoxNum(2));
+        assertSame(cell, globals.global(Symbol.of("a")), "Expected redefining a to keep its cell.");
+        try {
+            assertEquals(new LoxNum(2), cell.get(), "Expected the cell to hold the latest definition.");
+        } catch (EnvironmentException ee) {
+            assertTrue(false, "Expected a to be defined.");
+        }
+        assertEnvThrows(globals, new Token(IDENTIFIER, "b", Optional.empty(), 1));
+    }
 }
@@ -0,0 +1,45 @@
+package com.craftinginterpreters.lox;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+public class FlatAstTest {
+
+    private static final String SOURCE = """
+        class Base { init(x) { this.x = x; } get() { return this.x; } }
+        class Point < Base { get() { return super.get() + 1; } }
+        fun make(a, b) {
+            var p = Point(a);
+            p.y = -b;
+            if (!(p.get() <= 2) and p.y != nil or false) print "✓"; else { print true; }
+            for (var i = 0; i < 3; i = i + 1) { while (i > 10) return; }
+            return (p.y = p.x * 2.5 / 1 - b);
+        }
+        var unset;
+        print make(1, 2);
+        """;
+
+    @Test
+    public void shouldViewTheRecordsTheParserMade() {
+        Lox lox = new Lox();
+        List<Stmt> expected = new Parser(lox, new Scanner(lox, SOURCE).scanTokens()).parse();
+        FlatAst flat = new Parser(lox, new Scanner(lox, SOURCE).scanTokens()).parseFlat();
+        assertFalse(lox.hasErrored(), "Expected the source to parse without errors.");
+        assertEquals(expected.size(), flat.size());
+        assertEquals(expected, flat.view());
+        assertEquals(expected.get(2), flat.statement(2));
+        assertNotSame(flat.statement(2), flat.statement(2), "Expected every view to be made anew.");
+    }
+
+    @Test
+    public void shouldBeEmptyAfterAParseError() {
+        Lox lox = new Lox();
+        FlatAst flat = new Parser(lox, new Scanner(lox, "var a = 1; print a +;").scanTokens()).parseFlat();
+        assertTrue(lox.hasErrored(), "Expected the missing operand to be an error.");
+        assertEquals(0, flat.size());
+        assertTrue(flat.view().isEmpty(), "Expected nothing to view.");
+    }
+}
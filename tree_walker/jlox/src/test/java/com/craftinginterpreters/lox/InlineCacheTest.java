@@ -0,0 +1,86 @@
+package com.craftinginterpreters.lox;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import static com.craftinginterpreters.lox.TokenType.*;
+
+import org.junit.jupiter.api.Test;
+
+public class InlineCacheTest {
+
+    private static Token name(String lexeme) {
+        return new Token(IDENTIFIER, lexeme, Optional.empty(), 1);
+    }
+
+    @Test
+    public void shouldGoFromMonomorphicToMegamorphic() {
+        InlineCache cache = new InlineCache();
+        assertEquals(InlineCache.State.UNINITIALIZED, cache.state());
+        Object[] keys = new Object[InlineCache.POLYMORPHIC_LIMIT + 1];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = new Object();
+            assertEquals(-1, cache.find(keys[i]));
+            cache.add(keys[i], i, null);
+            InlineCache.State expected = i == 0 ? InlineCache.State.MONOMORPHIC
+                : i < InlineCache.POLYMORPHIC_LIMIT ? InlineCache.State.POLYMORPHIC
+                : InlineCache.State.MEGAMORPHIC;
+            assertEquals(expected, cache.state(), String.format("Unexpected state after %d keys.", i + 1));
+        }
+        assertEquals(-1, cache.find(keys[0]), "Expected a megamorphic site to miss.");
+        assertEquals(0, cache.hits());
+        assertEquals(keys.length + 1, cache.misses());
+    }
+
+    @Test
+    public void shouldHitOnSameShape() throws LoxInstance.InstanceException {
+        LoxClass clazz = new LoxClass("Point", Optional.empty(), new HashMap<>());
+        InlineCache setter = new InlineCache();
+        InlineCache getter = new InlineCache();
+        for (int i = 0; i < 3; i++) {
+            LoxInstance point = new LoxInstance(clazz);
+            point.set(name("x"), new LoxNum(i), setter);
+            assertEquals(new LoxNum(i), point.get(name("x"), getter));
+        }
+        assertEquals(InlineCache.State.MONOMORPHIC, setter.state());
+        assertEquals(2, setter.hits());
+        assertEquals(2, getter.hits());
+    }
+
+    @Test
+    public void shouldCacheMethodsAndStillBindThem() throws LoxInstance.InstanceException, EnvironmentException {
+        Lox lox = new Lox();
+        Parser parser = new Parser(lox, new Scanner(lox, "class A { m() { return this; } }").scanTokens());
+        Stmt.Class declaration = (Stmt.Class) parser.parse().get(0);
+        Map<Symbol, LoxFunction> methods = new HashMap<>();
+        methods.put(Symbol.of("m"), new LoxFunction(declaration.methods().get(0), new Environment(), false));
+        LoxClass clazz = new LoxClass("A", Optional.empty(), methods);
+
+        InlineCache cache = new InlineCache();
+        LoxInstance first = new LoxInstance(clazz);
+        LoxInstance second = new LoxInstance(clazz);
+        LoxValue boundFirst = first.get(name("m"), cache);
+        LoxValue boundSecond = second.get(name("m"), cache);
+        assertEquals(1, cache.hits());
+        assertTrue(boundSecond instanceof LoxFunction fn && fn.closure().getAt(0, 0) == second,
+                   String.format("Expected <%s> to be bound to the second instance.", boundSecond));
+        assertNotSame(boundFirst, boundSecond);
+    }
+
+    @Test
+    public void shouldCountACallThroughAFieldOnce() throws LoxInstance.InstanceException {
+        LoxClass clazz = new LoxClass("Box", Optional.empty(), new HashMap<>());
+        InlineCache cache = new InlineCache();
+        for (int i = 0; i < 3; i++) {
+            LoxInstance box = new LoxInstance(clazz);
+            box.set(name("f"), new LoxNum(i));
+            assertNull(box.method(name("f"), cache), "Expected a field not to be taken for a method.");
+            assertEquals(new LoxNum(i), box.field(name("f"), cache));
+        }
+        assertEquals(1, cache.misses(), "Expected only the first call to miss.");
+        assertEquals(2, cache.hits(), "Expected one hit per call after the first.");
+    }
+}
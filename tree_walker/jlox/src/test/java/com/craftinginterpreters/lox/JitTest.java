@@ -0,0 +1,182 @@
+package com.craftinginterpreters.lox;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.ref.WeakReference;
+import java.util.List;
+import java.util.Optional;
+
+public class JitTest {
+
+    private Stmt.Function functionGivenSource(String source) {
+        Lox lox = new Lox(Lox.Engine.JIT);
+        List<Stmt> program = new Parser(lox, new Scanner(lox, source).scanTokens()).parse();
+        new Resolver(new Interpreter(lox)).resolve(program);
+        assertFalse(lox.hasErrored(), "Expected the source to resolve without errors.");
+        return (Stmt.Function) program.get(0);
+    }
+
+    private String runGivenSource(String source, int threshold) {
+        Lox lox = new Lox(Lox.Engine.JIT);
+        Interpreter interpreter = new Interpreter(lox, Optional.of(new Jit(threshold)));
+        List<Stmt> program = new Parser(lox, new Scanner(lox, source).scanTokens()).parse();
+        new Resolver(interpreter).resolve(program);
+
+        PrintStream stdout = System.out;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            System.setOut(new PrintStream(out));
+            interpreter.interpret(program);
+        } catch (VisitException e) {
+            assertTrue(false, String.format("Unexpected runtime error: %s", e.getMessage()));
+        } finally {
+            System.setOut(stdout);
+        }
+        return out.toString();
+    }
+
+    @Test
+    public void shouldCompileFunctionOnceItIsHot() {
+        Stmt.Function fib = functionGivenSource("fun fib(n) { if (n < 2) return n; return fib(n - 1) + fib(n - 2); }");
+        Jit jit = new Jit(3);
+        jit.codeFor(fib);
+        jit.codeFor(fib);
+        assertTrue(fib.profile().code().isEmpty(), "Expected the function to stay interpreted below the threshold.");
+        assertFalse(jit.codeFor(fib).isEmpty(), "Expected the function to be compiled at the threshold.");
+    }
+
+    @Test
+    public void shouldLeaveUncompilableFunctionToTheInterpreter() {
+        StringBuilder source = new StringBuilder("fun wide() {");
+        for (int i = 0; i < 300; i++) {
+            source.append(String.format(" var v%d = %d;", i, i));
+        }
+        Stmt.Function wide = functionGivenSource(source.append(" }").toString());
+        Jit jit = new Jit(1);
+        assertTrue(jit.codeFor(wide).isEmpty(), "Expected no code for a function with more locals than a class file allows.");
+        assertTrue(wide.profile().isRejected(), "Expected the function to be marked as rejected.");
+    }
+
+    @Test
+    public void shouldCompileClosuresAndClasses() {
+        String source = """
+            fun make() {
+                var count = 0;
+                class Counter { inc() { count = count + 1; return count; } }
+                fun twice(c) { c.inc(); return c.inc(); }
+                return twice(Counter());
+            }
+            class A { name() { return "A"; } }
+            class B < A { name() { return "B" + super.name(); } }
+            fun run() { print make(); print B().name(); }
+            run();
+            run();
+            """;
+        assertEquals(runGivenSource(source, Integer.MAX_VALUE), runGivenSource(source, 1));
+    }
+
+    @Test
+    public void shouldMatchInterpreterOutput() {
+        String source = """
+            class P { init(x) { this.x = x; } get() { return this.x; } }
+            fun sum(n) { var s = 0; var i = 0; while (i < n) { { var t = i * 2; s = s + t; } i = i + 1; } return s; }
+            fun bump(p, k) { p.x = p.x + k; return p.get() and (nil or "ok"); }
+            var p = P(0);
+            var last;
+            for (var i = 0; i < 5; i = i + 1) { last = sum(4) + p.x; bump(p, 1); }
+            print last;
+            print sum(4);
+            print p.get();
+            print bump(p, 1);
+            """;
+        assertEquals(runGivenSource(source, Integer.MAX_VALUE), runGivenSource(source, 1));
+    }
+
+    @Test
+    public void shouldPassArgumentsOfEveryArity() {
+        String source = """
+            fun f0() { return 0; }
+            fun f1(a) { return a; }
+            fun f2(a, b) { return a - b; }
+            fun f3(a, b, c) { return a - b - c; }
+            fun f4(a, b, c, d) { return a - b - c - d; }
+            fun f5(a, b, c, d, e) { return a - b - c - d - e; }
+            class C { init(a, b, c) { this.s = a + b + c; } add(a, b, c, d) { return this.s + a + b + c + d; } }
+            for (var i = 0; i < 3; i = i + 1) {
+              print f0() + f1(1) + f2(9, 2) + f3(9, 2, 1) + f4(9, 2, 1, 1) + f5(9, 2, 1, 1, 1);
+              print C(1, 2, 3).add(1, 2, 3, 4);
+            }
+            """;
+        String interpreted = runGivenSource(source, Integer.MAX_VALUE);
+        assertEquals("23.000000\n16.000000\n".repeat(3), interpreted);
+        assertEquals(interpreted, runGivenSource(source, 1));
+    }
+
+    @Test
+    public void shouldRunTailCallsInConstantStack() {
+        String source = """
+            fun even(n) { if (n == 0) return true; return odd(n - 1); }
+            fun odd(n) { if (n == 0) return false; return even(n - 1); }
+            class Loop { run(n, acc) { if (n == 0) return acc; return this.run(n - 1, acc + 1); } }
+            print even(200001);
+            print Loop().run(200000, 0);
+            """;
+        String interpreted = runGivenSource(source, Integer.MAX_VALUE);
+        assertEquals("false\n200000.000000\n", interpreted);
+        assertEquals(interpreted, runGivenSource(source, 1));
+    }
+
+    @Test
+    public void shouldPassTheVerifierWithoutStackMaps() throws Exception {
+        Stmt.Function branches = functionGivenSource("""
+            fun branches(n) {
+                var s = 0;
+                while (s < n) { if (s == 2 and n > 3 or !n) s = s + 2; else s = s + 1; }
+                return s;
+            }
+            """);
+        byte[] bytes = new JitCompiler().compile(branches).bytes();
+        assertEquals(49, ((bytes[6] & 0xff) << 8) | (bytes[7] & 0xff), "Expected a class file older than stack maps.");
+        // Jit.codeFor turns a VerifyError into a rejected function, defining the class here lets it through.
+        Class<?> clazz = MethodHandles.lookup().defineHiddenClass(bytes, true).lookupClass();
+        assertTrue(Jit.Code.class.isAssignableFrom(clazz), "Expected the verified class to implement Jit.Code.");
+    }
+
+    @Test
+    public void shouldUnloadCodeOfUnreachableFunction() throws InterruptedException {
+        WeakReference<Class<?>> clazz = compileAndForget();
+        for (int i = 0; i < 20 && clazz.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(clazz.get(), "Expected the hidden class to be unloaded with its function.");
+    }
+
+    private WeakReference<Class<?>> compileAndForget() {
+        Stmt.Function square = functionGivenSource("fun square(n) { return n * n; }");
+        Optional<Jit.Code> code = new Jit(1).codeFor(square);
+        assertFalse(code.isEmpty(), "Expected the function to be compiled.");
+        assertTrue(code.get().getClass().isHidden(), "Expected the code to live in a hidden class.");
+        return new WeakReference<>(code.get().getClass());
+    }
+
+    @Test
+    public void shouldReturnOutOfNestedLoopsWhenInterpreted() {
+        String source = """
+            fun find() {
+                var i = 0;
+                while (true) { { if (i == 3) return i; } i = i + 1; }
+            }
+            fun nothing() { while (false) {} }
+            print find();
+            print nothing();
+            print find() + 1;
+            """;
+        assertEquals("3.000000\nnil\n4.000000\n", runGivenSource(source, Integer.MAX_VALUE));
+    }
+}
@@ -0,0 +1,98 @@
+package com.craftinginterpreters.lox;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+public class JloxcTest {
+
+    // Loads the generated classes next to the runtime already on the classpath.
+    private static final class Loader extends ClassLoader {
+        private final Map<String, byte[]> classes;
+
+        Loader(Map<String, byte[]> classes) {
+            super(JloxcTest.class.getClassLoader());
+            this.classes = classes;
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            byte[] bytes = classes.get(name.replace('.', '/'));
+            if (bytes == null)
+                throw new ClassNotFoundException(name);
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+
+    private String capture(Runnable body) {
+        PrintStream stdout = System.out;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            System.setOut(new PrintStream(out));
+            body.run();
+        } finally {
+            System.setOut(stdout);
+        }
+        return out.toString();
+    }
+
+    private String interpret(String source) {
+        Lox lox = new Lox();
+        Interpreter interpreter = new Interpreter(lox);
+        List<Stmt> program = new Parser(lox, new Scanner(lox, source).scanTokens()).parse();
+        new Resolver(interpreter).resolve(program);
+        return capture(() -> {
+            try {
+                interpreter.interpret(program);
+            } catch (VisitException e) {
+                System.out.println(e.getMessage());
+            }
+        });
+    }
+
+    private String runCompiled(String source) throws ReflectiveOperationException {
+        Map<String, byte[]> classes = Jloxc.compile(source);
+        assertFalse(classes.isEmpty(), "Expected the source to compile.");
+        String main = classes.keySet().iterator().next().replace('/', '.');
+        Jit.Code script = (Jit.Code) new Loader(classes).loadClass(main).getConstructor().newInstance();
+
+        Interpreter interpreter = new Interpreter(new Lox(Lox.Engine.JIT), Optional.of(new Jit()));
+        return capture(() -> {
+            try {
+                script.run(interpreter, interpreter.getGlobals(), Upvalue.NONE, new LoxValue[0]);
+            } catch (VisitException e) {
+                System.out.println(e.getMessage());
+            }
+        });
+    }
+
+    @Test
+    public void shouldMatchInterpreterOutput() throws ReflectiveOperationException {
+        String source = """
+            var greeting = "hello";
+            fun counter() { var c = 0; fun inc() { c = c + 1; return c; } return inc; }
+            class A { init(x) { this.x = x; } name() { return "A" + this.x; } }
+            class B < A { name() { return "B" + super.name(); } }
+            {
+                var inc = counter();
+                inc();
+                print inc();
+                print B(1).name();
+            }
+            for (var i = 0; i < 3; i = i + 1) { print greeting + i; }
+            print nope;
+            """;
+        assertEquals(interpret(source), runCompiled(source));
+    }
+
+    @Test
+    public void shouldNotCompileSourceWithErrors() {
+        assertTrue(Jloxc.compile("print 1 +;").isEmpty(), "Expected no classes for a source with a syntax error.");
+    }
+}
@@ -0,0 +1,48 @@
+package com.craftinginterpreters.lox;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static com.craftinginterpreters.lox.TokenType.*;
+
+import org.junit.jupiter.api.Test;
+
+public class LoxClassTest {
+
+    private static LoxFunction method(String lexeme, int arity) {
+        List<Token> params = new ArrayList<>();
+        for (int i = 0; i < arity; i++) {
+            params.add(new Token(IDENTIFIER, "p" + i, Optional.empty(), 1));
+        }
+        Stmt.Function declaration = new Stmt.Function(new Token(IDENTIFIER, lexeme, Optional.empty(), 1), params, List.of());
+        return new LoxFunction(declaration, new Environment(), lexeme.equals("init"));
+    }
+
+    @Test
+    public void shouldFlattenInheritedMethods() {
+        LoxFunction speak = method("speak", 0);
+        LoxFunction walk = method("walk", 0);
+        LoxFunction bark = method("speak", 0);
+        LoxClass animal = new LoxClass("Animal", Optional.empty(), Map.of(Symbol.of("speak"), speak, Symbol.of("walk"), walk));
+        LoxClass middle = new LoxClass("Middle", Optional.of(animal), Map.of());
+        LoxClass dog = new LoxClass("Dog", Optional.of(middle), Map.of(Symbol.of("speak"), bark));
+
+        assertSame(walk, dog.findMethod(Symbol.of("walk")).orElseThrow(), "Expected Dog to inherit walk through Middle.");
+        assertSame(bark, dog.findMethod(Symbol.of("speak")).orElseThrow(), "Expected Dog's own speak to override Animal's.");
+        assertSame(speak, middle.findMethod(Symbol.of("speak")).orElseThrow(), "Expected the override not to leak into the superclass.");
+        assertTrue(dog.findMethod(Symbol.of("fly")).isEmpty(), "Expected no method fly.");
+        assertSame(dog.findMethod(Symbol.of("walk")), dog.findMethod(Symbol.of("walk")), "Expected lookups not to allocate a new Optional.");
+    }
+
+    @Test
+    public void shouldTakeArityFromInheritedInitializer() {
+        LoxClass point = new LoxClass("Point", Optional.empty(), Map.of(Symbol.of("init"), method("init", 2)));
+        LoxClass named = new LoxClass("Named", Optional.of(point), Map.of());
+        assertEquals(2, named.arity(), String.format("Expected arity 2, got %d.", named.arity()));
+        assertEquals(0, new LoxClass("Empty", Optional.empty(), Map.of()).arity());
+    }
+}
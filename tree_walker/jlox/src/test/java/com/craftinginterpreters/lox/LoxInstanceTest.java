@@ -0,0 +1,76 @@
+package com.craftinginterpreters.lox;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static com.craftinginterpreters.lox.TokenType.*;
+
+import org.junit.jupiter.api.Test;
+
+public class LoxInstanceTest {
+
+    private static Token name(String lexeme) {
+        return new Token(IDENTIFIER, lexeme, Optional.empty(), 1);
+    }
+
+    private static void assertFieldMatchValue(LoxInstance instance, String field, LoxValue expected) {
+        try {
+            LoxValue actual = instance.get(name(field));
+            assertEquals(expected, actual, String.format("Expected field %s to be <%s>, got <%s>.", field, expected, actual));
+        } catch (LoxInstance.InstanceException ie) {
+            assertTrue(false, String.format("Expected instance to have field %s, but it doesn't.", field));
+        }
+    }
+
+    @Test
+    public void shouldShareShapeBetweenInstancesBuiltTheSameWay() {
+        LoxClass clazz = new LoxClass("Node", Optional.empty(), new HashMap<>());
+        LoxInstance first = new LoxInstance(clazz);
+        LoxInstance second = new LoxInstance(clazz);
+        for (LoxInstance instance : new LoxInstance[] { first, second }) {
+            instance.set(name("val"), new LoxNum(1));
+            instance.set(name("tail"), LoxValue.Intern.NIL);
+        }
+        assertSame(first.getShape(), second.getShape(), "Expected both instances to end up in the same shape.");
+        assertEquals(2, first.getShape().size());
+    }
+
+    @Test
+    public void shouldOverwriteFieldInPlace() {
+        LoxInstance instance = new LoxInstance(new LoxClass("A", Optional.empty(), new HashMap<>()));
+        instance.set(name("x"), new LoxNum(1));
+        Shape shape = instance.getShape();
+        instance.set(name("x"), new LoxNum(2));
+        assertSame(shape, instance.getShape(), "Expected assigning an existing field to keep the shape.");
+        assertFieldMatchValue(instance, "x", new LoxNum(2));
+    }
+
+    @Test
+    public void shouldFallBackToDictionaryForPathologicalObjects() {
+        LoxInstance instance = new LoxInstance(new LoxClass("Bag", Optional.empty(), new HashMap<>()));
+        for (int i = 0; i <= Shape.MAX_FIELDS; i++) {
+            instance.set(name("f" + i), new LoxNum(i));
+        }
+        assertTrue(instance.isDictionary(), "Expected the instance to move to dictionary mode.");
+        assertFieldMatchValue(instance, "f0", new LoxNum(0));
+        assertFieldMatchValue(instance, "f" + Shape.MAX_FIELDS, new LoxNum(Shape.MAX_FIELDS));
+    }
+
+    @Test
+    public void shouldFindMethodUnlessShadowedByField() {
+        Stmt.Function declaration = new Stmt.Function(name("area"), List.of(), List.of());
+        LoxFunction area = new LoxFunction(declaration, new Environment(), false);
+        LoxInstance instance = new LoxInstance(new LoxClass("Square", Optional.empty(), Map.of(Symbol.of("area"), area)));
+        InlineCache cache = new InlineCache();
+        assertSame(area, instance.method(name("area"), cache), "Expected the unbound method.");
+        assertSame(area, instance.method(name("area"), cache), "Expected the cached unbound method.");
+        assertNull(instance.method(name("side"), new InlineCache()), "Expected no method side.");
+
+        instance.set(name("area"), new LoxNum(4));
+        assertNull(instance.method(name("area"), cache), "Expected the field to shadow the method.");
+    }
+}
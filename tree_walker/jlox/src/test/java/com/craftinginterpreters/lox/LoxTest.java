@@ -0,0 +1,88 @@
+package com.craftinginterpreters.lox;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+public class LoxTest {
+
+    // What a script printed on stdout and stderr, and the code the process would exit with.
+    private static record Outcome(String out, String err, int exitCode) {  }
+
+    private Outcome runGivenSource(Lox.Engine engine, String source) {
+        Lox lox = new Lox(engine);
+        PrintStream stdout = System.out;
+        PrintStream stderr = System.err;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        try {
+            System.setOut(new PrintStream(out));
+            System.setErr(new PrintStream(err));
+            lox.run(source);
+        } finally {
+            System.setOut(stdout);
+            System.setErr(stderr);
+        }
+        return new Outcome(out.toString(), err.toString(), lox.exitCode());
+    }
+
+    // runGivenSource on a thread of its own, with a Java stack of stackSize bytes.
+    private Outcome runGivenSourceOnStack(Lox.Engine engine, String source, long stackSize) throws InterruptedException {
+        Outcome[] outcome = new Outcome[1];
+        Thread thread = new Thread(null, () -> outcome[0] = runGivenSource(engine, source), "lox", stackSize);
+        thread.start();
+        thread.join();
+        return outcome[0];
+    }
+
+    private void assertSameOnEveryEngine(String source) {
+        Outcome expected = runGivenSource(Lox.Engine.TREE, source);
+        for (Lox.Engine engine : Lox.Engine.values()) {
+            Outcome outcome = runGivenSource(engine, source);
+            assertEquals(expected, outcome, String.format("Expected --engine=%s to run like the tree walker.", engine.flag()));
+        }
+    }
+
+    @Test
+    public void shouldEndOnlyTheFailingCallOnEveryEngine() {
+        String source = """
+            fun inner(x) { return x + nope; }
+            fun outer(x) { print "before"; var r = inner(x); print "after"; return r; }
+            print outer(1);
+            fun arity() { return inner(); }
+            print arity();
+            class A {
+                init(x) { this.x = x; this.y = x < "s"; }
+                m() { return this.missing; }
+            }
+            var a = A(1);
+            print a.x;
+            print a.m();
+            print "end";
+            """;
+        Outcome outcome = runGivenSource(Lox.Engine.TREE, source);
+        assertEquals(65, outcome.exitCode());
+        assertTrue(outcome.out().endsWith("end\n"), String.format("Expected the script to run to the end, got <%s>.", outcome.out()));
+        assertSameOnEveryEngine(source);
+    }
+
+    @Test
+    public void shouldStopOnTopLevelErrorsOnEveryEngine() {
+        assertSameOnEveryEngine("print 1;\nprint nope;\nprint 2;");
+        assertSameOnEveryEngine("var a = 1;\nnope = a;");
+        assertSameOnEveryEngine("fun f() { return \"a\" * 2; }\nprint f();\nprint 1 < \"a\";");
+        assertEquals(70, runGivenSource(Lox.Engine.VM, "print \"a\" * 2;").exitCode());
+    }
+
+    @Test
+    public void shouldRecurseAsDeepOnTheTreeWalker() throws InterruptedException {
+        // A Lox call costs the tree walker as many Java frames as the plain walker did, which fit
+        // about 190 of these calls in 512k. With a frame more per call layer it got to about 150.
+        String source = "fun d(n) { if (n == 0) return 0; return 1 + d(n - 1); }\nprint d(180);";
+        Outcome outcome = runGivenSourceOnStack(Lox.Engine.TREE, source, 512 * 1024);
+        assertEquals(new Outcome("180.000000\n", "", 0), outcome, "Expected 180 nested calls to fit in a 512k stack.");
+    }
+}
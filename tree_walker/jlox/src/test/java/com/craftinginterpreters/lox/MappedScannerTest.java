@@ -0,0 +1,66 @@
+package com.craftinginterpreters.lox;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+public class MappedScannerTest {
+
+    private static MappedScanner scannerOf(String source) {
+        return new MappedScanner(new Lox(), ByteBuffer.wrap(source.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static List<Token> scanBytes(String source) {
+        return scannerOf(source).scanTokens();
+    }
+
+    private static final String SOURCE = """
+        class Point < Base { init(x) { this.x = x; } }
+        var s = "héllo ✓ wörld"; // comment ✓
+        if (!(a <= 1.25) and b != 10 or c >= 3) print nil; else print true == false;
+        while (i > 0) { i = i - 1 / 2 * 3.0 + 12345678901234567890; }
+        return super.f(this, 0.1);
+        """;
+
+    @Test
+    public void shouldProduceTheTokensOfTheScanner() {
+        assertEquals(new Scanner(new Lox(), SOURCE).scanTokens(), scanBytes(SOURCE));
+    }
+
+    @Test
+    public void shouldBufferTheTokensOfTheScanner() {
+        List<Token> expected = new Scanner(new Lox(), SOURCE).scanTokens();
+        TokenBuffer buffer = scannerOf(SOURCE).scanBuffer();
+        assertEquals(expected.size(), buffer.size());
+        for (int i = 0; i < buffer.size(); i++) {
+            assertEquals(expected.get(i), buffer.token(i));
+        }
+    }
+
+    @Test
+    public void shouldParseTheSameFromTheBuffer() {
+        String source = "fun f(a, b) { return a + b * 2.5; } var s = \"✓\"; if (!nil) print f(1, 2) == s;";
+        Lox lox = new Lox();
+        List<Stmt> expected = new Parser(lox, new Scanner(lox, source).scanTokens()).parse();
+        assertEquals(expected, new Parser(lox, scannerOf(source).scanBuffer().cursor()).parse());
+        assertFalse(lox.hasErrored(), "Expected the source to parse without errors.");
+    }
+
+    @Test
+    public void shouldShareLexemesOfRepeatedNames() {
+        List<Token> tokens = scanBytes("count = count + 1.5 + 1.5;");
+        assertSame(tokens.get(0).lexeme(), tokens.get(2).lexeme(), "Expected one String for both 'count'.");
+        assertSame(tokens.get(4).literal().get(), tokens.get(6).literal().get(), "Expected 1.5 to be parsed once.");
+    }
+
+    @Test
+    public void shouldReportWhatTheScannerReports() {
+        Lox lox = new Lox();
+        new MappedScanner(lox, ByteBuffer.wrap("var é = \"open".getBytes(StandardCharsets.UTF_8))).scanTokens();
+        assertTrue(lox.hasErrored(), "Expected the stray character and the unterminated string to be errors.");
+    }
+}
@@ -0,0 +1,148 @@
+package com.craftinginterpreters.lox;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.List;
+
+public class NodeTest {
+
+    private List<Stmt> resolveGivenSource(Lox lox, String source) {
+        List<Stmt> program = new Parser(lox, new Scanner(lox, source).scanTokens()).parse();
+        new Resolver(new Interpreter(lox)).resolve(program);
+        assertFalse(lox.hasErrored(), "Expected the source to resolve without errors.");
+        return program;
+    }
+
+    private String runGivenSource(String source) {
+        Lox lox = new Lox(Lox.Engine.NODES);
+        List<Stmt> program = resolveGivenSource(lox, source);
+        PrintStream stdout = System.out;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            System.setOut(new PrintStream(out));
+            new NodeEngine(lox).interpret(program);
+        } catch (VisitException e) {
+            assertTrue(false, String.format("Unexpected runtime error: %s", e.getMessage()));
+        } finally {
+            System.setOut(stdout);
+        }
+        return out.toString();
+    }
+
+    @Test
+    public void shouldReturnOutOfNestedLoops() {
+        String source = """
+            fun find() {
+                var i = 0;
+                while (true) { { if (i == 3) return i; } i = i + 1; }
+            }
+            print find();
+            """;
+        assertEquals("3.000000\n", runGivenSource(source));
+    }
+
+    @Test
+    public void shouldRunRecursiveFunction() {
+        String source = "fun fib(n) { if (n < 2) return n; return fib(n - 1) + fib(n - 2); } print fib(15);";
+        assertEquals("610.000000\n", runGivenSource(source));
+    }
+
+    @Test
+    public void shouldDispatchInitializerAndSuperMethods() {
+        String source = """
+            class A { init(x) { this.x = x; return; } name() { return "A" + this.x; } }
+            class B < A { name() { return "B" + super.name(); } }
+            {
+                var b = B(1);
+                print b.name();
+                print b.init(2) == b;
+            }
+            """;
+        assertEquals("BA1.000000\ntrue\n", runGivenSource(source));
+    }
+
+    @Test
+    public void shouldTurnRuntimeErrorsIntoVisitException() {
+        Lox lox = new Lox(Lox.Engine.NODES);
+        List<Stmt> program = resolveGivenSource(lox, "print 1 < \"a\";");
+        VisitException error = assertThrows(VisitException.class, () -> new NodeEngine(lox).interpret(program));
+        assertTrue(error.getMessage().contains("LESS"), String.format("Expected the LESS operator in <%s>.", error.getMessage()));
+    }
+
+    @Test
+    public void shouldDeoptimizeWithoutEvaluatingOperandsTwice() {
+        String source = """
+            var n = 0;
+            fun inc() { n = n + 1; return n; }
+            fun f(x) { return x + inc(); }
+            print f(1);
+            print f("s");
+            print n;
+            """;
+        assertEquals("2.000000\ns2.000000\n2.000000\n", runGivenSource(source));
+    }
+
+    @Test
+    public void shouldRunTailCallsInConstantStack() {
+        String source = """
+            fun even(n) { if (n == 0) return true; return odd(n - 1); }
+            fun odd(n) { if (n == 0) return false; return even(n - 1); }
+            class Loop { run(n, acc) { if (n == 0) return acc; return this.run(n - 1, acc + 1); } }
+            print even(200001);
+            print Loop().run(200000, 0);
+            """;
+        assertEquals("false\n200000.000000\n", runGivenSource(source));
+    }
+
+    @Test
+    public void shouldPassArgumentsOfEveryArity() {
+        String source = """
+            fun zero() { return "z"; }
+            fun two(a, b) { return a + b; }
+            fun five(a, b, c, d, e) { return a + b + c + d + e; }
+            fun loop(n, a, b, c, d) { if (n == 0) return a + b + c + d; return loop(n - 1, b, c, d, a); }
+            class P { init(x, y) { this.s = x + y; } }
+            print zero() + two("a", "b") + five("c", "d", "e", "f", "g");
+            print loop(3, "1", "2", "3", "4");
+            print P("h", "i").s;
+            """;
+        assertEquals("zabcdefg\n4123\nhi\n", runGivenSource(source));
+    }
+
+    @Test
+    public void shouldKeepCapturedLocalsOnceTheirFrameIsReused() {
+        String source = """
+            fun counter(start) { var n = start; fun next() { n = n + 1; return n; } return next; }
+            var a = counter(0);
+            var b = counter(10);
+            { var x = 100; for (var i = 0; i < 2; i = i + 1) { var y = i; } }
+            a();
+            print a();
+            print b();
+            """;
+        assertEquals("2.000000\n11.000000\n", runGivenSource(source));
+    }
+
+    @Test
+    public void shouldSpecializeOnObservedOperands() {
+        Node.ExprNode one = new Node.Constant(new LoxNum(1));
+        Node.ExprNode str = new Node.Constant(new LoxStr("a"));
+        Node.Add numbers = new Node.Add(one, one);
+        Node.Add strings = new Node.Add(str, str);
+        Node.Less mixed = new Node.Less(new Node.Multiply(one, one), numbers);
+        assertEquals(new LoxNum(2), numbers.execute(null));
+        assertEquals(new LoxStr("aa"), strings.execute(null));
+        assertEquals(LoxValue.Intern.TRUE, mixed.execute(null));
+        assertEquals(Node.NumericNode.State.NUMBER, numbers.state());
+        assertEquals(Node.NumericNode.State.STRING, strings.state());
+        assertEquals(Node.NumericNode.State.NUMBER, mixed.state());
+
+        Node.Add generic = new Node.Add(str, one);
+        assertEquals(new LoxStr("a1.000000"), generic.execute(null));
+        assertEquals(Node.NumericNode.State.GENERIC, generic.state());
+    }
+}
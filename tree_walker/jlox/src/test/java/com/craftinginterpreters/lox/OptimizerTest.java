@@ -0,0 +1,75 @@
+package com.craftinginterpreters.lox;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.EnumSet;
+import java.util.List;
+
+public class OptimizerTest {
+
+    private List<Stmt> parseGivenSource(String source) {
+        Lox lox = new Lox();
+        List<Stmt> program = new Parser(lox, new Scanner(lox, source).scanTokens()).parse();
+        new Resolver(new Interpreter(lox)).resolve(program);
+        assertFalse(lox.hasErrored(), "Expected the source to resolve without errors.");
+        return program;
+    }
+
+    @Test
+    public void shouldFoldConstantExpressions() {
+        Optimizer optimizer = new Optimizer(EnumSet.allOf(Optimizer.Pass.class));
+        List<Stmt> program = optimizer.optimize(parseGivenSource("print (1 + 2) * -3; print \"a\" + \"b\" + 1;"));
+        assertEquals(new Stmt.Print(new Expr.Literal(new LoxNum(-9))), program.get(0));
+        assertEquals(new Stmt.Print(new Expr.Literal(new LoxStr("ab1.000000"))), program.get(1));
+    }
+
+    @Test
+    public void shouldLeaveFailingOperationsToTheEngine() {
+        Optimizer optimizer = new Optimizer(EnumSet.allOf(Optimizer.Pass.class));
+        List<Stmt> program = optimizer.optimize(parseGivenSource("print 1 + \"a\";"));
+        assertTrue(program.get(0) instanceof Stmt.Print print && print.expression() instanceof Expr.Binary,
+                String.format("Expected the addition to stay, got %s.", program.get(0)));
+        assertEquals(0, optimizer.changes(Optimizer.Pass.FOLD));
+    }
+
+    @Test
+    public void shouldDropDeadBranchesAndEmptyScopes() {
+        Optimizer optimizer = new Optimizer(EnumSet.allOf(Optimizer.Pass.class));
+        List<Stmt> program = optimizer.optimize(parseGivenSource("if (false) print 1; else { print 2; } while (nil) print 3;"));
+        assertEquals(List.of(new Stmt.Print(new Expr.Literal(new LoxNum(2)))), program);
+        assertEquals(2, optimizer.changes(Optimizer.Pass.DEAD_BRANCHES));
+        assertEquals(1, optimizer.changes(Optimizer.Pass.SCOPES));
+    }
+
+    @Test
+    public void shouldOnlyRunEnabledPasses() {
+        Optimizer optimizer = new Optimizer(EnumSet.of(Optimizer.Pass.SCOPES));
+        List<Stmt> program = optimizer.optimize(parseGivenSource("{ var a = 1; { print a + 1; } }"));
+        Stmt.Block outer = (Stmt.Block) program.get(0);
+        assertTrue(outer.scoped(), "Expected the block declaring a variable to keep its scope.");
+        assertEquals(2, outer.statements().size());
+        assertTrue(outer.statements().get(1) instanceof Stmt.Print, "Expected the inner block to be spliced into the outer one.");
+        assertEquals(0, optimizer.changes(Optimizer.Pass.FOLD));
+        assertEquals("Optimizer: fold off dead-branches off grouping off scopes 1 counted-loops off", optimizer.report());
+    }
+
+    @Test
+    public void shouldRecognizeCountedLoops() {
+        Optimizer optimizer = new Optimizer(EnumSet.allOf(Optimizer.Pass.class));
+        List<Stmt> program = optimizer.optimize(parseGivenSource("""
+            {
+                for (var i = 0; i < 10; i = i + 2) { var x = i; print x; }
+                for (var j = 0; j < 10; j = j + 1) { j = j + 1; }
+                for (var k = 0; k < 10; k = k + 1) { fun f() { return k; } }
+            }
+            """));
+        assertEquals(1, optimizer.changes(Optimizer.Pass.COUNTED_LOOPS));
+        Stmt.Block first = (Stmt.Block) program.get(0);
+        Stmt.Counted counted = ((Stmt.While) first.statements().get(1)).counted().orElseThrow();
+        assertEquals(2.0, counted.step());
+        assertTrue(counted.scoped() && counted.readsCounter(), "Expected the body to read i in a frame of its own.");
+        assertEquals(2, counted.body().size());
+    }
+}
@@ -0,0 +1,104 @@
+package com.craftinginterpreters.lox;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import static com.craftinginterpreters.lox.Stmt.*;
+import static com.craftinginterpreters.lox.Expr.*;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+public class ResolverTest {
+
+    private List<Stmt> resolveGivenSource(String source) {
+        Lox lox = new Lox();
+        Scanner scanner = new Scanner(lox, source);
+        Parser parser = new Parser(lox, scanner.scanTokens());
+        List<Stmt> program = parser.parse();
+        new Resolver(new Interpreter(lox)).resolve(program);
+        assertFalse(lox.hasErrored(), "Expected the source to resolve without errors.");
+        return program;
+    }
+
+    @Test
+    public void shouldLeaveTopLevelVariablesGlobal() {
+        List<Stmt> program = resolveGivenSource("var a = 1; print a;");
+        Print print = (Print) program.get(1);
+        Variable a = (Variable) print.expression();
+        assertTrue(a.binding().isGlobal(), "Expected top level variable to be global.");
+    }
+
+    @Test
+    public void shouldResolveLocalsToDepthAndSlot() {
+        List<Stmt> program = resolveGivenSource("{ var a = 1; var b = 2; { print b; } }");
+        Block outer = (Block) program.get(0);
+        Block inner = (Block) outer.statements().get(2);
+        Variable b = (Variable) ((Print) inner.statements().get(0)).expression();
+        assertEquals(1, b.binding().depth());
+        assertEquals(1, b.binding().slot());
+    }
+
+    @Test
+    public void shouldResolveIdenticalExpressionsIndependently() {
+        // Condition and increment both read 'i' on the same line, from different scopes.
+        List<Stmt> program = resolveGivenSource("for (var i = 0; i < 2; i = i + 1) { print i; }");
+        Block loop = (Block) program.get(0);
+        While whileStmt = (While) loop.statements().get(1);
+        Variable inCondition = (Variable) ((Binary) whileStmt.condition()).left();
+        Block body = (Block) whileStmt.body();
+        Assign increment = (Assign) ((Expression) body.statements().get(1)).expression();
+        Variable inIncrement = (Variable) ((Binary) increment.value()).left();
+
+        assertEquals(inCondition, inIncrement);
+        assertEquals(0, inCondition.binding().depth());
+        assertEquals(1, inIncrement.binding().depth());
+    }
+
+    @Test
+    public void shouldCaptureOnlyTheVariablesClosuresUse() {
+        List<Stmt> program = resolveGivenSource("""
+            fun outer() { var a = 1; var b = 2; fun middle() { fun inner() { return a; } return inner; } return middle; }
+            """);
+        Function outer = (Function) program.get(0);
+        Function middle = (Function) outer.body().get(2);
+        Function inner = (Function) middle.body().get(0);
+        Variable a = (Variable) ((Return) inner.body().get(0)).value().get();
+
+        assertEquals(List.of(), outer.scope().upvalues(), "Expected a top level function to capture nothing.");
+        assertEquals(List.of(new Capture(true, 0, 0)), middle.scope().upvalues(),
+            String.format("Expected middle to take a from the frame of outer, got %s.", middle.scope().upvalues()));
+        assertEquals(List.of(new Capture(false, 0, 0)), inner.scope().upvalues(),
+            String.format("Expected inner to take a from the upvalues of middle, got %s.", inner.scope().upvalues()));
+        assertTrue(a.binding().isUpvalue(), String.format("Expected a to be read through an upvalue, got %s.", a.binding()));
+        assertEquals(0, a.binding().upvalue());
+    }
+
+    @Test
+    public void shouldMarkOnlyReturnsOfACall() {
+        List<Stmt> program = resolveGivenSource("fun f(n) { if (n < 1) return n; if (n < 2) return f(n - 2) + 1; return f(n - 1); }");
+        List<Stmt> body = ((Function) program.get(0)).body();
+        Return base = (Return) ((If) body.get(0)).thenBranch();
+        Return sum = (Return) ((If) body.get(1)).thenBranch();
+        Return tail = (Return) body.get(2);
+        assertFalse(base.tail().isMarked(), "Expected a return of a variable not to be a tail call.");
+        assertFalse(sum.tail().isMarked(), "Expected a call under an addition not to be a tail call.");
+        assertTrue(tail.tail().isMarked(), "Expected 'return f(n - 1)' to be a tail call.");
+    }
+
+    @Test
+    public void shouldLeaveAnnotationsOutOfEquality() {
+        String source = "fun f(n) { var o = A(); o.x = n; return f(o.x); }";
+        Lox lox = new Lox();
+        List<Stmt> parsed = new Parser(lox, new Scanner(lox, source).scanTokens()).parse();
+        List<Stmt> resolved = resolveGivenSource(source);
+        assertEquals(parsed, resolved, "Expected resolving not to change what the program is.");
+        assertEquals(parsed.hashCode(), resolved.hashCode());
+
+        Function declaration = (Function) resolved.get(0);
+        Return tail = (Return) declaration.body().get(2);
+        assertNotEquals(((Function) parsed.get(0)).profile(), declaration.profile(), "Expected a Profile to be equal to itself only.");
+        assertNotEquals(new Binding(), new Binding(), "Expected a Binding to be equal to itself only.");
+        assertNotEquals(new InlineCache(), ((Call) tail.value().get()).cache(), "Expected an InlineCache to be equal to itself only.");
+    }
+}
@@ -5,6 +5,11 @@ import static com.craftinginterpreters.lox.TokenType.*;
 
 import org.junit.jupiter.api.Test;
 
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
@@ -134,6 +139,47 @@ public class ScannerTest {
         testScanGivenSource(expecteds, sourceCode);
     }
 
+    @Test
+    public void shouldRecognizeExactlyTheKeywords() {
+        List<String> words = new ArrayList<>(Scanner.keywords.keySet());
+        words.addAll(List.of("a", "an", "ands", "f", "fa", "fals", "fo", "forr", "t", "th", "tru", "trues", "varr", "x", "_"));
+        for (String word : words) {
+            TokenType type = Scanner.keyword(word.toCharArray(), 0, word.length());
+            assertEquals(Scanner.keywords.getOrDefault(word, IDENTIFIER), type, String.format("Wrong type for '%s'.", word));
+        }
+    }
+
+    @Test
+    public void shouldInternNamesIntoSymbols() {
+        List<Token> tokens = new Scanner(new Lox(), "count = count; this.count").scanTokens();
+        Symbol count = tokens.get(0).symbol();
+        assertSame(count, tokens.get(2).symbol(), "Expected one Symbol for both 'count'.");
+        assertSame(count.name(), tokens.get(2).lexeme(), "Expected names to share the Symbol's String.");
+        assertSame(count, tokens.get(6).symbol(), "Expected a property name to be the same Symbol.");
+        assertSame(Symbol.THIS, tokens.get(4).symbol());
+        assertNull(tokens.get(1).symbol(), "Expected only names to have a Symbol.");
+        assertSame(count, Symbol.of(new String("count")));
+        assertSame(count, Symbol.of("a count".toCharArray(), 2, 7), "Expected chars to find the same Symbol.");
+        assertNotSame(count, Symbol.of("counts"), "Expected different names to be different Symbols.");
+        assertNotEquals(count, Symbol.of("Count"));
+    }
+
+    @Test
+    public void shouldLetGoOfNamesNothingRefersTo() throws InterruptedException {
+        Symbol kept = Symbol.of("keptName");
+        WeakReference<Symbol> dropped = new WeakReference<>(Symbol.of("droppedName"));
+        for (int i = 0; i < 20 && dropped.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(dropped.get(), "Expected the table not to keep a Symbol alive.");
+        // Enough names to rebuild the table a few times over.
+        for (int i = 0; i < 10_000; i++) {
+            Symbol.of("transient" + i);
+        }
+        assertSame(kept, Symbol.of("keptName"), "Expected a Symbol still referred to to survive rebuilds.");
+    }
+
     @Test
     public void shouldDetectLineChanges() {
         List<Token> expecteds = List.of(
@@ -189,4 +235,62 @@ public class ScannerTest {
         String sourceCode = "var x = 1 + 2;//create var\nx = x + 2;//do computation";
         testScanGivenSource(expecteds, sourceCode);
     }
+
+    // Hands out at most three characters a read, so tokens keep straddling the end of what's been read.
+    private static class TrickleReader extends FilterReader {
+        TrickleReader(String source) {
+            super(new StringReader(source));
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) throws IOException {
+            return super.read(buffer, offset, Math.min(length, 3));
+        }
+    }
+
+    private static String longSource() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            sb.append(String.format("var v%d = %d.5 >= 1; // note\n", i, i));
+        }
+        return sb.append('"').append("x".repeat(20000)).append("\"\nprint v1;").toString();
+    }
+
+    @Test
+    public void shouldLexFromAReaderLikeFromAString() {
+        String source = longSource();
+        List<Token> expecteds = new Scanner(new Lox(), source).scanTokens();
+        Iterator<Token> actuals = new Scanner(new Lox(), new TrickleReader(source)).tokens();
+        for (Token expected : expecteds) {
+            assertEquals(expected, actuals.next());
+        }
+        assertFalse(actuals.hasNext(), "Expected nothing after EOF.");
+    }
+
+    @Test
+    public void shouldHandTokensThroughThePipelineInOrder() {
+        String source = longSource();
+        List<Token> expecteds = new Scanner(new Lox(), source).scanTokens();
+        List<Token> actuals = new ArrayList<>();
+        try (TokenPipeline pipeline = new TokenPipeline(new Scanner(new Lox(), new TrickleReader(source)).tokens(), 2)) {
+            pipeline.forEachRemaining(actuals::add);
+        }
+        assertEquals(expecteds, actuals);
+    }
+
+    @Test
+    public void shouldHandTheScannersErrorToTheParser() {
+        Iterator<Token> failing = new Iterator<Token>() {
+            public boolean hasNext() {
+                return true;
+            }
+
+            public Token next() {
+                throw new StackOverflowError();
+            }
+        };
+        try (TokenPipeline pipeline = new TokenPipeline(failing)) {
+            assertThrows(StackOverflowError.class, pipeline::next, "Expected the scanner's error instead of waiting forever.");
+        }
+    }
 }
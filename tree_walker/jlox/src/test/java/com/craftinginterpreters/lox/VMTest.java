@@ -0,0 +1,137 @@
+package com.craftinginterpreters.lox;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.List;
+
+public class VMTest {
+
+    private String runGivenSource(String source) {
+        Lox lox = new Lox(Lox.Engine.VM);
+        List<Stmt> program = new Parser(lox, new Scanner(lox, source).scanTokens()).parse();
+        new Resolver(new Interpreter(lox)).resolve(program);
+        VmFunction script = new Compiler(lox).compile(program);
+        assertFalse(lox.hasErrored(), "Expected the source to compile without errors.");
+
+        PrintStream stdout = System.out;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            System.setOut(new PrintStream(out));
+            new VM(lox).interpret(script);
+        } catch (VisitException e) {
+            assertTrue(false, String.format("Unexpected runtime error: %s", e.getMessage()));
+        } finally {
+            System.setOut(stdout);
+        }
+        return out.toString();
+    }
+
+    @Test
+    public void shouldRunArithmetic() {
+        assertEquals("7.000000\n", runGivenSource("print 1 + 2 * 3;"));
+    }
+
+    @Test
+    public void shouldConcatenateStringAndNumber() {
+        assertEquals("n = 1.000000\n", runGivenSource("var n = 1; print \"n = \" + n;"));
+    }
+
+    @Test
+    public void shouldRunRecursiveFunction() {
+        String source = "fun fib(n) { if (n < 2) return n; return fib(n - 1) + fib(n - 2); } print fib(15);";
+        assertEquals("610.000000\n", runGivenSource(source));
+    }
+
+    @Test
+    public void shouldCloseOverLocalsThatOutliveTheirFrame() {
+        String source = """
+            fun counter() { var c = 0; fun inc() { c = c + 1; return c; } return inc; }
+            var inc = counter();
+            inc();
+            print inc();
+            """;
+        assertEquals("2.000000\n", runGivenSource(source));
+    }
+
+    @Test
+    public void shouldShareCapturedVariableBetweenClosures() {
+        String source = """
+            {
+                var x = "before";
+                fun get() { return x; }
+                fun set() { x = "after"; }
+                set();
+                print get();
+            }
+            """;
+        assertEquals("after\n", runGivenSource(source));
+    }
+
+    @Test
+    public void shouldDispatchInheritedAndSuperMethods() {
+        String source = """
+            class A { init(x) { this.x = x; } name() { return "A" + this.x; } }
+            class B < A { name() { return "B" + super.name(); } }
+            var b = B(1);
+            print b.name();
+            print b;
+            """;
+        assertEquals("BA1.000000\n<B instance>\n", runGivenSource(source));
+    }
+
+    @Test
+    public void shouldReportRuntimeErrorLikeTheTreeWalker() {
+        Lox lox = new Lox(Lox.Engine.VM);
+        List<Stmt> program = new Parser(lox, new Scanner(lox, "var a = 1;\nprint b;").scanTokens()).parse();
+        VmFunction script = new Compiler(lox).compile(program);
+        VisitException error = assertThrows(VisitException.class, () -> new VM(lox).interpret(script));
+        assertEquals("Undefined variable: Token{ type: IDENTIFIER, lexeme: b, line: 2 }.", error.getMessage());
+    }
+
+    @Test
+    public void shouldRecurseDeeperThanTheJavaStack() {
+        String source = "fun depth(n) { if (n == 0) return 0; return 1 + depth(n - 1); } print depth(200000);";
+        assertEquals("200000.000000\n", runGivenSource(source));
+    }
+
+    @Test
+    public void shouldRunTailCallsInTheFrameTheyReturnFrom() throws VisitException {
+        String source = """
+            fun even(n) { if (n == 0) return true; return odd(n - 1); }
+            fun odd(n) { if (n == 0) return false; return even(n - 1); }
+            class Loop { run(n, acc) { if (n == 0) return acc; return this.run(n - 1, acc + 1); } }
+            class Sub < Loop { run(n, acc) { return super.run(n, acc); } }
+            print even(2001);
+            print Sub().run(2000, 0);
+            """;
+        Lox lox = new Lox(Lox.Engine.VM);
+        VmFunction script = new Compiler(lox).compile(new Parser(lox, new Scanner(lox, source).scanTokens()).parse());
+        VM vm = new VM(lox);
+        vm.setMaxDepth(10);
+        PrintStream stdout = System.out;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            System.setOut(new PrintStream(out));
+            vm.interpret(script);
+        } finally {
+            System.setOut(stdout);
+        }
+        assertEquals("false\n2000.000000\n", out.toString());
+    }
+
+    @Test
+    public void shouldReportStackOverflowPastMaxDepth() {
+        Lox lox = new Lox(Lox.Engine.VM);
+        List<Stmt> program = new Parser(lox, new Scanner(lox, "fun f(n) { return 1 + f(n); }\nf(0);").scanTokens()).parse();
+        VmFunction script = new Compiler(lox).compile(program);
+        VM vm = new VM(lox);
+        vm.setMaxDepth(1000);
+        VisitException error = assertThrows(VisitException.class, () -> vm.interpret(script));
+        assertEquals("Stack overflow, more than 1000 calls deep.", error.getMessage());
+        assertFalse(lox.hasErrored(), "Expected the overflow to end the program, not the call.");
+    }
+}